@@ -0,0 +1,62 @@
+package com.simonepugliese.taxreportgui.bench;
+
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.value.ObservableValue;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import pugliesesimone.taxreport.model.Expense;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversione Expense -> valori di cella, come le cell value factory di {@code DashboardController.setupTable}.
+ * <p>
+ * {@code visibleWindow} misura quello che la tabella fa a ogni scroll (una schermata di righe),
+ * {@code fullPass} il caso peggiore di un refresh che tocca tutte le righe.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CellBenchmark {
+
+    private static final int VISIBLE_ROWS = 40;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private List<Expense> rows;
+    private int offset;
+
+    @Setup
+    public void setup() {
+        rows = FakeBackend.expenses(size);
+    }
+
+    @Benchmark
+    public void visibleWindow(Blackhole bh) {
+        offset = (offset + VISIBLE_ROWS) % (rows.size() - VISIBLE_ROWS);
+        for (int i = offset; i < offset + VISIBLE_ROWS; i++) convert(rows.get(i), bh);
+    }
+
+    @Benchmark
+    public void fullPass(Blackhole bh) {
+        for (Expense e : rows) convert(e, bh);
+    }
+
+    /** Le cinque colonne: data, tipo, descrizione, persona, stato. */
+    private static void convert(Expense e, Blackhole bh) {
+        bh.consume(cell(e.getRawDate()));
+        bh.consume(cell(e.getExpenseType().name()));
+        bh.consume(cell(e.getDescription()));
+        bh.consume(cell(e.getPerson().getName()));
+        bh.consume(cell(String.valueOf(e.getExpenseState())));
+    }
+
+    private static ObservableValue<String> cell(String value) {
+        return new SimpleStringProperty(value);
+    }
+}
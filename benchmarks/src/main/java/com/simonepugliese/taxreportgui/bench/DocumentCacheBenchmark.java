@@ -0,0 +1,84 @@
+package com.simonepugliese.taxreportgui.bench;
+
+import com.simonepugliese.taxreportgui.util.DocumentCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Lookup nella cache allegati, lo stesso percorso di {@code ServiceManager.downloadDocument}
+ * ({@code cache.get(path, source)}) con una sorgente in memoria al posto dello share.
+ * <p>
+ * I documenti in cache sono file veri in una cartella temporanea: 100k file renderebbero il setup
+ * più lento del benchmark, quindi qui le taglie sono 1k/10k documenti.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocumentCacheBenchmark {
+
+    private static final int FILE_SIZE = 4 * 1024;
+
+    @Param({"1000", "10000"})
+    public int documents;
+
+    private Path root;
+    private DocumentCache cache;
+    private byte[] content;
+    private int next;
+    private int missCounter;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        root = Files.createTempDirectory("taxreport-bench-cache");
+        content = FakeBackend.fileContent(FILE_SIZE);
+        cache = new DocumentCache(root, Long.MAX_VALUE);
+        cache.open();
+        for (int i = 0; i < documents; i++) get(pathOf(i));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    /** Documento già in cache: lookup nell'indice + aggiornamento LRU. */
+    @Benchmark
+    public File hit() throws Exception {
+        next = (next + 7919) % documents;
+        return get(pathOf(next));
+    }
+
+    /** Controllo usato dal prefetch (nessun aggiornamento LRU). */
+    @Benchmark
+    public boolean contains() {
+        next = (next + 7919) % documents;
+        return cache.contains(pathOf(next));
+    }
+
+    /** Documento nuovo: "download" dalla sorgente in memoria, file parziale e rename atomico. */
+    @Benchmark
+    public File miss() throws Exception {
+        return get("nuovi/" + (missCounter++) + "/fattura.pdf");
+    }
+
+    private File get(String relativePath) throws Exception {
+        return cache.get(relativePath, () -> new ByteArrayInputStream(content));
+    }
+
+    private static String pathOf(int i) {
+        return "2024/Persona " + (i % FakeBackend.PERSONS) + "/" + i + "/fattura_" + i + ".pdf";
+    }
+}
@@ -0,0 +1,71 @@
+package com.simonepugliese.taxreportgui.bench;
+
+import pugliesesimone.taxreport.model.Expense;
+import pugliesesimone.taxreport.model.ExpenseState;
+import pugliesesimone.taxreport.model.ExpenseType;
+import pugliesesimone.taxreport.model.Person;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Dati sintetici deterministici (seed fisso) per i benchmark, costruiti con i modelli veri del backend.
+ * Niente DB né share SMB: i benchmark passano le spese per anno e il contenuto dei file direttamente
+ * al codice misurato ({@code ExpensePager.PageLoader}, {@code DocumentCache.Source}).
+ */
+public final class FakeBackend {
+
+    public static final int PERSONS = 12;
+    public static final int FIRST_YEAR = 2018;
+    public static final int YEARS = 8;
+
+    private static final String[] WORDS = {
+            "visita", "dentista", "oculista", "farmacia", "analisi", "tasse", "universitarie",
+            "veterinario", "vaccino", "controllo", "ortopedico", "fisioterapia", "ricevuta", "ticket"
+    };
+
+    private FakeBackend() {}
+
+    public static List<Person> persons() {
+        List<Person> persons = new ArrayList<>();
+        for (int i = 0; i < PERSONS; i++) {
+            persons.add(new Person("Persona " + i, String.format("PRSPRS80A01H%03dX", i)));
+        }
+        return persons;
+    }
+
+    /** {@code count} spese distribuite su {@value #YEARS} anni, persone e tipi. */
+    public static List<Expense> expenses(int count) {
+        Random random = new Random(42);
+        List<Person> persons = persons();
+        ExpenseType[] types = ExpenseType.values();
+        ExpenseState[] states = ExpenseState.values();
+        List<Expense> expenses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String year = String.valueOf(FIRST_YEAR + random.nextInt(YEARS));
+            String date = String.format("%02d/%02d/%s", 1 + random.nextInt(28), 1 + random.nextInt(12), year);
+            String desc = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " #" + i;
+            ExpenseState state = states[random.nextInt(states.length)];
+            expenses.add(new Expense((long) (i + 1), year, persons.get(random.nextInt(PERSONS)),
+                    types[random.nextInt(types.length)], desc, date, state));
+        }
+        return expenses;
+    }
+
+    /** Spese raggruppate per anno, dal più recente (come {@code getAvailableYears} del backend). */
+    public static TreeMap<String, List<Expense>> byYear(List<Expense> expenses) {
+        TreeMap<String, List<Expense>> byYear = new TreeMap<>(Comparator.reverseOrder());
+        for (Expense e : expenses) byYear.computeIfAbsent(e.getYear(), y -> new ArrayList<>()).add(e);
+        return byYear;
+    }
+
+    /** {@code size} byte pseudo-casuali, il contenuto di ogni file "scaricato". */
+    public static byte[] fileContent(int size) {
+        byte[] content = new byte[size];
+        new Random(7).nextBytes(content);
+        return content;
+    }
+}
@@ -0,0 +1,94 @@
+package com.simonepugliese.taxreportgui.bench;
+
+import com.simonepugliese.taxreportgui.util.ExpenseFilter;
+import com.simonepugliese.taxreportgui.util.ExpenseStats;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
+import org.openjdk.jmh.annotations.*;
+import pugliesesimone.taxreport.model.Expense;
+import pugliesesimone.taxreport.model.ExpenseState;
+import pugliesesimone.taxreport.model.ExpenseType;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filtri e statistiche della Dashboard con le stesse classi di {@code DashboardController.applyFilters}:
+ * {@link ExpenseFilter} (indice + bitset) come predicato della FilteredList, {@link ExpenseStats} aggiornate
+ * con le sole righe che cambiano visibilità.
+ * <p>
+ * Le persone sintetiche non hanno id (non passano dal DB): la chiave persona è il codice fiscale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private ObservableList<Expense> masterData;
+    private FilteredList<Expense> filteredData;
+    private ExpenseStats stats;
+    private ExpenseFilter filter;
+
+    private Set<Object> somePersons;
+    private Set<ExpenseType> oneType;
+    private boolean filtered;
+
+    @Setup
+    public void setup() {
+        masterData = FXCollections.observableArrayList(FakeBackend.expenses(size));
+        filteredData = new FilteredList<>(masterData, e -> true);
+        filter = new ExpenseFilter(e -> e.getPerson().getFiscalCode());
+        stats = new ExpenseStats(masterData, filter, e -> e.getExpenseState() == ExpenseState.COMPLETED);
+        filter.markStale();
+        stats.visibilityChanged(filter.apply(masterData, Set.of(), Set.of(), null));
+
+        List<Object> codes = FakeBackend.persons().stream().map(p -> (Object) p.getFiscalCode()).toList();
+        somePersons = Set.copyOf(codes.subList(0, codes.size() / 3));
+        oneType = Set.of(ExpenseType.values()[0]);
+    }
+
+    /** Ricostruzione dell'indice, una per caricamento o delta. */
+    @Benchmark
+    public ExpenseFilter buildIndex() {
+        filter.markStale();
+        filter.apply(masterData, Set.of(), Set.of(), null);
+        return filter;
+    }
+
+    /** Solo il calcolo dei bitset (AND tra dimensioni, OR dentro ciascuna), indice già pronto. */
+    @Benchmark
+    public ExpenseFilter computeVisibleRows() {
+        filter.apply(masterData, somePersons, oneType, null);
+        return filter;
+    }
+
+    /**
+     * Alterna filtro attivo / nessun filtro: bitset, predicato sulla FilteredList
+     * e aggiornamento incrementale delle statistiche (il costo di un click su "Applica").
+     */
+    @Benchmark
+    public int toggleFilter() {
+        filtered = !filtered;
+        List<Expense> flipped = filtered
+                ? filter.apply(masterData, somePersons, oneType, null)
+                : filter.apply(masterData, Set.of(), Set.of(), null);
+        filteredData.setPredicate(expense -> filter.test(expense));
+        stats.visibilityChanged(flipped);
+        return stats.getTotal();
+    }
+
+    /** Ricalcolo completo delle statistiche (dopo una verifica di conformità). */
+    @Benchmark
+    public int rebuildStats() {
+        stats.rebuild();
+        return stats.getCompleted();
+    }
+}
@@ -0,0 +1,79 @@
+package com.simonepugliese.taxreportgui.bench;
+
+import com.simonepugliese.taxreportgui.gui.SecretCipher;
+import com.simonepugliese.taxreportgui.util.ExpensePager;
+import com.simonepugliese.taxreportgui.util.SearchIndex;
+import org.openjdk.jmh.annotations.*;
+import pugliesesimone.taxreport.model.Expense;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caricamento di un anno dai dati sintetici: ordinamento della pagina multi-anno
+ * ({@link ExpensePager}) e indicizzazione/ricerca full-text ({@link SearchIndex}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PagingBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private Map<String, List<Expense>> byYear;
+    private ExpensePager pager;
+    private String year;
+    private SearchIndex searchIndex;
+    private Path dataDir;
+
+    @Setup
+    public void setup() throws Exception {
+        byYear = FakeBackend.byYear(FakeBackend.expenses(size));
+        List<String> years = new ArrayList<>(byYear.keySet());
+        year = years.get(0);
+        pager = new ExpensePager(years, this::findByYear, 3);
+
+        dataDir = Files.createTempDirectory("taxreport-bench-search");
+        searchIndex = new SearchIndex(dataDir, new SecretCipher(dataDir.resolve("secret.key")));
+        for (String y : years) searchIndex.indexYear(y, findByYear(y));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dataDir.resolve("search.bin"));
+        Files.deleteIfExists(dataDir.resolve("secret.key"));
+        Files.deleteIfExists(dataDir);
+    }
+
+    /** findByYear + ordinamento per data/id. */
+    @Benchmark
+    public List<Expense> fetchYearPage() throws Exception {
+        return pager.fetch(year);
+    }
+
+    /** Re-indicizzazione di un anno (fatta dopo ogni caricamento e salvataggio). */
+    @Benchmark
+    public void indexYear() throws Exception {
+        searchIndex.indexYear(year, findByYear(year));
+    }
+
+    /** Ricerca per prefisso su tutti gli anni. */
+    @Benchmark
+    public List<SearchIndex.Hit> search() {
+        return searchIndex.search("dent vis", 500);
+    }
+
+    /** Come {@code findByYear} del backend: una lista nuova a ogni chiamata. */
+    private List<Expense> findByYear(String y) {
+        return new ArrayList<>(byYear.getOrDefault(y, List.of()));
+    }
+}
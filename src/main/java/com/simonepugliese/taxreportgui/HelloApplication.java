@@ -1,25 +1,41 @@
 package com.simonepugliese.taxreportgui;
 
 import atlantafx.base.theme.PrimerLight;
+import com.simonepugliese.taxreportgui.util.CacheMaintenanceService;
+import com.simonepugliese.taxreportgui.util.DatabaseConnections;
+import com.simonepugliese.taxreportgui.util.Metrics;
+import com.simonepugliese.taxreportgui.util.Outbox;
 import com.simonepugliese.taxreportgui.util.ServiceManager;
+import com.simonepugliese.taxreportgui.util.TaskRunner;
+import com.simonepugliese.taxreportgui.util.ViewRegistry;
+import javafx.animation.PauseTransition;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.concurrent.TimeUnit;
+import java.time.Duration;
+import java.time.Instant;
 
 public class HelloApplication extends Application {
+    // Avvio di addestramento per l'archivio CDS (profilo Maven "cds"): apre le viste ed esce
+    private static final String CDS_TRAINING_PROPERTY = "taxreport.cds.training";
+
     @Override
     public void start(Stage stage) throws IOException {
-        // 1. Pulizia Cache Intelligente (non blocca l'avvio)
-        new Thread(this::cleanOldCache).start();
+        // 0. Connessione a DB e share subito, in parallelo alla costruzione della UI.
+        //    Nel frattempo la Dashboard mostra la copia locale.
+        TaskRunner.getInstance().run(TaskRunner.Category.IO, "Connessione al server", this::connectInBackground);
+
+        // 1. Manutenzione cache periodica, a bassa priorità (non blocca l'avvio)
+        CacheMaintenanceService.getInstance().start();
 
-        // 2. Setup UI
+        // 2. Invio in background delle spese salvate in locale (anche quelle della sessione precedente)
+        Outbox.getInstance().start();
+
+        // 3. Setup UI
         Application.setUserAgentStylesheet(new PrimerLight().getUserAgentStylesheet());
 
         FXMLLoader fxmlLoader = new FXMLLoader(HelloApplication.class.getResource("view/MainView.fxml"));
@@ -28,35 +44,56 @@ public class HelloApplication extends Application {
         stage.setTitle("TaxReport Manager");
         stage.setScene(scene);
         stage.show();
+        recordStartupTime();
+
+        if (Boolean.getBoolean(CDS_TRAINING_PROPERTY)) runCdsTraining();
     }
 
-    /**
-     * Pulisce solo i file di cache più vecchi di 7 giorni.
-     * Evita di riscaricare tutto ogni volta.
-     */
-    private void cleanOldCache() {
+    @Override
+    public void stop() {
+        // Salva l'ordine LRU aggiornato dagli hit della sessione
+        ServiceManager.getInstance().getDocumentCache().flush();
+        CacheMaintenanceService.getInstance().stop();
+        Outbox.getInstance().stop();
+        TaskRunner.getInstance().shutdown();
+        DatabaseConnections.shutdown();
+    }
+
+    private void connectInBackground() {
         try {
-            Path cache = ServiceManager.getInstance().getCachePath();
-            if (Files.exists(cache)) {
-                long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(7);
-
-                Files.walk(cache)
-                        .filter(Files::isRegularFile)
-                        .filter(p -> p.toFile().lastModified() < cutoff)
-                        .map(Path::toFile)
-                        .forEach(file -> {
-                            try {
-                                if (file.delete()) {
-                                    System.out.println("Cache scaduta rimossa: " + file.getName());
-                                }
-                            } catch (Exception ignored) {}
-                        });
-            }
+            ServiceManager.getInstance().ensureReady();
         } catch (Exception e) {
-            System.err.println("Warning: Manutenzione cache fallita: " + e.getMessage());
+            // Nessun alert: ci pensa la Dashboard quando prova a caricare
+            System.err.println("Warning: connessione iniziale fallita: " + e.getMessage());
         }
     }
 
+    /** Dall'avvio del processo alla finestra a video (ui.startup nel pannello Diagnostica). */
+    private void recordStartupTime() {
+        ProcessHandle.current().info().startInstant().ifPresent(started -> Metrics.getInstance().record(
+                "ui.startup", Duration.between(started, Instant.now()).toNanos()));
+    }
+
+    /**
+     * Passa per tutte le viste (così le loro classi finiscono nella lista dell'archivio CDS) e chiude.
+     */
+    private void runCdsTraining() {
+        PauseTransition views = new PauseTransition(javafx.util.Duration.seconds(2));
+        views.setOnFinished(e -> {
+            ViewRegistry registry = ViewRegistry.getInstance();
+            registry.show(ViewRegistry.View.ADD_EXPENSE);
+            registry.show(ViewRegistry.View.IMPORT);
+            registry.show(ViewRegistry.View.EXPORT);
+            registry.show(ViewRegistry.View.SETTINGS);
+            registry.show(ViewRegistry.View.DASHBOARD);
+
+            PauseTransition exit = new PauseTransition(javafx.util.Duration.seconds(3));
+            exit.setOnFinished(x -> Platform.exit());
+            exit.play();
+        });
+        views.play();
+    }
+
     public static void main(String[] args) {
         launch();
     }
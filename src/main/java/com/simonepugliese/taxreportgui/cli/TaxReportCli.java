@@ -0,0 +1,231 @@
+package com.simonepugliese.taxreportgui.cli;
+
+import com.simonepugliese.taxreportgui.util.ComplianceEngine;
+import com.simonepugliese.taxreportgui.util.DatabaseConnections;
+import com.simonepugliese.taxreportgui.util.DocumentCache;
+import com.simonepugliese.taxreportgui.util.ReportExporter;
+import com.simonepugliese.taxreportgui.util.ServiceManager;
+import pugliesesimone.taxreport.model.Document;
+import pugliesesimone.taxreport.model.Expense;
+import pugliesesimone.taxreport.model.ExpenseState;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Modalità batch senza interfaccia: stessi {@link ServiceManager} e configurazione dell'app,
+ * ma nessuna classe JavaFX viene caricata (niente toolkit, avvio rapido, va bene su un server senza desktop).
+ * <p>
+ * Uso, dall'immagine jlink: {@code app/bin/java -m com.simonepugliese.taxreportgui/com.simonepugliese.taxreportgui.cli.TaxReportCli <comando>}
+ * <pre>
+ *   compliance &lt;anno&gt;                          verifica conformità (aggiorna gli stati sul server)
+ *   export &lt;csv|xlsx|pdf&gt; &lt;file&gt; [anni...]   esporta il report (default: tutti gli anni)
+ *   prefetch [anni...]                         scarica in cache gli allegati
+ *   verify [anni...]                           rilegge gli allegati dallo share e controlla la cache
+ * </pre>
+ * Codici di uscita: 0 ok, 1 errore, 2 uso errato, 3 spese non conformi o documenti non integri.
+ */
+public final class TaxReportCli {
+
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_ERROR = 1;
+    private static final int EXIT_USAGE = 2;
+    private static final int EXIT_PROBLEMS = 3;
+
+    private final ServiceManager serviceManager = ServiceManager.getInstance();
+
+    /** Argomenti sbagliati: si stampa il messaggio e si esce con {@link #EXIT_USAGE}. */
+    private static final class UsageException extends RuntimeException {
+        UsageException(String message) {
+            super(message);
+        }
+    }
+
+    private TaxReportCli() {
+    }
+
+    public static void main(String[] args) {
+        // ImageIO e java.desktop non devono mai cercare un display
+        System.setProperty("java.awt.headless", "true");
+
+        int code;
+        try {
+            code = new TaxReportCli().run(args);
+        } catch (UsageException e) {
+            System.err.println(e.getMessage());
+            code = EXIT_USAGE;
+        } catch (Exception e) {
+            System.err.println("Errore: " + e.getMessage());
+            code = EXIT_ERROR;
+        } finally {
+            ServiceManager.getInstance().getDocumentCache().flush();
+            DatabaseConnections.shutdown();
+        }
+        System.exit(code);
+    }
+
+    private int run(String[] args) throws Exception {
+        if (args.length == 0) throw new UsageException(usage());
+        List<String> rest = List.of(args).subList(1, args.length);
+
+        return switch (args[0]) {
+            case "compliance" -> {
+                if (rest.size() != 1) throw new UsageException("Uso: compliance <anno>");
+                yield compliance(rest.get(0));
+            }
+            case "export" -> {
+                if (rest.size() < 2) throw new UsageException("Uso: export <csv|xlsx|pdf> <file> [anni...]");
+                yield export(parseFormat(rest.get(0)), Path.of(rest.get(1)), rest.subList(2, rest.size()));
+            }
+            case "prefetch" -> prefetch(rest);
+            case "verify" -> verify(rest);
+            default -> throw new UsageException("Comando sconosciuto: " + args[0] + "\n" + usage());
+        };
+    }
+
+    private int compliance(String year) throws Exception {
+        serviceManager.ensureReady();
+
+        // 1. Verifica sul server (aggiorna gli stati delle spese)
+        System.out.println(serviceManager.runComplianceCheck(year));
+
+        // 2. Esito per spesa con le regole locali, per il codice di uscita;
+        //    senza regole locali per l'anno valgono gli stati appena salvati dal server
+        List<Expense> expenses = serviceManager.getMetadata().findByYear(year);
+        long failed;
+        if (ComplianceEngine.getInstance().rulesFor(year) != null) {
+            List<ComplianceEngine.Result> results = ComplianceEngine.getInstance().check(year, expenses);
+            failed = results.stream().filter(r -> !r.compliant()).count();
+        } else {
+            failed = expenses.stream().filter(e -> e.getExpenseState() != ExpenseState.COMPLETED).count();
+        }
+        System.out.println(year + ": " + expenses.size() + " spese, " + failed + " non conformi");
+        return failed > 0 ? EXIT_PROBLEMS : EXIT_OK;
+    }
+
+    private int export(ReportExporter.Format format, Path target, List<String> years) throws Exception {
+        List<String> selected = resolveYears(years);
+        ReportExporter.Summary summary = new ReportExporter(serviceManager).export(selected, format, target, false,
+                (done, total, rows) -> System.err.println("  " + done + "/" + total + " anni, " + rows + " spese"));
+        System.out.println("Report salvato in " + target.toAbsolutePath() + ": " + summary.rows() + " spese su "
+                + summary.years() + " anni, " + summary.compliant() + " conformi");
+        return EXIT_OK;
+    }
+
+    private int prefetch(List<String> years) throws Exception {
+        DocumentCache cache = serviceManager.getDocumentCache();
+        int cached = 0;
+        int downloaded = 0;
+        int failed = 0;
+
+        for (String year : resolveYears(years)) {
+            for (Document doc : documentsOf(year)) {
+                if (cache.contains(doc.getRelativePath())) {
+                    cached++;
+                    continue;
+                }
+                try {
+                    serviceManager.downloadDocument(doc);
+                    downloaded++;
+                } catch (Exception e) {
+                    System.err.println("  " + doc.getRelativePath() + ": " + e.getMessage());
+                    failed++;
+                }
+            }
+        }
+        System.out.println("Prefetch: " + downloaded + " scaricati, " + cached + " già in cache, " + failed + " errori");
+        return failed > 0 ? EXIT_PROBLEMS : EXIT_OK;
+    }
+
+    /**
+     * Ogni allegato viene riletto per intero dallo share (esiste ed è leggibile) e, se è in cache,
+     * la copia locale deve avere lo stesso SHA-256. Le copie corrotte o superate vengono scartate.
+     */
+    private int verify(List<String> years) throws Exception {
+        DocumentCache cache = serviceManager.getDocumentCache();
+        int ok = 0;
+        int problems = 0;
+
+        for (String year : resolveYears(years)) {
+            for (Document doc : documentsOf(year)) {
+                String path = doc.getRelativePath();
+
+                // 1. Share
+                String remoteSha;
+                try (InputStream is = serviceManager.openRemote(doc)) {
+                    if (is == null) throw new IllegalStateException("file non trovato");
+                    remoteSha = sha256(is);
+                } catch (Exception e) {
+                    System.out.println("MANCANTE  " + path + " (" + e.getMessage() + ")");
+                    problems++;
+                    continue;
+                }
+
+                // 2. Cache locale
+                DocumentCache.Integrity local = cache.verify(path);
+                if (local == DocumentCache.Integrity.CORRUPT) {
+                    System.out.println("CACHE     " + path + " (copia locale corrotta, rimossa)");
+                } else if (local == DocumentCache.Integrity.VALID && !remoteSha.equals(cache.sha256Of(path))) {
+                    // Il file sullo share è cambiato dopo il download: la copia locale non vale più
+                    cache.remove(path);
+                    System.out.println("CACHE     " + path + " (diversa dallo share, rimossa)");
+                }
+                ok++;
+            }
+        }
+        System.out.println("Verifica: " + ok + " documenti integri sullo share, " + problems + " mancanti o illeggibili");
+        return problems > 0 ? EXIT_PROBLEMS : EXIT_OK;
+    }
+
+    // --- HELPERS ---
+
+    private List<String> resolveYears(List<String> years) throws Exception {
+        if (!years.isEmpty()) return years;
+        serviceManager.ensureReady();
+        List<String> all = new ArrayList<>(serviceManager.getMetadata().getAvailableYears());
+        all.sort(null);
+        return all;
+    }
+
+    private List<Document> documentsOf(String year) throws Exception {
+        serviceManager.ensureReady();
+        List<Document> docs = new ArrayList<>();
+        for (Expense e : serviceManager.getMetadata().findByYear(year)) {
+            if (e.getDocuments() != null) docs.addAll(e.getDocuments());
+        }
+        System.err.println(year + ": " + docs.size() + " documenti");
+        return docs;
+    }
+
+    private static ReportExporter.Format parseFormat(String value) {
+        try {
+            return ReportExporter.Format.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new UsageException("Formato non valido: " + value + " (csv, xlsx, pdf)");
+        }
+    }
+
+    private static String sha256(InputStream in) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (InputStream is = new DigestInputStream(in, digest)) {
+            is.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static String usage() {
+        return """
+                Uso: TaxReportCli <comando> [argomenti]
+                  compliance <anno>
+                  export <csv|xlsx|pdf> <file> [anni...]
+                  prefetch [anni...]
+                  verify [anni...]""";
+    }
+}
@@ -1,16 +1,24 @@
 package com.simonepugliese.taxreportgui.controller;
 
+import com.simonepugliese.taxreportgui.util.AttachmentUploader;
+import com.simonepugliese.taxreportgui.util.Metrics;
+import com.simonepugliese.taxreportgui.util.Outbox;
+import com.simonepugliese.taxreportgui.util.ReferenceData;
 import com.simonepugliese.taxreportgui.util.ServiceManager;
+import com.simonepugliese.taxreportgui.util.TaskRunner;
+import com.simonepugliese.taxreportgui.util.ThumbnailService;
+import com.simonepugliese.taxreportgui.util.ViewRegistry;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.concurrent.Task;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Parent;
 import javafx.scene.control.*;
-import javafx.scene.layout.BorderPane;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
+import javafx.scene.layout.StackPane;
 import javafx.scene.control.ProgressIndicator;
 import javafx.stage.FileChooser;
 import javafx.util.StringConverter;
@@ -20,7 +28,6 @@ import javafx.geometry.Pos;
 
 import java.awt.Desktop;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
@@ -28,9 +35,10 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
-public class AddExpenseController {
+public class AddExpenseController implements ViewRegistry.Lifecycle {
 
     @FXML private ComboBox<Person> comboPerson;
     @FXML private TextField txtFiscalCode;
@@ -40,15 +48,23 @@ public class AddExpenseController {
     @FXML private DatePicker datePicker;
     @FXML private ListView<AttachmentItem> filesListView;
     @FXML private Button btnSave;
+    @FXML private ProgressBar uploadProgress;
 
     private Expense editingExpense;
 
+    private String saveButtonText;
+
     private static class AttachmentItem {
         File localFile;
         Document serverDoc;
         DocumentType type;
         String name;
         private boolean downloading = false;
+        // Avanzamento upload 0..1, -1 se non in caricamento (scritto dal thread di upload)
+        private volatile double progress = -1;
+        // Miniatura (null finché non è pronta o se il formato non è visualizzabile)
+        private Image thumbnail;
+        private boolean thumbnailRequested;
 
         public AttachmentItem(File f, DocumentType t) {
             this.localFile = f;
@@ -65,11 +81,14 @@ public class AddExpenseController {
         @Override public String toString() { return name + " [" + type + "]"; }
         public boolean isDownloading() { return downloading; }
         public void setDownloading(boolean downloading) { this.downloading = downloading; }
+        public double getProgress() { return progress; }
+        public void setProgress(double progress) { this.progress = progress; }
     }
 
     @FXML
     public void initialize() {
-        loadAvailableYears();
+        saveButtonText = btnSave.getText();
+        uploadProgress.managedProperty().bind(uploadProgress.visibleProperty());
 
         comboType.setItems(FXCollections.observableArrayList(ExpenseType.values()));
         comboType.getSelectionModel().selectFirst();
@@ -79,7 +98,13 @@ public class AddExpenseController {
             @Override public Person fromString(String string) { return null; }
         });
 
-        loadPersons();
+        // Persone e anni dalla cache condivisa: nessuna query all'apertura, aggiornati quando cambiano
+        ReferenceData refData = ReferenceData.getInstance();
+        comboPerson.setItems(refData.getPersons());
+        refData.getPersons().addListener((ListChangeListener<Person>) c -> reselectPerson());
+        refData.getYears().addListener((ListChangeListener<String>) c -> updateYears(refData.getYears()));
+        updateYears(refData.getYears());
+        refData.ensureLoaded();
 
         // Setup Lista Allegati Custom
         filesListView.setCellFactory(param -> new ListCell<>() {
@@ -99,10 +124,17 @@ public class AddExpenseController {
                         ProgressIndicator pi = new ProgressIndicator(ProgressIndicator.INDETERMINATE_PROGRESS);
                         pi.setPrefSize(16, 16);
                         box.getChildren().add(pi);
+                    } else if (item.thumbnail != null) {
+                        ImageView thumb = new ImageView(item.thumbnail);
+                        thumb.setFitWidth(40);
+                        thumb.setFitHeight(40);
+                        thumb.setPreserveRatio(true);
+                        box.getChildren().add(thumb);
                     } else {
                         FontIcon icon = new FontIcon("fas-file-alt");
                         icon.setStyle("-fx-fill: #666666;"); // Grigio scuro
                         box.getChildren().add(icon);
+                        requestThumbnail(item);
                     }
 
                     String prefix = (item.localFile != null) ? "🆕 " : "☁️ ";
@@ -110,12 +142,23 @@ public class AddExpenseController {
                     Label lblType = new Label("[" + item.type + "]");
                     if (item.localFile == null) lblName.setStyle("-fx-text-fill: #0066cc;"); // Blu per cloud
 
-                    Button btnDel = new Button("", new FontIcon("fas-trash"));
-                    btnDel.getStyleClass().add("danger");
-                    btnDel.setOnAction(e -> getListView().getItems().remove(item));
-
                     HBox.setHgrow(lblName, Priority.ALWAYS);
-                    box.getChildren().addAll(lblName, lblType, btnDel);
+                    box.getChildren().addAll(lblName, lblType);
+
+                    if (item.getProgress() >= 0) {
+                        // Upload in corso: avanzamento al posto del cestino
+                        ProgressBar bar = new ProgressBar(item.getProgress());
+                        bar.setPrefWidth(120);
+                        box.getChildren().add(bar);
+                    } else {
+                        Button btnPreview = new Button("", new FontIcon("fas-eye"));
+                        btnPreview.setTooltip(new Tooltip("Anteprima"));
+                        btnPreview.setOnAction(e -> showPreview(item));
+                        Button btnDel = new Button("", new FontIcon("fas-trash"));
+                        btnDel.getStyleClass().add("danger");
+                        btnDel.setOnAction(e -> getListView().getItems().remove(item));
+                        box.getChildren().addAll(btnPreview, btnDel);
+                    }
                     setGraphic(box);
 
                     // Doppio Click per aprire
@@ -129,6 +172,28 @@ public class AddExpenseController {
         });
     }
 
+    @Override
+    public void onShow() {
+        ReferenceData.getInstance().ensureLoaded();
+    }
+
+    /** "Nuova Spesa" dal menu: se la vista era rimasta su una modifica, riparte da un modulo vuoto. */
+    public void startNewExpense() {
+        if (editingExpense != null) clearForm();
+    }
+
+    private void clearForm() {
+        editingExpense = null;
+        comboPerson.setValue(null);
+        txtFiscalCode.clear();
+        txtDescription.clear();
+        comboYear.setValue(String.valueOf(LocalDate.now().getYear()));
+        comboType.getSelectionModel().selectFirst();
+        datePicker.setValue(null);
+        filesListView.getItems().clear();
+        btnSave.setText(saveButtonText);
+    }
+
     private void openAttachment(AttachmentItem item) {
         if (item.localFile != null) {
             openFileOnDesktop(item.localFile);
@@ -144,7 +209,10 @@ public class AddExpenseController {
 
         Task<File> downloadTask = new Task<>() {
             @Override protected File call() throws Exception {
-                return ServiceManager.getInstance().downloadDocument(item.serverDoc);
+                File file = ServiceManager.getInstance().downloadDocument(item.serverDoc);
+                // Aperto dall'utente: la manutenzione non lo toglie per qualche giorno
+                ServiceManager.getInstance().getDocumentCache().markOpened(item.serverDoc.getRelativePath());
+                return file;
             }
         };
 
@@ -164,7 +232,53 @@ public class AddExpenseController {
             });
         });
 
-        new Thread(downloadTask).start();
+        TaskRunner.getInstance().submit(TaskRunner.Category.DOWNLOAD, downloadTask);
+    }
+
+    /** Miniatura generata in background; la lista si ridisegna quando è pronta. */
+    private void requestThumbnail(AttachmentItem item) {
+        if (item.thumbnailRequested) return;
+        item.thumbnailRequested = true;
+        Consumer<Image> done = image -> {
+            if (image == null) return;
+            item.thumbnail = image;
+            filesListView.refresh();
+        };
+        if (item.localFile != null) {
+            ThumbnailService.getInstance().request(item.localFile, ThumbnailService.Size.THUMBNAIL, done);
+        } else {
+            // Miniatura solo se l'allegato è già in locale; l'anteprima esplicita lo scarica
+            ThumbnailService.getInstance().requestCached(item.serverDoc, ThumbnailService.Size.THUMBNAIL, done);
+        }
+    }
+
+    /** Anteprima delle immagini dentro l'app; il doppio click resta per aprire il file (anche i PDF). */
+    private void showPreview(AttachmentItem item) {
+        ScrollPane pane = new ScrollPane(new StackPane(new ProgressIndicator()));
+        pane.setPrefSize(840, 640);
+        pane.setFitToWidth(true);
+
+        Dialog<Void> dialog = new Dialog<>();
+        dialog.setTitle(item.name);
+        dialog.getDialogPane().setContent(pane);
+        dialog.getDialogPane().getButtonTypes().add(ButtonType.CLOSE);
+
+        Consumer<Image> show = image -> {
+            if (image == null) {
+                pane.setContent(new Label("Anteprima non disponibile: doppio click sul file per aprirlo."));
+                return;
+            }
+            ImageView view = new ImageView(image);
+            view.setPreserveRatio(true);
+            view.setFitWidth(800);
+            pane.setContent(view);
+        };
+        if (item.localFile != null) {
+            ThumbnailService.getInstance().request(item.localFile, ThumbnailService.Size.PREVIEW, show);
+        } else {
+            ThumbnailService.getInstance().request(item.serverDoc, ThumbnailService.Size.PREVIEW, show);
+        }
+        dialog.show();
     }
 
     private void openFileOnDesktop(File file) {
@@ -175,52 +289,33 @@ public class AddExpenseController {
         }
     }
 
-    private void loadAvailableYears() {
-        Task<List<String>> task = new Task<>() {
-            @Override
-            protected List<String> call() throws Exception {
-                if (!ServiceManager.getInstance().isReady()) ServiceManager.getInstance().init();
-
-                // 1. Recupera anni esistenti dal DB
-                Set<String> yearSet = new HashSet<>(ServiceManager.getInstance().getMetadata().getAvailableYears());
-
-                // 2. [MODIFICATO] Aggiunge range storico (-3 a +3)
-                int currentYear = LocalDate.now().getYear();
-                for (int i = -3; i <= 3; i++) {
-                    yearSet.add(String.valueOf(currentYear + i));
-                }
-
-                // 3. Ordina decrescente (dal più recente)
-                return yearSet.stream()
-                        .sorted((a, b) -> b.compareTo(a))
-                        .collect(Collectors.toList());
-            }
-        };
-
-        task.setOnSucceeded(e -> {
-            comboYear.setItems(FXCollections.observableArrayList(task.getValue()));
-            // Seleziona l'anno corrente di default se non stiamo modificando una spesa
-            if (editingExpense == null) {
-                comboYear.setValue(String.valueOf(LocalDate.now().getYear()));
-            }
-        });
+    /** Anni del DB più un intervallo attorno all'anno corrente (-3 a +3), dal più recente. */
+    private void updateYears(List<String> dbYears) {
+        Set<String> yearSet = new HashSet<>(dbYears);
+        int currentYear = LocalDate.now().getYear();
+        for (int i = -3; i <= 3; i++) {
+            yearSet.add(String.valueOf(currentYear + i));
+        }
 
-        task.setOnFailed(e -> {
-            // Fallback minimale
-            String current = String.valueOf(LocalDate.now().getYear());
-            comboYear.setItems(FXCollections.observableArrayList(current));
-            comboYear.setValue(current);
-        });
+        String selected = comboYear.getValue();
+        comboYear.setItems(FXCollections.observableArrayList(
+                yearSet.stream().sorted((x, y) -> y.compareTo(x)).collect(Collectors.toList())));
+        // Mantiene l'anno scelto (o della spesa in modifica), altrimenti quello corrente
+        comboYear.setValue(selected != null ? selected : String.valueOf(currentYear));
+    }
 
-        new Thread(task).start();
+    /** La lista persone è stata ricaricata: riseleziona la stessa persona sui nuovi oggetti. */
+    private void reselectPerson() {
+        Person current = comboPerson.getValue();
+        Object selectedId = current != null ? current.getId()
+                : editingExpense != null ? editingExpense.getPerson().getId() : null;
+        if (selectedId != null) selectPerson(selectedId);
     }
 
-    private void loadPersons() {
-        try {
-            if (!ServiceManager.getInstance().isReady()) ServiceManager.getInstance().init();
-            List<Person> persons = ServiceManager.getInstance().getService().getAllPersons();
-            comboPerson.setItems(FXCollections.observableArrayList(persons));
-        } catch (Exception e) {}
+    private void selectPerson(Object personId) {
+        Person person = ReferenceData.getInstance().findPerson(personId);
+        if (person != null) comboPerson.setValue(person);
+        if (comboPerson.getValue() != null) txtFiscalCode.setText(comboPerson.getValue().getFiscalCode());
     }
 
     @FXML
@@ -230,9 +325,10 @@ public class AddExpenseController {
     }
 
     public void setEditingExpense(Expense expense) {
+        clearForm();
         this.editingExpense = expense;
-        comboPerson.getItems().stream().filter(p -> p.getId().equals(expense.getPerson().getId())).findFirst().ifPresent(comboPerson::setValue);
-        if(comboPerson.getValue() != null) txtFiscalCode.setText(comboPerson.getValue().getFiscalCode());
+        // Se le persone non sono ancora arrivate, la selezione la fa reselectPerson
+        selectPerson(expense.getPerson().getId());
         txtDescription.setText(expense.getDescription());
 
         comboYear.setValue(expense.getYear());
@@ -261,39 +357,94 @@ public class AddExpenseController {
 
     @FXML
     public void handleSave() {
-        try {
-            if (!ServiceManager.getInstance().isReady()) ServiceManager.getInstance().init();
-            if (comboPerson.getValue() == null) { new Alert(Alert.AlertType.WARNING, "Seleziona una persona!").show(); return; }
-
-            Person person = comboPerson.getValue();
-            List<Attachment> newAttachments = new ArrayList<>();
+        if (comboPerson.getValue() == null) { new Alert(Alert.AlertType.WARNING, "Seleziona una persona!").show(); return; }
+
+        Person person = comboPerson.getValue();
+        List<AttachmentItem> uploads = new ArrayList<>();
+        List<AttachmentUploader.LocalAttachment> newAttachments = new ArrayList<>();
+        for (AttachmentItem item : filesListView.getItems()) {
+            if (item.localFile != null) {
+                uploads.add(item);
+                newAttachments.add(new AttachmentUploader.LocalAttachment(item.localFile, item.type, item.name));
+            }
+        }
+        List<Document> survivingDocs = new ArrayList<>();
+        if (editingExpense != null) {
             for (AttachmentItem item : filesListView.getItems()) {
-                if (item.localFile != null) newAttachments.add(new Attachment(item.type, item.name, new FileInputStream(item.localFile)));
+                if (item.serverDoc != null) survivingDocs.add(item.serverDoc);
             }
-            List<Document> survivingDocs = new ArrayList<>();
-            if (editingExpense != null) {
-                for (AttachmentItem item : filesListView.getItems()) {
-                    if (item.serverDoc != null) survivingDocs.add(item.serverDoc);
-                }
+        }
+        // Una modifica può cambiare anno: la coda cerca la spesa in quello in cui si trova ora
+        String serverYear = editingExpense != null ? editingExpense.getYear() : null;
+        String dateStr = (datePicker.getValue() != null) ? datePicker.getValue().format(DateTimeFormatter.ofPattern("dd/MM/yyyy")) : "";
+        Expense expenseToSave;
+        if (editingExpense != null) {
+            expenseToSave = new Expense(editingExpense.getId(), comboYear.getValue(), person, comboType.getValue(), txtDescription.getText(), dateStr, editingExpense.getExpenseState());
+            expenseToSave.setDocuments(survivingDocs);
+        } else {
+            expenseToSave = new Expense(comboYear.getValue(), person, comboType.getValue(), txtDescription.getText(), dateStr);
+        }
+
+        // 1. Prima in coda locale (sempre, anche offline), poi invio subito se il server è già connesso.
+        //    Fuori dal thread FX: la UI resta reattiva e mostra l'avanzamento per file
+        Task<Outbox.SyncResult> saveTask = new Task<>() {
+            @Override
+            protected Outbox.SyncResult call() throws Exception {
+                Outbox outbox = Outbox.getInstance();
+                String id = outbox.enqueue(expenseToSave, serverYear, survivingDocs, newAttachments);
+                if (!ServiceManager.getInstance().isReady()) return new Outbox.SyncResult(false, null);
+
+                return outbox.trySync(id, (index, fileRead, fileSize, totalRead, totalSize) -> {
+                    if (totalSize > 0) updateProgress(totalRead, totalSize);
+                    AttachmentItem item = uploads.get(index);
+                    double progress = fileSize > 0 ? (double) fileRead / fileSize : 1.0;
+                    // Ridisegna la lista solo a scatti dell'1%
+                    if ((int) (progress * 100) != (int) (item.getProgress() * 100)) {
+                        item.setProgress(progress);
+                        Platform.runLater(filesListView::refresh);
+                    }
+                });
             }
-            String dateStr = (datePicker.getValue() != null) ? datePicker.getValue().format(DateTimeFormatter.ofPattern("dd/MM/yyyy")) : "";
-            Expense expenseToSave;
-            if (editingExpense != null) {
-                expenseToSave = new Expense(editingExpense.getId(), comboYear.getValue(), person, comboType.getValue(), txtDescription.getText(), dateStr, editingExpense.getExpenseState());
-                expenseToSave.setDocuments(survivingDocs);
+        };
+
+        Metrics.Sample saveSample = Metrics.getInstance().start("ui.expense.save");
+        btnSave.setDisable(true);
+        uploadProgress.progressProperty().bind(saveTask.progressProperty());
+        uploadProgress.setVisible(!newAttachments.isEmpty());
+
+        saveTask.setOnSucceeded(e -> {
+            saveSample.stop();
+            resetUploadState(uploads);
+            Outbox.SyncResult result = saveTask.getValue();
+            String message;
+            if (result.synced()) {
+                message = "Spesa salvata con successo!";
             } else {
-                expenseToSave = new Expense(comboYear.getValue(), person, comboType.getValue(), txtDescription.getText(), dateStr);
+                message = "Spesa salvata in locale: verrà inviata al server appena raggiungibile."
+                        + (result.error() != null ? "\n(" + result.error() + ")" : "");
             }
-            ServiceManager.getInstance().getService().registerExpense(expenseToSave, newAttachments);
-            new Alert(Alert.AlertType.INFORMATION, "Spesa salvata con successo!").showAndWait();
-            try {
-                FXMLLoader loader = new FXMLLoader(getClass().getResource("/com/simonepugliese/taxreportgui/view/DashboardView.fxml"));
-                Parent view = loader.load();
-                if (btnSave.getScene().getRoot() instanceof BorderPane mainPane) mainPane.setCenter(view);
-            } catch (IOException e) { e.printStackTrace(); }
-        } catch (Exception e) {
-            new Alert(Alert.AlertType.ERROR, "Errore: " + e.getMessage()).show();
-            e.printStackTrace();
-        }
+            new Alert(Alert.AlertType.INFORMATION, message).showAndWait();
+            // Modulo pulito per la prossima spesa; la Dashboard vede i dati cambiati e si riallinea
+            clearForm();
+            ViewRegistry.getInstance().show(ViewRegistry.View.DASHBOARD);
+        });
+
+        saveTask.setOnFailed(e -> {
+            // Solo errori locali (disco): la spesa non è stata salvata da nessuna parte
+            saveSample.stop();
+            resetUploadState(uploads);
+            new Alert(Alert.AlertType.ERROR, "Errore: " + saveTask.getException().getMessage()).show();
+            saveTask.getException().printStackTrace();
+        });
+
+        TaskRunner.getInstance().submit(TaskRunner.Category.IO, saveTask);
+    }
+
+    private void resetUploadState(List<AttachmentItem> uploads) {
+        uploads.forEach(item -> item.setProgress(-1));
+        uploadProgress.progressProperty().unbind();
+        uploadProgress.setVisible(false);
+        btnSave.setDisable(false);
+        filesListView.refresh();
     }
-}
\ No newline at end of file
+}
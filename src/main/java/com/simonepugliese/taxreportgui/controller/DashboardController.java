@@ -1,58 +1,204 @@
 package com.simonepugliese.taxreportgui.controller;
 
+import com.simonepugliese.taxreportgui.util.ComplianceEngine;
+import com.simonepugliese.taxreportgui.util.DocumentCache;
+import com.simonepugliese.taxreportgui.util.ExpenseFilter;
+import com.simonepugliese.taxreportgui.util.ExpensePager;
+import com.simonepugliese.taxreportgui.util.ExpenseStats;
+import com.simonepugliese.taxreportgui.util.ExpenseSync;
+import com.simonepugliese.taxreportgui.util.LocalReplica;
+import com.simonepugliese.taxreportgui.util.Metrics;
+import com.simonepugliese.taxreportgui.util.Outbox;
+import com.simonepugliese.taxreportgui.util.PrefetchScheduler;
+import com.simonepugliese.taxreportgui.util.ReferenceData;
+import com.simonepugliese.taxreportgui.util.SearchIndex;
 import com.simonepugliese.taxreportgui.util.ServiceManager;
+import com.simonepugliese.taxreportgui.util.TaskRunner;
+import com.simonepugliese.taxreportgui.util.ThumbnailService;
+import com.simonepugliese.taxreportgui.util.ViewRegistry;
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
 import javafx.collections.transformation.FilteredList;
 import javafx.collections.transformation.SortedList;
 import javafx.concurrent.Task;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Parent;
+import javafx.geometry.Orientation;
+import javafx.scene.Node;
 import javafx.scene.chart.PieChart;
 import javafx.scene.control.*;
-import javafx.scene.layout.BorderPane;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
+import javafx.util.Duration;
+import pugliesesimone.taxreport.model.Document;
 import pugliesesimone.taxreport.model.Expense;
 import pugliesesimone.taxreport.model.ExpenseState;
 import pugliesesimone.taxreport.model.ExpenseType;
 import pugliesesimone.taxreport.model.Person;
 
-import java.io.IOException;
+import java.io.File;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
-public class DashboardController {
+public class DashboardController implements ViewRegistry.Lifecycle {
 
     @FXML private ComboBox<String> yearCombo;
+    @FXML private CheckBox chkAllYears;
     @FXML private PieChart statusChart;
     @FXML private Label lblTotal, lblCompliant, lblPartial;
     @FXML private TableView<Expense> expenseTable;
     @FXML private TableColumn<Expense, String> colDate, colType, colDesc, colPerson, colState;
     @FXML private Button btnFilterPerson, btnFilterType;
+    @FXML private TextField txtSearch;
+    @FXML private HBox searchOtherYears;
+
+    // Spese salvate in locale e non ancora (o appena) inviate al server
+    @FXML private VBox outboxBox;
+    @FXML private Label lblOutbox;
+    @FXML private TableView<Outbox.Entry> outboxTable;
+    @FXML private TableColumn<Outbox.Entry, String> colOutboxDate, colOutboxDesc, colOutboxPerson, colOutboxState;
+    private final AtomicBoolean outboxRefreshPending = new AtomicBoolean();
+    private final Runnable outboxListener = () -> {
+        if (outboxRefreshPending.compareAndSet(false, true)) Platform.runLater(this::refreshOutbox);
+    };
 
     // DATA MODEL REATTIVO (Best Practice JavaFX)
     private final ObservableList<Expense> masterData = FXCollections.observableArrayList();
     private FilteredList<Expense> filteredData;
+    // Stato della sincronizzazione incrementale (anno caricato + impronte delle righe)
+    private final ExpenseSync expenseSync = new ExpenseSync();
+    // Esiti della verifica locale non ancora riportati dal DB (id spesa -> esito)
+    private final Map<Object, ComplianceEngine.Result> complianceResults = new HashMap<>();
+
+    private ExpenseStats stats;
+    private final PieChart.Data pieCompleted = new PieChart.Data("Completate", 0);
+    private final PieChart.Data pieIncomplete = new PieChart.Data("Incomplete", 0);
 
     // Dati di supporto
-    private List<Person> allPersons = new ArrayList<>();
     private Set<String> selectedPersonIds = new HashSet<>();
     private Set<ExpenseType> selectedCategories = new HashSet<>();
 
+    // Filtri su indice (persona/categoria/ricerca -> bitset di righe), ricostruito una volta per caricamento o delta
+    private final ExpenseFilter expenseFilter = new ExpenseFilter();
+
+    // Ricerca full-text (tutti gli anni): null = nessuna ricerca attiva
+    private List<SearchIndex.Hit> searchHits;
+    private final PauseTransition searchDelay = new PauseTransition(Duration.millis(150));
+
+    // Modalità "Tutti gli anni": un anno per pagina, caricato allo scroll, al massimo MAX_YEAR_PAGES in memoria
+    private static final int MAX_YEAR_PAGES = 3;
+    private static final int MIN_PAGE_ROWS = 50;
+    private ExpensePager pager; // null = anno singolo
+    private boolean pageLoading;
+
+    // La vista è riusata: al ritorno si ricarica solo se qualcuno ha scritto sul backend o i dati sono vecchi
+    private static final long STALE_AFTER_MS = 5 * 60 * 1000;
+    // Allegati mostrati nel tooltip di anteprima di una riga
+    private static final int MAX_PREVIEWS = 3;
+    private long loadedVersion = -1;
+    private long loadedAt;
+    private boolean shownOnce;
+
     private boolean isUpdating = false;
 
     @FXML
     public void initialize() {
         setupTable();
-        // Load iniziale posticipato per permettere alla UI di apparire
-        Platform.runLater(this::loadData);
+        expenseTable.skinProperty().addListener((obs, old, skin) -> {
+            if (skin != null) Platform.runLater(this::installPagingScroll);
+        });
+
+        searchOtherYears.managedProperty().bind(searchOtherYears.visibleProperty());
+        outboxBox.managedProperty().bind(outboxBox.visibleProperty());
+        setupOutboxTable();
+        searchDelay.setOnFinished(e -> runSearch());
+        txtSearch.textProperty().addListener((obs, old, text) -> searchDelay.playFromStart());
+        // Prima la copia locale (istantanea), poi la riconciliazione col DB
+        Platform.runLater(this::loadFromReplica);
+    }
+
+    @Override
+    public void onShow() {
+        Outbox.getInstance().addListener(outboxListener);
+        refreshOutbox();
+
+        // Al primo show il caricamento è già partito da initialize
+        if (!shownOnce) {
+            shownOnce = true;
+            return;
+        }
+        if (pager != null) return;
+        boolean changed = ServiceManager.getInstance().getDataVersion() != loadedVersion;
+        boolean old = System.currentTimeMillis() - loadedAt > STALE_AFTER_MS;
+        if (changed || old) loadData();
+    }
+
+    @Override
+    public void onHide() {
+        searchDelay.stop();
+        Outbox.getInstance().removeListener(outboxListener);
+    }
+
+    /**
+     * Mostra subito l'ultimo stato salvato in locale, poi avvia {@link #loadData()}
+     * che applicherà solo le differenze rispetto al DB.
+     */
+    private void loadFromReplica() {
+        Task<LoadResult> replicaTask = new Task<>() {
+            @Override
+            protected LoadResult call() {
+                LocalReplica replica = ServiceManager.getInstance().getReplica();
+                String year = replica.getLastYear();
+                if (year == null) return null;
+
+                return new LoadResult(replica.getAvailableYears(), year, replica.findByYear(year), replica.getAllPersons());
+            }
+        };
+
+        replicaTask.setOnSucceeded(e -> {
+            LoadResult result = replicaTask.getValue();
+            if (result != null) {
+                isUpdating = true;
+                try {
+                    yearCombo.setItems(FXCollections.observableArrayList(result.years));
+                    yearCombo.setValue(result.loadedYear);
+                    masterData.setAll(result.expenses);
+                    // Le impronte della replica diventano la base per il delta col DB
+                    expenseSync.diff(result.loadedYear, result.expenses);
+                    applyFilters();
+                } finally {
+                    isUpdating = false;
+                }
+            }
+            loadData();
+        });
+
+        replicaTask.setOnFailed(e -> {
+            expenseSync.reset();
+            loadData();
+        });
+
+        TaskRunner.getInstance().submit(TaskRunner.Category.IO, replicaTask);
     }
 
     // --- FILTRI ---
@@ -61,12 +207,50 @@ public class DashboardController {
     public void filterAll() {
         selectedPersonIds.clear();
         selectedCategories.clear();
+        searchDelay.stop();
+        txtSearch.clear();
+        searchHits = null;
         applyFilters();
+        updateSearchOtherYears();
+    }
+
+    private void runSearch() {
+        String query = txtSearch.getText();
+        searchHits = (query == null || query.isBlank())
+                ? null
+                : ServiceManager.getInstance().getSearchIndex().search(query, 500);
+        applyFilters();
+        updateSearchOtherYears();
+    }
+
+    /** Link agli altri anni che contengono risultati della ricerca. */
+    private void updateSearchOtherYears() {
+        searchOtherYears.getChildren().clear();
+        if (searchHits == null) {
+            searchOtherYears.setVisible(false);
+            return;
+        }
+
+        Map<String, Long> perYear = searchHits.stream()
+                .filter(h -> !isYearShown(h.year()))
+                .collect(Collectors.groupingBy(SearchIndex.Hit::year, TreeMap::new, Collectors.counting()));
+
+        searchOtherYears.getChildren().add(new Label(perYear.isEmpty()
+                ? "Nessun risultato negli altri anni."
+                : "Trovate anche in:"));
+        perYear.descendingMap().forEach((year, count) -> {
+            Hyperlink link = new Hyperlink(year + " (" + count + ")");
+            link.setOnAction(e -> {
+                if (pager != null) exitAllYears(year); else yearCombo.setValue(year);
+            });
+            searchOtherYears.getChildren().add(link);
+        });
+        searchOtherYears.setVisible(true);
     }
 
     @FXML
     public void filterPerson() {
-        showMultiSelectDialog("Filtra Persone", allPersons,
+        showMultiSelectDialog("Filtra Persone", ReferenceData.getInstance().getPersons(),
                 p -> p.getId().toString(),
                 Person::getName,
                 selectedPersonIds,
@@ -90,17 +274,184 @@ public class DashboardController {
                 });
     }
 
-    private void applyFilters() {
-        // Logica Pura: Aggiorniamo il predicato della FilteredList.
-        // La TableView si aggiornerà istantaneamente da sola.
-        filteredData.setPredicate(expense -> {
-            boolean personMatch = selectedPersonIds.isEmpty() || selectedPersonIds.contains(expense.getPerson().getId().toString());
-            boolean typeMatch = selectedCategories.isEmpty() || selectedCategories.contains(expense.getExpenseType());
-            return personMatch && typeMatch;
+    // --- MODALITÀ TUTTI GLI ANNI ---
+
+    @FXML
+    public void toggleAllYears() {
+        if (chkAllYears.isSelected()) enterAllYears(); else exitAllYears(null);
+    }
+
+    private void enterAllYears() {
+        List<String> years = new ArrayList<>(yearCombo.getItems());
+        if (years.isEmpty()) {
+            chkAllYears.setSelected(false);
+            return;
+        }
+
+        PrefetchScheduler.getInstance().cancel();
+        yearCombo.setDisable(true);
+        // L'ordine è quello del pager: ordinare una finestra parziale darebbe un risultato fuorviante
+        expenseTable.getSortOrder().clear();
+        setColumnsSortable(false);
+
+        // Esiti locali e impronte valgono per un anno solo
+        complianceResults.clear();
+        expenseSync.reset();
+
+        pager = new ExpensePager(years, this::loadYearPage, MAX_YEAR_PAGES);
+        masterData.clear();
+        loadPage(true);
+    }
+
+    /** Torna all'anno singolo ({@code year}, o quello già selezionato). */
+    private void exitAllYears(String year) {
+        pager = null;
+        pageLoading = false;
+        chkAllYears.setSelected(false);
+        yearCombo.setDisable(false);
+        setColumnsSortable(true);
+        // La tabella contiene righe di più anni: serve un caricamento completo
+        expenseSync.reset();
+
+        isUpdating = true;
+        try {
+            if (year != null) yearCombo.setValue(year);
+        } finally {
+            isUpdating = false;
+        }
+        loadData();
+    }
+
+    private List<Expense> loadYearPage(String year) throws Exception {
+        ServiceManager sm = ServiceManager.getInstance();
+        try {
+            sm.ensureReady();
+            return sm.getMetadata().findByYear(year);
+        } catch (Exception e) {
+            // Offline: la copia locale, se ha l'anno
+            if (sm.getReplica().hasYear(year)) return sm.getReplica().findByYear(year);
+            throw e;
+        }
+    }
+
+    /**
+     * Carica la pagina successiva (anno più vecchio) o precedente (più recente) e sposta la finestra,
+     * togliendo dall'altra estremità la pagina che esce.
+     */
+    private void loadPage(boolean next) {
+        if (pager == null || pageLoading) return;
+        String year = next ? pager.nextYear() : pager.previousYear();
+        if (year == null) return;
+
+        ExpensePager current = pager;
+        pageLoading = true;
+        if (masterData.isEmpty()) expenseTable.setPlaceholder(new ProgressIndicator());
+
+        Metrics.Sample pageSample = Metrics.getInstance().start("ui.dashboard.page");
+
+        Task<List<Expense>> pageTask = new Task<>() {
+            @Override
+            protected List<Expense> call() throws Exception {
+                return current.fetch(year);
+            }
+        };
+
+        pageTask.setOnSucceeded(e -> {
+            pageSample.stop();
+            if (pager != current) return; // modalità cambiata nel frattempo
+            pageLoading = false;
+            expenseTable.setPlaceholder(new Label("Nessuna spesa da visualizzare."));
+
+            List<Expense> page = pageTask.getValue();
+            if (next) {
+                Expense anchor = masterData.isEmpty() ? null : masterData.get(masterData.size() - 1);
+                int evicted = current.commitNext(page);
+                masterData.addAll(page);
+                if (evicted > 0) masterData.remove(0, evicted);
+                if (anchor != null) expenseTable.scrollTo(anchor);
+            } else {
+                Expense anchor = masterData.isEmpty() ? null : masterData.get(0);
+                int evicted = current.commitPrevious(page);
+                masterData.addAll(0, page);
+                if (evicted > 0) masterData.remove(masterData.size() - evicted, masterData.size());
+                if (anchor != null) expenseTable.scrollTo(anchor);
+            }
+
+            applyFilters();
+            updateSearchOtherYears();
+
+            // Pochi dati: senza barra di scorrimento la pagina dopo non arriverebbe mai
+            if (next && masterData.size() < MIN_PAGE_ROWS) loadPage(true);
+        });
+
+        pageTask.setOnFailed(e -> {
+            pageSample.stop();
+            if (pager != current) return;
+            pageLoading = false;
+            expenseTable.setPlaceholder(new Label("Errore caricamento dati."));
+            new Alert(Alert.AlertType.ERROR, "Errore caricamento anno " + year + ": " + pageTask.getException().getMessage()).show();
+            pageTask.getException().printStackTrace();
+        });
+
+        pageTask.setOnCancelled(e -> {
+            pageSample.discard();
+            if (pager == current) pageLoading = false;
         });
 
+        TaskRunner.getInstance().supersede("dashboard.page", TaskRunner.Category.IO, pageTask);
+    }
+
+    /** Carica le pagine adiacenti quando lo scroll arriva vicino ai bordi della finestra. */
+    private void installPagingScroll() {
+        for (Node node : expenseTable.lookupAll(".scroll-bar")) {
+            if (node instanceof ScrollBar bar && bar.getOrientation() == Orientation.VERTICAL) {
+                bar.valueProperty().addListener((obs, old, value) -> {
+                    if (pager == null) return;
+                    double range = bar.getMax() - bar.getMin();
+                    if (range <= 0) return;
+                    double pos = (value.doubleValue() - bar.getMin()) / range;
+                    boolean down = value.doubleValue() > old.doubleValue();
+                    if (down && pos > 0.95) loadPage(true);
+                    else if (!down && pos < 0.05) loadPage(false);
+                });
+            }
+        }
+    }
+
+    private void setColumnsSortable(boolean sortable) {
+        for (TableColumn<Expense, ?> column : expenseTable.getColumns()) column.setSortable(sortable);
+    }
+
+    /** L'anno è a video: quello selezionato, o uno degli anni della finestra in modalità multi-anno. */
+    private boolean isYearShown(String year) {
+        return pager != null ? pager.getLoadedYears().contains(year) : year.equals(yearCombo.getValue());
+    }
+
+    private void applyFilters() {
+        // Le persone selezionate arrivano dal dialog come stringhe: convertiamo una volta sola in id
+        Set<Object> selectedPersonKeys = new HashSet<>();
+        for (Person p : ReferenceData.getInstance().getPersons()) {
+            if (selectedPersonIds.contains(p.getId().toString())) selectedPersonKeys.add(p.getId());
+        }
+        Set<String> searchIdsInYear = null;
+        if (searchHits != null) {
+            searchIdsInYear = new HashSet<>();
+            for (SearchIndex.Hit h : searchHits) {
+                if (isYearShown(h.year())) searchIdsInYear.add(h.expenseId());
+            }
+        }
+        // Un delta arriva come più eventi (remove, set, add): l'indice si ricostruisce qui, una volta sola
+        List<Expense> flipped = expenseFilter.apply(masterData, selectedPersonKeys, selectedCategories, searchIdsInYear);
+
+        // Nuovo predicato -> la FilteredList rivaluta, ogni riga è un lookup nel bitset
+        filteredData.setPredicate(expense -> expenseFilter.test(expense));
+        // Le statistiche guardano solo le righe che hanno cambiato visibilità
+        stats.visibilityChanged(flipped);
+
         updateButtonsState();
-        updateUiStats();
+
+        // Scalda la cache allegati per le righe ora visibili (annulla la coda precedente)
+        PrefetchScheduler.getInstance().schedule(new ArrayList<>(expenseTable.getItems()));
     }
 
     private void updateButtonsState() {
@@ -112,20 +463,19 @@ public class DashboardController {
     }
 
     private void updateUiStats() {
-        // Calcoliamo le statistiche sui dati FILTRATI
-        int total = filteredData.size();
-        long completed = filteredData.stream().filter(e -> e.getExpenseState() == ExpenseState.COMPLETED).count();
-        long partial = total - completed;
+        // Totali sui dati FILTRATI, mantenuti incrementalmente da ExpenseStats
+        int total = stats.getTotal();
+        int completed = stats.getCompleted();
+        int partial = stats.getPartial();
 
-        lblTotal.setText("Visualizzate: " + total);
+        lblTotal.setText("Visualizzate: " + total
+                + (pager != null ? " (anni " + String.join(", ", pager.getLoadedYears()) + ")" : ""));
         lblCompliant.setText("Completate: " + completed);
         lblPartial.setText("Da completare: " + partial);
 
-        ObservableList<PieChart.Data> pieData = FXCollections.observableArrayList(
-                new PieChart.Data("Completate", completed),
-                new PieChart.Data("Incomplete", partial)
-        );
-        statusChart.setData(pieData);
+        // Solo i valori cambiano: niente nuova lista dati, niente ricostruzione del grafico
+        pieCompleted.setPieValue(completed);
+        pieIncomplete.setPieValue(partial);
     }
 
     private <T> void showMultiSelectDialog(String title, List<T> items,
@@ -172,7 +522,7 @@ public class DashboardController {
         colType.setCellValueFactory(cell -> new SimpleStringProperty(cell.getValue().getExpenseType().name()));
         colDesc.setCellValueFactory(cell -> new SimpleStringProperty(cell.getValue().getDescription()));
         colPerson.setCellValueFactory(cell -> new SimpleStringProperty(cell.getValue().getPerson().getName()));
-        colState.setCellValueFactory(cell -> new SimpleStringProperty(cell.getValue().getExpenseState().name()));
+        colState.setCellValueFactory(cell -> new SimpleStringProperty(stateLabel(cell.getValue())));
 
         colState.setCellFactory(column -> new TableCell<>() {
             @Override
@@ -188,6 +538,14 @@ public class DashboardController {
 
         // Setup FilteredList e SortedList
         filteredData = new FilteredList<>(masterData, p -> true);
+        // Ogni modifica segna solo l'indice come vecchio: fino al prossimo applyFilters() le righe già indicizzate
+        // usano le posizioni vecchie e le nuove la verifica diretta, in qualunque ordine girino i listener
+        masterData.addListener((ListChangeListener<Expense>) c -> expenseFilter.markStale());
+
+        // Statistiche incrementali: delta dei dati da masterData, cambi di filtro da applyFilters()
+        statusChart.setData(FXCollections.observableArrayList(pieCompleted, pieIncomplete));
+        stats = new ExpenseStats(masterData, expenseFilter, this::isCompleted);
+        stats.setOnChange(this::updateUiStats);
         SortedList<Expense> sortedData = new SortedList<>(filteredData);
         sortedData.comparatorProperty().bind(expenseTable.comparatorProperty());
 
@@ -200,22 +558,143 @@ public class DashboardController {
                     handleEdit();
                 }
             });
+            // Miniature degli allegati al passaggio del mouse, generate solo quando il tooltip si apre
+            Tooltip preview = new Tooltip();
+            preview.setShowDelay(Duration.millis(400));
+            preview.setOnShowing(e -> fillPreview(preview, row.getItem()));
+            // Allegati da tenere sempre in cache (anche oltre età e budget)
+            CheckMenuItem keepOffline = new CheckMenuItem("Mantieni offline");
+            keepOffline.setOnAction(e -> setKeepOffline(row.getItem(), keepOffline.isSelected()));
+            ContextMenu menu = new ContextMenu(keepOffline);
+            menu.setOnShowing(e -> keepOffline.setSelected(isKeptOffline(row.getItem())));
+            row.itemProperty().addListener((obs, old, expense) -> {
+                boolean hasDocs = expense != null && expense.getDocuments() != null && !expense.getDocuments().isEmpty();
+                row.setTooltip(hasDocs ? preview : null);
+                row.setContextMenu(hasDocs ? menu : null);
+            });
             return row ;
         });
     }
 
+    private boolean isKeptOffline(Expense expense) {
+        if (expense == null) return false;
+        DocumentCache cache = ServiceManager.getInstance().getDocumentCache();
+        return expense.getDocuments().stream().allMatch(d -> cache.isPinned(d.getRelativePath()));
+    }
+
+    /** Fissa (o libera) gli allegati della spesa; se fissati li scarica subito. */
+    private void setKeepOffline(Expense expense, boolean keep) {
+        if (expense == null) return;
+        List<Document> docs = new ArrayList<>(expense.getDocuments());
+        TaskRunner.getInstance().run(TaskRunner.Category.DOWNLOAD, "Allegati offline", () -> {
+            ServiceManager sm = ServiceManager.getInstance();
+            for (Document doc : docs) {
+                sm.getDocumentCache().setPinned(doc.getRelativePath(), keep);
+                if (!keep) continue;
+                try {
+                    sm.downloadDocument(doc);
+                } catch (Exception e) {
+                    System.err.println("Download offline fallito: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    // --- CODA LOCALE ---
+
+    private void setupOutboxTable() {
+        colOutboxDate.setCellValueFactory(c -> new SimpleStringProperty(c.getValue().rawDate()));
+        colOutboxDesc.setCellValueFactory(c -> new SimpleStringProperty(
+                (c.getValue().edit() ? "[modifica] " : "") + c.getValue().description()));
+        colOutboxPerson.setCellValueFactory(c -> new SimpleStringProperty(c.getValue().personName()));
+        colOutboxState.setCellValueFactory(c -> new SimpleStringProperty(outboxStateLabel(c.getValue())));
+        colOutboxState.setCellFactory(column -> new TableCell<>() {
+            @Override
+            protected void updateItem(String item, boolean empty) {
+                super.updateItem(item, empty);
+                setText(empty ? null : item);
+                Outbox.Entry entry = empty || getTableRow() == null ? null : getTableRow().getItem();
+                if (entry == null) {
+                    setStyle("");
+                    setTooltip(null);
+                    return;
+                }
+                setStyle(entry.state() == Outbox.State.SYNCED
+                        ? "-fx-text-fill: green; -fx-font-weight: bold;" : "-fx-text-fill: orange; -fx-font-weight: bold;");
+                setTooltip(entry.lastError() != null ? new Tooltip(entry.lastError()) : null);
+            }
+        });
+    }
+
+    private static String outboxStateLabel(Outbox.Entry entry) {
+        return switch (entry.state()) {
+            case SYNCED -> "Sincronizzata";
+            case SYNCING -> "Invio in corso...";
+            case PENDING -> entry.attempts() == 0 ? "In attesa" : "Nuovo tentativo alle "
+                    + LocalTime.ofInstant(Instant.ofEpochMilli(entry.nextAttemptAt()), ZoneId.systemDefault())
+                    .format(DateTimeFormatter.ofPattern("HH:mm")) + " (" + entry.attempts() + " falliti)";
+        };
+    }
+
+    private void refreshOutbox() {
+        outboxRefreshPending.set(false);
+        List<Outbox.Entry> entries = Outbox.getInstance().entries();
+        outboxTable.setItems(FXCollections.observableArrayList(entries));
+        outboxBox.setVisible(!entries.isEmpty());
+        lblOutbox.setText("Da sincronizzare (" + Outbox.getInstance().pendingCount() + ")");
+
+        // Qualcosa è arrivato al server: la tabella principale si riallinea
+        boolean anySynced = entries.stream().anyMatch(e -> e.state() == Outbox.State.SYNCED);
+        if (anySynced && !isUpdating && ServiceManager.getInstance().getDataVersion() != loadedVersion) loadData();
+    }
+
+    @FXML
+    public void handleSyncNow() {
+        Outbox.getInstance().syncNow();
+    }
+
+    private void fillPreview(Tooltip preview, Expense expense) {
+        HBox box = new HBox(8);
+        preview.setGraphic(box);
+        if (expense == null) return;
+        for (Document doc : expense.getDocuments().subList(0, Math.min(MAX_PREVIEWS, expense.getDocuments().size()))) {
+            ImageView view = new ImageView();
+            view.setFitWidth(120);
+            view.setFitHeight(160);
+            view.setPreserveRatio(true);
+            ProgressIndicator loading = new ProgressIndicator();
+            loading.setPrefSize(24, 24);
+            StackPane slot = new StackPane(loading);
+            slot.setPrefSize(120, 160);
+            box.getChildren().add(slot);
+            // Solo allegati già in locale: passare col mouse sulle righe non deve avviare download
+            ThumbnailService.getInstance().requestCached(doc, ThumbnailService.Size.THUMBNAIL, image -> {
+                if (image != null) {
+                    view.setImage(image);
+                    slot.getChildren().setAll(view);
+                } else {
+                    slot.getChildren().setAll(new Label(new File(doc.getRelativePath()).getName()));
+                }
+            });
+        }
+    }
+
     @FXML
     public void loadData() {
-        if (isUpdating) return;
+        if (isUpdating || pager != null) return;
 
         String selectedYear = yearCombo.getValue();
+        PrefetchScheduler.getInstance().cancel();
         yearCombo.setDisable(true);
         expenseTable.setPlaceholder(new ProgressIndicator());
+        // Dal click al dato a video (DB + applicazione sulla tabella)
+        Metrics.Sample loadSample = Metrics.getInstance().start("ui.dashboard.load");
+        long version = ServiceManager.getInstance().getDataVersion();
 
         Task<LoadResult> loadTask = new Task<>() {
             @Override
             protected LoadResult call() throws Exception {
-                if (!ServiceManager.getInstance().isReady()) ServiceManager.getInstance().init();
+                ServiceManager.getInstance().ensureReady();
 
                 // 1. Recupera Anni
                 List<String> availableYears = ServiceManager.getInstance().getMetadata().getAvailableYears();
@@ -228,13 +707,23 @@ public class DashboardController {
 
                 // 2. Carica Dati Pesanti (IO)
                 List<Expense> expenses = ServiceManager.getInstance().getMetadata().findByYear(yearToLoad);
-                List<Person> persons = ServiceManager.getInstance().getService().getAllPersons();
+                // Le persone arrivano dalla cache condivisa: al DB solo se vecchie
+                List<Person> persons = ReferenceData.getInstance().persons(STALE_AFTER_MS);
+                ReferenceData.getInstance().publishYears(availableYears);
+
+                // 3. Aggiorna la copia locale per il prossimo avvio / uso offline
+                ServiceManager.getInstance().getReplica().update(availableYears, yearToLoad, expenses, persons);
 
                 return new LoadResult(availableYears, yearToLoad, expenses, persons);
             }
         };
 
         loadTask.setOnSucceeded(e -> {
+            // Passati nel frattempo alla modalità multi-anno: il pager ha già i suoi dati
+            if (pager != null) {
+                loadSample.discard();
+                return;
+            }
             LoadResult result = loadTask.getValue();
 
             // 3. Aggiornamento UI (Tutto insieme, niente sleep)
@@ -243,29 +732,128 @@ public class DashboardController {
                 yearCombo.setItems(FXCollections.observableArrayList(result.years));
                 yearCombo.setValue(result.loadedYear);
 
-                allPersons = result.persons;
+                // Da qui in poi gli stati arrivano dal DB
+                boolean hadLocalResults = !complianceResults.isEmpty();
+                complianceResults.clear();
 
                 // Aggiorna Master Data -> Triggera FilteredList -> Triggera UI
-                masterData.setAll(result.expenses);
+                // Il delta si calcola qui: un caricamento annullato non sporca lo stato di sync
+                boolean incremental = expenseSync.isIncremental(result.loadedYear);
+                ExpenseSync.Delta delta = expenseSync.diff(result.loadedYear, result.expenses);
+                if (incremental) {
+                    // Solo add/set/remove mirati: scroll e selezione restano dove sono
+                    if (!delta.isEmpty()) applyDelta(delta);
+                } else {
+                    masterData.setAll(result.expenses);
+                }
 
                 // Riapplica filtri e statistiche
                 applyFilters();
+                if (hadLocalResults) stats.rebuild();
+                updateSearchOtherYears();
+
+                updateSearchIndex(result, !incremental);
+
+                loadedVersion = version;
+                loadedAt = System.currentTimeMillis();
+                // Le voci inviate prima del caricamento sono ora nella tabella principale
+                if (version == ServiceManager.getInstance().getDataVersion()) Outbox.getInstance().clearSynced();
 
             } finally {
                 isUpdating = false;
                 yearCombo.setDisable(false);
                 expenseTable.setPlaceholder(new Label("Nessuna spesa da visualizzare."));
+                loadSample.stop();
             }
         });
 
+        loadTask.setOnCancelled(e -> loadSample.discard());
+
         loadTask.setOnFailed(e -> {
+            loadSample.stop();
+            if (pager != null) return;
             yearCombo.setDisable(false);
             expenseTable.setPlaceholder(new Label("Errore caricamento dati."));
-            new Alert(Alert.AlertType.ERROR, "Errore caricamento: " + loadTask.getException().getMessage()).show();
+            if (!masterData.isEmpty() && ServiceManager.getInstance().getReplica().hasYear(yearCombo.getValue())) {
+                // Pi non raggiungibile ma abbiamo la copia locale già a video
+                new Alert(Alert.AlertType.WARNING, "Server non raggiungibile, visualizzo la copia locale: "
+                        + loadTask.getException().getMessage()).show();
+            } else {
+                new Alert(Alert.AlertType.ERROR, "Errore caricamento: " + loadTask.getException().getMessage()).show();
+            }
             loadTask.getException().printStackTrace();
         });
 
-        new Thread(loadTask).start();
+        // Un nuovo caricamento annulla quello ancora in corso (cambio anno rapido)
+        TaskRunner.getInstance().supersede("dashboard.load", TaskRunner.Category.IO, loadTask);
+    }
+
+    /**
+     * Indicizza l'anno appena caricato (ricerca) e, dopo un caricamento completo,
+     * gli anni mai indicizzati per la ricerca.
+     */
+    private void updateSearchIndex(LoadResult result, boolean includeMissingYears) {
+        Task<List<String>> indexTask = new Task<>() {
+            @Override
+            protected List<String> call() {
+                ServiceManager sm = ServiceManager.getInstance();
+                sm.indexYear(result.loadedYear, result.expenses);
+                return includeMissingYears ? sm.getSearchIndex().missingYears(result.years) : List.of();
+            }
+        };
+        // Con una ricerca attiva, i nuovi anni indicizzati compaiono nei risultati
+        indexTask.setOnSucceeded(e -> {
+            if (searchHits != null) runSearch();
+            indexMissingYears(new ArrayDeque<>(indexTask.getValue()));
+        });
+        indexTask.setOnFailed(e ->
+                System.err.println("Warning: aggiornamento indice di ricerca fallito: " + indexTask.getException().getMessage()));
+        TaskRunner.getInstance().supersede("search.index", TaskRunner.Category.IO, indexTask);
+    }
+
+    /**
+     * Prima costruzione dell'indice: un task per anno, dal più recente. Ogni anno è salvato appena letto;
+     * un nuovo caricamento (stessa chiave) o l'annullamento del task ferma la catena tra un anno e l'altro.
+     */
+    private void indexMissingYears(Deque<String> years) {
+        String year = years.poll();
+        if (year == null) return;
+        Task<Void> yearTask = new Task<>() {
+            {
+                updateTitle("Indice di ricerca " + year);
+            }
+
+            @Override
+            protected Void call() throws Exception {
+                ServiceManager sm = ServiceManager.getInstance();
+                List<Expense> expenses = sm.getMetadata().findByYear(year);
+                if (!isCancelled()) sm.indexYear(year, expenses);
+                return null;
+            }
+        };
+        yearTask.setOnSucceeded(e -> {
+            if (searchHits != null) runSearch();
+            indexMissingYears(years);
+        });
+        yearTask.setOnFailed(e ->
+                System.err.println("Warning: indicizzazione fallita per " + year + ": " + yearTask.getException().getMessage()));
+        TaskRunner.getInstance().supersede("search.index", TaskRunner.Category.IO, yearTask);
+    }
+
+    private void applyDelta(ExpenseSync.Delta delta) {
+        Expense selected = expenseTable.getSelectionModel().getSelectedItem();
+        Object selectedId = selected != null ? selected.getId() : null;
+
+        delta.applyTo(masterData);
+
+        // Una riga sostituita può perdere la selezione: la ripristiniamo per id
+        Expense nowSelected = expenseTable.getSelectionModel().getSelectedItem();
+        if (selectedId != null && (nowSelected == null || !selectedId.equals(nowSelected.getId()))) {
+            expenseTable.getItems().stream()
+                    .filter(ex -> selectedId.equals(ex.getId()))
+                    .findFirst()
+                    .ifPresent(ex -> expenseTable.getSelectionModel().select(ex));
+        }
     }
 
     // Record di supporto per passare dati dal background thread
@@ -276,29 +864,33 @@ public class DashboardController {
         Expense selected = expenseTable.getSelectionModel().getSelectedItem();
         if (selected == null) return;
 
-        try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/com/simonepugliese/taxreportgui/view/AddExpenseView.fxml"));
-            Parent view = loader.load();
-            AddExpenseController controller = loader.getController();
-            controller.setEditingExpense(selected);
-            BorderPane mainPane = (BorderPane) expenseTable.getScene().getRoot();
-            mainPane.setCenter(view);
-        } catch (IOException e) { e.printStackTrace(); }
+        AddExpenseController controller = ViewRegistry.getInstance().show(ViewRegistry.View.ADD_EXPENSE);
+        controller.setEditingExpense(selected);
     }
 
     @FXML
     public void handleRefresh() {
-        if (!ServiceManager.getInstance().isReady()) return;
         String year = yearCombo.getValue();
+        if (year == null) return;
+        if (pager != null) {
+            new Alert(Alert.AlertType.INFORMATION, "La verifica lavora su un anno alla volta: togli \"Tutti gli anni\" e seleziona l'anno.").show();
+            return;
+        }
+        List<Expense> snapshot = new ArrayList<>(masterData);
 
-        Task<String> complianceTask = new Task<>() {
+        // Verifica locale (regole per anno, fork/join): solo le spese con documenti cambiati.
+        // null = nessuna regola locale per l'anno, decide la verifica del server
+        Task<List<ComplianceEngine.Result>> complianceTask = new Task<>() {
             @Override
-            protected String call() throws Exception {
-                // Check parallelo (nuova implementazione service)
-                return ServiceManager.getInstance().getService().runComplianceCheck(year);
+            protected List<ComplianceEngine.Result> call() throws Exception {
+                ComplianceEngine engine = ComplianceEngine.getInstance();
+                return engine.rulesFor(year) != null ? engine.check(year, snapshot) : null;
             }
         };
 
+        Metrics.Sample complianceSample = Metrics.getInstance().start("ui.dashboard.compliance");
+        complianceTask.setOnCancelled(e -> complianceSample.discard());
+
         complianceTask.setOnRunning(e -> {
             lblTotal.setText("Verifica in corso...");
             btnFilterPerson.setDisable(true);
@@ -306,18 +898,86 @@ public class DashboardController {
         });
 
         complianceTask.setOnSucceeded(e -> {
+            complianceSample.stop();
             btnFilterPerson.setDisable(false);
             btnFilterType.setDisable(false);
-            loadData(); // Ricarica dati aggiornati
+
+            if (complianceTask.getValue() == null) {
+                updateUiStats();
+                if (ServiceManager.getInstance().isReady()) {
+                    persistCompliance(year);
+                } else {
+                    new Alert(Alert.AlertType.WARNING, "Nessuna regola locale per il " + year
+                            + ": la verifica richiede la connessione al server.").show();
+                }
+                return;
+            }
+
+            boolean stateChanged = false;
+            for (ComplianceEngine.Result r : complianceTask.getValue()) {
+                complianceResults.put(r.expenseId(), r);
+                Expense row = findById(r.expenseId());
+                if (row != null && r.compliant() != (row.getExpenseState() == ExpenseState.COMPLETED)) stateChanged = true;
+            }
+
+            // Aggiornamento in place: solo le celle visibili vengono ridisegnate
+            expenseTable.refresh();
+            stats.rebuild();
+
+            // Il DB va allineato solo se qualche stato è davvero cambiato
+            if (stateChanged) persistCompliance(year);
         });
 
         complianceTask.setOnFailed(e -> {
+            complianceSample.stop();
             btnFilterPerson.setDisable(false);
             btnFilterType.setDisable(false);
+            updateUiStats();
             new Alert(Alert.AlertType.ERROR, "Errore verifica: " + complianceTask.getException().getMessage()).show();
             complianceTask.getException().printStackTrace();
         });
 
-        new Thread(complianceTask).start();
+        TaskRunner.getInstance().supersede("dashboard.compliance", TaskRunner.Category.COMPLIANCE, complianceTask);
+    }
+
+    /**
+     * Verifica sul backend in background (salva gli stati), poi riallinea le righe col delta sync.
+     * Per gli anni senza regole locali è l'unica verifica.
+     */
+    private void persistCompliance(String year) {
+        if (!ServiceManager.getInstance().isReady()) return;
+
+        Task<String> persistTask = new Task<>() {
+            @Override
+            protected String call() throws Exception {
+                return ServiceManager.getInstance().runComplianceCheck(year);
+            }
+        };
+
+        persistTask.setOnSucceeded(e -> loadData());
+        persistTask.setOnFailed(e ->
+                System.err.println("Warning: salvataggio stati conformità fallito: " + persistTask.getException().getMessage()));
+
+        TaskRunner.getInstance().supersede("dashboard.compliance.persist", TaskRunner.Category.COMPLIANCE, persistTask);
+    }
+
+    private Expense findById(Object id) {
+        for (Expense e : masterData) {
+            if (Objects.equals(e.getId(), id)) return e;
+        }
+        return null;
+    }
+
+    /** Stato mostrato: l'esito della verifica locale, se più recente del dato in DB. */
+    private boolean isCompleted(Expense e) {
+        ComplianceEngine.Result r = complianceResults.get(e.getId());
+        return r != null ? r.compliant() : e.getExpenseState() == ExpenseState.COMPLETED;
+    }
+
+    private String stateLabel(Expense e) {
+        ComplianceEngine.Result r = complianceResults.get(e.getId());
+        if (r == null) return e.getExpenseState().name();
+        if (r.compliant()) return ExpenseState.COMPLETED.name();
+        return "MANCA " + r.missing().stream().map(Enum::name).collect(Collectors.joining(", "));
     }
-}
\ No newline at end of file
+}
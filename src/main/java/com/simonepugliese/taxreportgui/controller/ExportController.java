@@ -0,0 +1,120 @@
+package com.simonepugliese.taxreportgui.controller;
+
+import com.simonepugliese.taxreportgui.util.ReferenceData;
+import com.simonepugliese.taxreportgui.util.ReportExporter;
+import com.simonepugliese.taxreportgui.util.ServiceManager;
+import com.simonepugliese.taxreportgui.util.TaskRunner;
+import com.simonepugliese.taxreportgui.util.ViewRegistry;
+import javafx.collections.FXCollections;
+import javafx.concurrent.Task;
+import javafx.fxml.FXML;
+import javafx.scene.control.*;
+import javafx.stage.FileChooser;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+public class ExportController implements ViewRegistry.Lifecycle {
+
+    @FXML private ListView<String> yearsList;
+    @FXML private ComboBox<ReportExporter.Format> comboFormat;
+    @FXML private CheckBox chkServerCompliance;
+    @FXML private ProgressBar exportProgress;
+    @FXML private Button btnExport, btnCancel;
+    @FXML private Label lblStatus;
+
+    private Task<ReportExporter.Summary> exportTask;
+
+    @FXML
+    public void initialize() {
+        yearsList.setItems(ReferenceData.getInstance().getYears());
+        yearsList.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        comboFormat.setItems(FXCollections.observableArrayList(ReportExporter.Format.values()));
+        comboFormat.setValue(ReportExporter.Format.PDF);
+        exportProgress.managedProperty().bind(exportProgress.visibleProperty());
+    }
+
+    @Override
+    public void onShow() {
+        ReferenceData.getInstance().ensureLoaded();
+        if (yearsList.getSelectionModel().isEmpty()) yearsList.getSelectionModel().selectFirst();
+    }
+
+    @FXML
+    public void handleExport() {
+        // Dal più vecchio al più recente: nel report gli anni si leggono in ordine
+        List<String> years = new ArrayList<>(yearsList.getSelectionModel().getSelectedItems());
+        years.sort(Comparator.naturalOrder());
+        if (years.isEmpty()) {
+            new Alert(Alert.AlertType.WARNING, "Seleziona almeno un anno!").show();
+            return;
+        }
+
+        ReportExporter.Format format = comboFormat.getValue();
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Salva report");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(
+                format.name(), "*." + format.getExtension()));
+        String range = years.size() == 1 ? years.get(0) : years.get(0) + "-" + years.get(years.size() - 1);
+        chooser.setInitialFileName("report_" + range + "." + format.getExtension());
+        File target = chooser.showSaveDialog(yearsList.getScene().getWindow());
+        if (target == null) return;
+
+        boolean serverCompliance = chkServerCompliance.isSelected();
+        exportTask = new Task<>() {
+            {
+                updateTitle("Esportazione report");
+            }
+
+            @Override
+            protected ReportExporter.Summary call() throws Exception {
+                updateMessage("Connessione...");
+                return new ReportExporter(ServiceManager.getInstance()).export(years, format, target.toPath(),
+                        serverCompliance, (done, total, rows) -> {
+                            updateProgress(done, total);
+                            updateMessage(done + "/" + total + " anni, " + rows + " spese");
+                        });
+            }
+        };
+
+        setRunning(true);
+        exportProgress.progressProperty().bind(exportTask.progressProperty());
+        lblStatus.textProperty().bind(exportTask.messageProperty());
+
+        exportTask.setOnSucceeded(e -> {
+            setRunning(false);
+            ReportExporter.Summary s = exportTask.getValue();
+            lblStatus.setText(s.rows() + " spese esportate");
+            new Alert(Alert.AlertType.INFORMATION, "Report salvato in " + target + "\n" + s.rows() + " spese su "
+                    + s.years() + " anni, " + s.compliant() + " conformi.").show();
+        });
+        exportTask.setOnCancelled(e -> {
+            setRunning(false);
+            lblStatus.setText("Esportazione interrotta.");
+        });
+        exportTask.setOnFailed(e -> {
+            setRunning(false);
+            lblStatus.setText("");
+            new Alert(Alert.AlertType.ERROR, "Esportazione fallita: " + exportTask.getException().getMessage()).show();
+        });
+
+        TaskRunner.getInstance().submit(TaskRunner.Category.IO, exportTask);
+    }
+
+    @FXML
+    public void handleCancel() {
+        if (exportTask != null) exportTask.cancel();
+    }
+
+    private void setRunning(boolean running) {
+        btnExport.setDisable(running);
+        btnCancel.setDisable(!running);
+        exportProgress.setVisible(running);
+        if (!running) {
+            exportProgress.progressProperty().unbind();
+            lblStatus.textProperty().unbind();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.simonepugliese.taxreportgui.controller;
+
+import com.simonepugliese.taxreportgui.util.BatchImporter;
+import com.simonepugliese.taxreportgui.util.BatchImporter.Item;
+import com.simonepugliese.taxreportgui.util.ReferenceData;
+import com.simonepugliese.taxreportgui.util.ServiceManager;
+import com.simonepugliese.taxreportgui.util.TaskRunner;
+import javafx.application.Platform;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.concurrent.Task;
+import javafx.fxml.FXML;
+import javafx.scene.control.*;
+import javafx.scene.layout.GridPane;
+import javafx.stage.DirectoryChooser;
+import javafx.stage.FileChooser;
+import javafx.util.StringConverter;
+import pugliesesimone.taxreport.model.DocumentType;
+import pugliesesimone.taxreport.model.ExpenseType;
+import pugliesesimone.taxreport.model.Person;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ImportController {
+
+    @FXML private Label lblSource, lblSummary;
+    @FXML private GridPane folderDefaults;
+    @FXML private ComboBox<Person> comboPerson;
+    @FXML private ComboBox<ExpenseType> comboType;
+    @FXML private ComboBox<DocumentType> comboDocType;
+    @FXML private ComboBox<String> comboYear;
+    @FXML private TableView<Item> itemsTable;
+    @FXML private TableColumn<Item, String> colFile, colPerson, colDate, colDescription, colStatus, colMessage;
+    @FXML private ProgressBar importProgress;
+    @FXML private Button btnStart, btnCancel;
+
+    // Sorgente scelta: una cartella oppure un manifest (mai entrambi)
+    private Path folder;
+    private Path manifest;
+    private Task<BatchImporter.Summary> importTask;
+    private BatchImporter importer;
+
+    // Un solo refresh della tabella in coda, anche con centinaia di righe che cambiano stato
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+
+    @FXML
+    public void initialize() {
+        ReferenceData refData = ReferenceData.getInstance();
+        comboPerson.setItems(refData.getPersons());
+        comboPerson.setConverter(new StringConverter<>() {
+            @Override public String toString(Person p) { return p == null ? "" : p.getName(); }
+            @Override public Person fromString(String string) { return null; }
+        });
+        comboType.setItems(FXCollections.observableArrayList(ExpenseType.values()));
+        comboType.getSelectionModel().selectFirst();
+        comboDocType.setItems(FXCollections.observableArrayList(DocumentType.values()));
+        comboDocType.setValue(DocumentType.FATTURA);
+        comboYear.setItems(refData.getYears());
+        refData.getPersons().addListener((ListChangeListener<Person>) c -> {
+            // Nuovi oggetti dopo un ricaricamento: riseleziona per id
+            Person current = comboPerson.getValue();
+            if (current != null) comboPerson.setValue(refData.findPerson(current.getId()));
+        });
+        refData.ensureLoaded();
+
+        folderDefaults.managedProperty().bind(folderDefaults.visibleProperty());
+        importProgress.managedProperty().bind(importProgress.visibleProperty());
+        setupTable();
+    }
+
+    private void setupTable() {
+        colFile.setCellValueFactory(c -> {
+            Item item = c.getValue();
+            String name = item.getFiles().isEmpty() ? "" : item.getFiles().get(0).getFileName().toString();
+            if (item.getFiles().size() > 1) name += " (+" + (item.getFiles().size() - 1) + ")";
+            return new SimpleStringProperty(item.getLine() > 0 ? item.getLine() + ": " + name : name);
+        });
+        colPerson.setCellValueFactory(c -> new SimpleStringProperty(
+                c.getValue().getPerson() != null ? c.getValue().getPerson().getName() : ""));
+        colDate.setCellValueFactory(c -> new SimpleStringProperty(c.getValue().getRawDate()));
+        colDescription.setCellValueFactory(c -> new SimpleStringProperty(c.getValue().getDescription()));
+        colStatus.setCellValueFactory(c -> new SimpleStringProperty(statusLabel(c.getValue().getStatus())));
+        colMessage.setCellValueFactory(c -> new SimpleStringProperty(c.getValue().getMessage()));
+        itemsTable.setPlaceholder(new Label("Scegli una cartella o un manifest CSV."));
+    }
+
+    @FXML
+    public void handleChooseFolder() {
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Cartella da importare");
+        File dir = chooser.showDialog(itemsTable.getScene().getWindow());
+        if (dir == null) return;
+        folder = dir.toPath();
+        manifest = null;
+        folderDefaults.setVisible(true);
+        lblSource.setText(folder.toString());
+        loadItems();
+    }
+
+    @FXML
+    public void handleChooseManifest() {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Manifest da importare");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("CSV", "*.csv"));
+        File file = chooser.showOpenDialog(itemsTable.getScene().getWindow());
+        if (file == null) return;
+        manifest = file.toPath();
+        folder = null;
+        // Persona, tipo e data arrivano dal manifest
+        folderDefaults.setVisible(false);
+        lblSource.setText(manifest.toString());
+        loadItems();
+    }
+
+    /** Legge la sorgente in background e mostra le righe da importare. */
+    private void loadItems() {
+        Path currentFolder = folder;
+        Path currentManifest = manifest;
+        BatchImporter.Defaults defaults = defaults();
+        List<Person> persons = new ArrayList<>(ReferenceData.getInstance().getPersons());
+
+        Task<List<Item>> task = new Task<>() {
+            {
+                updateTitle("Lettura sorgente import");
+            }
+
+            @Override
+            protected List<Item> call() throws Exception {
+                return currentFolder != null
+                        ? BatchImporter.scanDirectory(currentFolder, defaults)
+                        : BatchImporter.readManifest(currentManifest, persons);
+            }
+        };
+
+        task.setOnSucceeded(e -> {
+            itemsTable.setItems(FXCollections.observableArrayList(task.getValue()));
+            long invalid = task.getValue().stream().filter(i -> i.getStatus() == BatchImporter.Status.FAILED).count();
+            lblSummary.setText(task.getValue().size() + " spese" + (invalid > 0 ? ", " + invalid + " righe non valide" : ""));
+        });
+        task.setOnFailed(e ->
+                new Alert(Alert.AlertType.ERROR, "Lettura fallita: " + task.getException().getMessage()).show());
+
+        TaskRunner.getInstance().supersede("import.scan", TaskRunner.Category.IO, task);
+    }
+
+    @FXML
+    public void handleStart() {
+        if (folder == null && manifest == null) {
+            new Alert(Alert.AlertType.WARNING, "Scegli prima una cartella o un manifest.").show();
+            return;
+        }
+        if (folder != null && comboPerson.getValue() == null) {
+            new Alert(Alert.AlertType.WARNING, "Seleziona la persona a cui intestare le spese!").show();
+            return;
+        }
+        if (BatchImporter.isRunning()) {
+            // Es. un import interrotto che sta ancora finendo gli upload partiti
+            new Alert(Alert.AlertType.WARNING, "Un import è ancora in corso: attendi che termini.").show();
+            return;
+        }
+
+        Path currentFolder = folder;
+        Path currentManifest = manifest;
+        BatchImporter.Defaults defaults = defaults();
+        List<Person> persons = new ArrayList<>(ReferenceData.getInstance().getPersons());
+        BatchImporter currentImporter = new BatchImporter(ServiceManager.getInstance());
+        importer = currentImporter;
+
+        importTask = new Task<>() {
+            {
+                updateTitle("Importazione");
+            }
+
+            @Override
+            protected BatchImporter.Summary call() throws Exception {
+                // Righe rilette adesso: valgono le scelte attuali e gli errori precedenti si riprovano
+                // (quelle già salvate le salta il journal)
+                List<Item> items = currentFolder != null
+                        ? BatchImporter.scanDirectory(currentFolder, defaults)
+                        : BatchImporter.readManifest(currentManifest, persons);
+                Platform.runLater(() -> itemsTable.setItems(FXCollections.observableArrayList(items)));
+
+                return currentImporter.run(items, new BatchImporter.Listener() {
+                    @Override
+                    public void itemChanged(Item item) {
+                        if (refreshPending.compareAndSet(false, true)) {
+                            Platform.runLater(() -> {
+                                refreshPending.set(false);
+                                itemsTable.refresh();
+                            });
+                        }
+                    }
+
+                    @Override
+                    public void progress(long doneBytes, long totalBytes) {
+                        updateProgress(doneBytes, totalBytes);
+                    }
+                });
+            }
+        };
+
+        setRunning(true);
+        importProgress.progressProperty().bind(importTask.progressProperty());
+
+        importTask.setOnSucceeded(e -> {
+            setRunning(false);
+            itemsTable.refresh();
+            BatchImporter.Summary s = importTask.getValue();
+            if (s.cancelled()) {
+                lblSummary.setText("Interrotto dopo " + s.imported() + " spese: rilancia l'import per riprendere da dove si era fermato.");
+                return;
+            }
+            lblSummary.setText(s.imported() + " importate, " + s.skipped() + " saltate, " + s.failed() + " errori");
+            new Alert(s.failed() > 0 ? Alert.AlertType.WARNING : Alert.AlertType.INFORMATION,
+                    "Import completato: " + s.imported() + " spese salvate, " + s.skipped()
+                            + " già presenti, " + s.failed() + " con errori.").show();
+        });
+        importTask.setOnCancelled(e -> {
+            setRunning(false);
+            itemsTable.refresh();
+            lblSummary.setText("Interrotto: rilancia l'import per riprendere da dove si era fermato.");
+        });
+        importTask.setOnFailed(e -> {
+            setRunning(false);
+            itemsTable.refresh();
+            new Alert(Alert.AlertType.ERROR, "Errore import: " + importTask.getException().getMessage()).show();
+        });
+
+        TaskRunner.getInstance().submit(TaskRunner.Category.IO, importTask);
+    }
+
+    /**
+     * Ferma le spese non ancora partite. La vista resta "in corso" finché gli upload già avviati
+     * non finiscono: un nuovo import prima di allora userebbe un journal non aggiornato.
+     */
+    @FXML
+    public void handleCancel() {
+        if (importer == null) return;
+        importer.cancel();
+        btnCancel.setDisable(true);
+        lblSummary.setText("Interruzione: attendo gli upload già partiti...");
+    }
+
+    private void setRunning(boolean running) {
+        btnStart.setDisable(running);
+        btnCancel.setDisable(!running);
+        importProgress.setVisible(running);
+        if (!running) importProgress.progressProperty().unbind();
+    }
+
+    private BatchImporter.Defaults defaults() {
+        return new BatchImporter.Defaults(comboPerson.getValue(), comboType.getValue(), comboDocType.getValue(),
+                comboYear.getValue());
+    }
+
+    private static String statusLabel(BatchImporter.Status status) {
+        return switch (status) {
+            case PENDING -> "In attesa";
+            case HASHING -> "Verifica...";
+            case UPLOADING -> "Caricamento...";
+            case IMPORTED -> "Importata";
+            case DUPLICATE -> "Duplicata";
+            case ALREADY_IMPORTED -> "Già importata";
+            case FAILED -> "Errore";
+        };
+    }
+}
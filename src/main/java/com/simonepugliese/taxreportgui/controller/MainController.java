@@ -1,36 +1,45 @@
 package com.simonepugliese.taxreportgui.controller;
 
+import com.simonepugliese.taxreportgui.util.TaskRunner;
+import com.simonepugliese.taxreportgui.util.ViewRegistry;
+import com.simonepugliese.taxreportgui.util.ViewRegistry.View;
+import javafx.beans.binding.Bindings;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
-import javafx.scene.Parent;
+import javafx.scene.control.Label;
 import javafx.scene.layout.BorderPane;
-import java.io.IOException;
 
 public class MainController {
 
     @FXML private BorderPane mainPane;
+    @FXML private Label lblTasks;
 
     @FXML
     public void initialize() {
+        // Coda dei task in background, visibile solo quando c'è qualcosa in corso
+        var active = Bindings.size(TaskRunner.getInstance().getActiveTasks());
+        lblTasks.textProperty().bind(active.asString("Attività in corso: %d"));
+        lblTasks.visibleProperty().bind(active.greaterThan(0));
+
+        // Le viste si caricano una volta sola e restano vive tra una navigazione e l'altra
+        ViewRegistry.getInstance().attach(mainPane);
         showDashboard();
     }
 
     @FXML
-    void showDashboard() { loadView("/com/simonepugliese/taxreportgui/view/DashboardView.fxml"); }
+    void showDashboard() { ViewRegistry.getInstance().show(View.DASHBOARD); }
 
     @FXML
-    void showAddExpense() { loadView("/com/simonepugliese/taxreportgui/view/AddExpenseView.fxml"); }
+    void showAddExpense() {
+        AddExpenseController controller = ViewRegistry.getInstance().show(View.ADD_EXPENSE);
+        controller.startNewExpense();
+    }
 
     @FXML
-    void showSettings() { loadView("/com/simonepugliese/taxreportgui/view/SettingsView.fxml"); }
-
-    private void loadView(String fxmlPath) {
-        try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource(fxmlPath));
-            Parent view = loader.load();
-            mainPane.setCenter(view);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-}
\ No newline at end of file
+    void showImport() { ViewRegistry.getInstance().show(View.IMPORT); }
+
+    @FXML
+    void showExport() { ViewRegistry.getInstance().show(View.EXPORT); }
+
+    @FXML
+    void showSettings() { ViewRegistry.getInstance().show(View.SETTINGS); }
+}
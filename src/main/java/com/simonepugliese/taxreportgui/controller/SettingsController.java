@@ -1,78 +1,264 @@
 package com.simonepugliese.taxreportgui.controller;
 
 import com.simonepugliese.taxreportgui.gui.ConfigService;
+import com.simonepugliese.taxreportgui.util.CacheMaintenanceService;
+import com.simonepugliese.taxreportgui.util.DatabaseConnections;
+import com.simonepugliese.taxreportgui.util.Metrics;
 import com.simonepugliese.taxreportgui.util.ServiceManager;
+import com.simonepugliese.taxreportgui.util.TaskRunner;
+import com.simonepugliese.taxreportgui.util.ViewRegistry;
+import javafx.application.Platform;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.collections.FXCollections;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
+import javafx.scene.control.Label;
 import javafx.scene.control.PasswordField;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
 import javafx.scene.control.TextField;
+import javafx.stage.FileChooser;
 import pugliesesimone.taxreport.model.Person;
 
-public class SettingsController {
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.Set;
+import java.util.function.Consumer;
 
-    @FXML private TextField txtHost, txtDbPort, txtDbName, txtDbUser, txtSmbShare, txtSmbUser;
+public class SettingsController implements ViewRegistry.Lifecycle {
+
+    @FXML private TextField txtHost, txtDbPort, txtDbName, txtDbUser, txtSmbShare, txtSmbUser, txtCacheMb, txtCacheDays;
     @FXML private PasswordField txtDbPass, txtSmbPass;
+    @FXML private Label lblCacheStatus;
+
+    // Esiti della manutenzione cache mentre la vista è aperta
+    private final Consumer<CacheMaintenanceService.Report> cacheListener =
+            report -> Platform.runLater(() -> showCacheReport(report));
 
     // Nuovi campi per aggiunta persona
     @FXML private TextField txtNewName, txtNewCF;
 
+    // Diagnostica
+    @FXML private Label lblReplicaStatus;
+    @FXML private TableView<Metrics.Row> metricsTable;
+    @FXML private TableColumn<Metrics.Row, String> colMetricName, colMetricCount, colMetricMean, colMetricP50,
+            colMetricP95, colMetricP99, colMetricMax, colMetricInFlight;
+
     @FXML
     public void initialize() {
         ConfigService cfg = ConfigService.getInstance();
-        txtHost.setText(cfg.get(ConfigService.KEY_HOST, ""));
-        txtDbPort.setText(cfg.get(ConfigService.KEY_DB_PORT, "3306"));
-        txtDbName.setText(cfg.get(ConfigService.KEY_DB_NAME, "taxreport"));
-        txtDbUser.setText(cfg.get(ConfigService.KEY_DB_USER, ""));
-        txtDbPass.setText(cfg.get(ConfigService.KEY_DB_PASS, ""));
-        txtSmbShare.setText(cfg.get(ConfigService.KEY_SMB_SHARE, "TaxData"));
-        txtSmbUser.setText(cfg.get(ConfigService.KEY_SMB_USER, ""));
-        txtSmbPass.setText(cfg.get(ConfigService.KEY_SMB_PASS, ""));
+        txtHost.setText(cfg.getText(ConfigService.HOST));
+        txtDbPort.setText(cfg.getText(ConfigService.DB_PORT));
+        txtDbName.setText(cfg.getText(ConfigService.DB_NAME));
+        txtDbUser.setText(cfg.getText(ConfigService.DB_USER));
+        txtDbPass.setText(cfg.getText(ConfigService.DB_PASS));
+        txtSmbShare.setText(cfg.getText(ConfigService.SMB_SHARE));
+        txtSmbUser.setText(cfg.getText(ConfigService.SMB_USER));
+        txtSmbPass.setText(cfg.getText(ConfigService.SMB_PASS));
+        txtCacheMb.setText(cfg.getText(ConfigService.CACHE_MAX_MB));
+        txtCacheDays.setText(cfg.getText(ConfigService.CACHE_MAX_AGE_DAYS));
+
+        setupMetricsTable();
+        handleRefreshMetrics();
     }
 
     @FXML
     public void handleSave() {
         ConfigService cfg = ConfigService.getInstance();
-        cfg.set(ConfigService.KEY_HOST, txtHost.getText());
-        cfg.set(ConfigService.KEY_DB_PORT, txtDbPort.getText());
-        cfg.set(ConfigService.KEY_DB_NAME, txtDbName.getText());
-        cfg.set(ConfigService.KEY_DB_USER, txtDbUser.getText());
-        cfg.set(ConfigService.KEY_DB_PASS, txtDbPass.getText());
-        cfg.set(ConfigService.KEY_SMB_SHARE, txtSmbShare.getText());
-        cfg.set(ConfigService.KEY_SMB_USER, txtSmbUser.getText());
-        cfg.set(ConfigService.KEY_SMB_PASS, txtSmbPass.getText());
+        cfg.set(ConfigService.HOST, txtHost.getText());
+        cfg.set(ConfigService.DB_PORT, txtDbPort.getText());
+        cfg.set(ConfigService.DB_NAME, txtDbName.getText());
+        cfg.set(ConfigService.DB_USER, txtDbUser.getText());
+        cfg.set(ConfigService.DB_PASS, txtDbPass.getText());
+        cfg.set(ConfigService.SMB_SHARE, txtSmbShare.getText());
+        cfg.set(ConfigService.SMB_USER, txtSmbUser.getText());
+        cfg.set(ConfigService.SMB_PASS, txtSmbPass.getText());
+        cfg.set(ConfigService.CACHE_MAX_MB, txtCacheMb.getText());
+        cfg.set(ConfigService.CACHE_MAX_AGE_DAYS, txtCacheDays.getText());
 
-        cfg.save();
+        // Salvataggio e riconnessione fuori dal thread FX: si ricostruisce solo ciò che è cambiato
+        Task<String> task = new Task<>() {
+            {
+                updateTitle("Salvataggio configurazione");
+            }
 
-        try {
-            ServiceManager.getInstance().init();
-            new Alert(Alert.AlertType.INFORMATION, "Configurazione salvata e connessione OK!").show();
-        } catch (Exception e) {
-            new Alert(Alert.AlertType.ERROR, "Config salvata ma connessione fallita: " + e.getMessage()).show();
-        }
+            @Override
+            protected String call() throws Exception {
+                Set<ConfigService.Key<?>> changed = cfg.save();
+                ServiceManager sm = ServiceManager.getInstance();
+                if (changed.isEmpty() && sm.isReady()) return "Nessuna modifica da salvare.";
+
+                sm.ensureReady();
+                if (!Collections.disjoint(changed, ConfigService.DB_KEYS) && !DatabaseConnections.ping(cfg)) {
+                    return null;
+                }
+                return "Configurazione salvata e connessione OK!";
+            }
+        };
+
+        task.setOnSucceeded(e -> {
+            if (task.getValue() == null) {
+                new Alert(Alert.AlertType.WARNING, "Configurazione salvata ma il DB non risponde.").show();
+            } else {
+                new Alert(Alert.AlertType.INFORMATION, task.getValue()).show();
+            }
+        });
+        task.setOnFailed(e -> new Alert(Alert.AlertType.ERROR,
+                "Config salvata ma connessione fallita: " + task.getException().getMessage()).show());
+
+        TaskRunner.getInstance().submit(TaskRunner.Category.IO, task);
     }
 
     @FXML
     public void handleAddPerson() {
-        try {
-            if (!ServiceManager.getInstance().isReady()) ServiceManager.getInstance().init();
+        String name = txtNewName.getText();
+        String cf = txtNewCF.getText();
 
-            String name = txtNewName.getText();
-            String cf = txtNewCF.getText();
+        if (name == null || name.isBlank() || cf == null || cf.isBlank()) {
+            new Alert(Alert.AlertType.WARNING, "Inserisci Nome e CF").show();
+            return;
+        }
 
-            if (name == null || name.isBlank() || cf == null || cf.isBlank()) {
-                new Alert(Alert.AlertType.WARNING, "Inserisci Nome e CF").show();
-                return;
+        // Scrittura fuori dal thread FX; la cache delle persone si aggiorna da sola (ReferenceData)
+        Person p = new Person(name, cf);
+        Task<Void> task = new Task<>() {
+            @Override
+            protected Void call() throws Exception {
+                ServiceManager.getInstance().ensureReady();
+                ServiceManager.getInstance().registerPerson(p);
+                return null;
             }
+        };
 
-            Person p = new Person(name, cf);
-            ServiceManager.getInstance().getService().registerPerson(p);
-
+        task.setOnSucceeded(e -> {
             new Alert(Alert.AlertType.INFORMATION, "Persona aggiunta con successo!").show();
             txtNewName.clear();
             txtNewCF.clear();
+        });
+        task.setOnFailed(e ->
+                new Alert(Alert.AlertType.ERROR, "Errore: " + task.getException().getMessage()).show());
+
+        TaskRunner.getInstance().submit(TaskRunner.Category.IO, task);
+    }
+
+    @Override
+    public void onShow() {
+        handleRefreshMetrics();
+        CacheMaintenanceService maintenance = CacheMaintenanceService.getInstance();
+        maintenance.addListener(cacheListener);
+        showCacheReport(maintenance.getLastReport());
+    }
+
+    @Override
+    public void onHide() {
+        CacheMaintenanceService.getInstance().removeListener(cacheListener);
+    }
 
-        } catch (Exception e) {
-            new Alert(Alert.AlertType.ERROR, "Errore: " + e.getMessage()).show();
+    // --- CACHE ---
+
+    @FXML
+    public void handleCleanCache() {
+        Task<CacheMaintenanceService.Report> task = new Task<>() {
+            {
+                updateTitle("Pulizia cache");
+            }
+
+            @Override
+            protected CacheMaintenanceService.Report call() throws Exception {
+                return CacheMaintenanceService.getInstance().runNow();
+            }
+        };
+        // L'esito arriva anche dal listener: qui solo gli errori
+        task.setOnFailed(e ->
+                new Alert(Alert.AlertType.ERROR, "Pulizia cache fallita: " + task.getException().getMessage()).show());
+        TaskRunner.getInstance().submit(TaskRunner.Category.IO, task);
+    }
+
+    private void showCacheReport(CacheMaintenanceService.Report report) {
+        if (report == null) {
+            lblCacheStatus.setText("Manutenzione non ancora eseguita in questa sessione.");
+            return;
+        }
+        String at = LocalTime.ofInstant(Instant.ofEpochMilli(report.finishedAt()), ZoneId.systemDefault())
+                .format(DateTimeFormatter.ofPattern("HH:mm"));
+        lblCacheStatus.setText(String.format("Ultima pulizia alle %s: %d file, %s liberati. In uso %s su %s.",
+                at, report.removedFiles(), megabytes(report.reclaimedBytes()),
+                megabytes(report.cacheBytes()), megabytes(report.maxBytes())));
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    // --- DIAGNOSTICA ---
+
+    private void setupMetricsTable() {
+        colMetricName.setCellValueFactory(c -> new SimpleStringProperty(c.getValue().name()));
+        colMetricCount.setCellValueFactory(c -> new SimpleStringProperty(String.valueOf(c.getValue().count())));
+        colMetricMean.setCellValueFactory(c -> timing(c.getValue(), c.getValue().meanMs()));
+        colMetricP50.setCellValueFactory(c -> timing(c.getValue(), c.getValue().p50Ms()));
+        colMetricP95.setCellValueFactory(c -> timing(c.getValue(), c.getValue().p95Ms()));
+        colMetricP99.setCellValueFactory(c -> timing(c.getValue(), c.getValue().p99Ms()));
+        colMetricMax.setCellValueFactory(c -> timing(c.getValue(), c.getValue().maxMs()));
+        colMetricInFlight.setCellValueFactory(c -> new SimpleStringProperty(
+                "timer".equals(c.getValue().kind()) ? String.valueOf(c.getValue().inFlight()) : ""));
+        metricsTable.setPlaceholder(new Label("Nessuna operazione registrata in questa sessione."));
+    }
+
+    // I contatori non hanno tempi: colonna vuota
+    private static SimpleStringProperty timing(Metrics.Row row, double ms) {
+        return new SimpleStringProperty("timer".equals(row.kind()) ? String.format("%.1f", ms) : "");
+    }
+
+    @FXML
+    public void handleRefreshMetrics() {
+        metricsTable.setItems(FXCollections.observableArrayList(Metrics.getInstance().snapshot()));
+
+        // La replica disattivata non dà errori visibili: solo la Dashboard più lenta all'avvio
+        String replicaOff = ServiceManager.getInstance().getReplica().getDisabledReason();
+        lblReplicaStatus.setText(replicaOff != null ? "Replica locale disattivata: " + replicaOff : "");
+        lblReplicaStatus.setVisible(replicaOff != null);
+        lblReplicaStatus.setManaged(replicaOff != null);
+    }
+
+    @FXML
+    public void handleResetMetrics() {
+        Metrics.getInstance().reset();
+        handleRefreshMetrics();
+    }
+
+    @FXML
+    public void handleExportJson() {
+        exportMetrics("json", Metrics.getInstance().toJson());
+    }
+
+    @FXML
+    public void handleExportCsv() {
+        exportMetrics("csv", Metrics.getInstance().toCsv());
+    }
+
+    private void exportMetrics(String extension, String content) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Esporta Diagnostica");
+        chooser.setInitialFileName("taxreport-diagnostica-" + LocalDate.now() + "." + extension);
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(extension.toUpperCase(), "*." + extension));
+        File file = chooser.showSaveDialog(metricsTable.getScene().getWindow());
+        if (file == null) return;
+
+        try {
+            Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+            new Alert(Alert.AlertType.INFORMATION, "Diagnostica esportata in " + file.getName()).show();
+        } catch (IOException e) {
+            new Alert(Alert.AlertType.ERROR, "Errore esportazione: " + e.getMessage()).show();
         }
     }
-}
\ No newline at end of file
+}
@@ -1,27 +1,88 @@
 package com.simonepugliese.taxreportgui.gui;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.util.Properties;
+import java.security.GeneralSecurityException;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
+/**
+ * Configurazione dell'applicazione: chiavi tipizzate con un default unico, password cifrate su disco.
+ * <p>
+ * Il file ({@code ~/.taxreport/config.properties}) ha un'intestazione di versione; le chiavi segrete
+ * sono cifrate con {@link SecretCipher}. Il vecchio {@code ~/.taxreport_config.properties} in chiaro
+ * viene migrato al primo avvio e poi eliminato.
+ * {@link #save()} notifica solo i listener delle chiavi cambiate, così ogni sottosistema
+ * (accesso DB, client SMB, limiti cache) si ricostruisce solo quando serve.
+ */
 public class ConfigService {
-    private static final String CONFIG_FILE = ".taxreport_config.properties";
+    private static final String LEGACY_CONFIG_FILE = ".taxreport_config.properties";
+    private static final String CONFIG_FILE = "config.properties";
+    private static final String KEY_FILE = "config.key";
+    private static final String FILE_HEADER = "TAXREPORT-CONFIG v1";
+
     private final Path configPath;
+    private final Path legacyPath;
+    private final SecretCipher cipher;
     private final Properties props = new Properties();
+    // Valori all'ultimo salvataggio: il confronto dice quali chiavi sono cambiate
+    private final Map<String, String> saved = new HashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
     private static ConfigService instance;
 
+    /** Chiave tipizzata: nome nel file, default e conversione dal testo. */
+    public static final class Key<T> {
+        private final String name;
+        private final T defaultValue;
+        private final Function<String, T> parser;
+        private final boolean secret;
+
+        private Key(String name, T defaultValue, Function<String, T> parser, boolean secret) {
+            this.name = name;
+            this.defaultValue = defaultValue;
+            this.parser = parser;
+            this.secret = secret;
+        }
+
+        public String name() { return name; }
+        public T defaultValue() { return defaultValue; }
+        public boolean isSecret() { return secret; }
+
+        @Override
+        public String toString() { return name; }
+    }
+
     // Keys
-    public static final String KEY_HOST = "raspberry.host";
-    public static final String KEY_DB_PORT = "db.port";
-    public static final String KEY_DB_NAME = "db.name";
-    public static final String KEY_DB_USER = "db.user";
-    public static final String KEY_DB_PASS = "db.pass";
-    public static final String KEY_SMB_SHARE = "smb.share";
-    public static final String KEY_SMB_USER = "smb.user";
-    public static final String KEY_SMB_PASS = "smb.pass";
+    public static final Key<String> HOST = text("raspberry.host", "");
+    public static final Key<Integer> DB_PORT = integer("db.port", 3306);
+    public static final Key<String> DB_NAME = text("db.name", "taxreport");
+    public static final Key<String> DB_USER = text("db.user", "root");
+    public static final Key<String> DB_PASS = secret("db.pass");
+    public static final Key<String> SMB_SHARE = text("smb.share", "TaxData");
+    public static final Key<String> SMB_USER = text("smb.user", "pi");
+    public static final Key<String> SMB_PASS = secret("smb.pass");
+    public static final Key<Long> CACHE_MAX_MB = new Key<>("cache.max.mb", 512L, s -> Long.parseLong(s.trim()), false);
+    public static final Key<Integer> CACHE_MAX_AGE_DAYS = integer("cache.max.age.days", 7);
+    public static final Key<Integer> DB_CONN_TIMEOUT_MS = integer("db.connect.timeout.ms", 5000);
+
+    // Gruppi per sottosistema: un cambio in uno di questi ricostruisce solo quel pezzo
+    public static final Set<Key<?>> DB_KEYS = Set.of(HOST, DB_PORT, DB_NAME, DB_USER, DB_PASS);
+    public static final Set<Key<?>> SMB_KEYS = Set.of(HOST, SMB_SHARE, SMB_USER, SMB_PASS);
+    public static final Set<Key<?>> CACHE_KEYS = Set.of(CACHE_MAX_MB, CACHE_MAX_AGE_DAYS);
+
+    private static final List<Key<?>> ALL_KEYS = List.of(HOST, DB_PORT, DB_NAME, DB_USER, DB_PASS, SMB_SHARE,
+            SMB_USER, SMB_PASS, CACHE_MAX_MB, CACHE_MAX_AGE_DAYS, DB_CONN_TIMEOUT_MS);
+
+    private record Listener(Set<Key<?>> keys, Consumer<Set<Key<?>>> action) {}
 
     private ConfigService() {
-        this.configPath = Paths.get(System.getProperty("user.home"), CONFIG_FILE);
+        Path dataDir = Paths.get(System.getProperty("user.home"), ".taxreport");
+        this.configPath = dataDir.resolve(CONFIG_FILE);
+        this.legacyPath = Paths.get(System.getProperty("user.home"), LEGACY_CONFIG_FILE);
+        this.cipher = new SecretCipher(dataDir.resolve(KEY_FILE));
         load();
     }
 
@@ -30,19 +91,179 @@ public class ConfigService {
         return instance;
     }
 
+    private static Key<String> text(String name, String def) {
+        return new Key<>(name, def, s -> s, false);
+    }
+
+    private static Key<String> secret(String name) {
+        return new Key<>(name, "", s -> s, true);
+    }
+
+    private static Key<Integer> integer(String name, int def) {
+        return new Key<>(name, def, s -> Integer.parseInt(s.trim()), false);
+    }
+
+    // --- LETTURA / SCRITTURA ---
+
+    /** Valore tipizzato; default della chiave se assente o non valido. */
+    public synchronized <T> T get(Key<T> key) {
+        String raw = props.getProperty(key.name);
+        if (raw == null) return key.defaultValue;
+        try {
+            return key.parser.apply(raw);
+        } catch (RuntimeException e) {
+            return key.defaultValue;
+        }
+    }
+
+    /** Valore così come scritto dall'utente (per i campi delle Impostazioni). */
+    public synchronized String getText(Key<?> key) {
+        return props.getProperty(key.name, String.valueOf(key.defaultValue));
+    }
+
+    /** Imposta il valore in memoria; diventa effettivo (e notificato) con {@link #save()}. */
+    public synchronized void set(Key<?> key, String value) {
+        if (value == null) props.remove(key.name);
+        else props.setProperty(key.name, value);
+    }
+
+    /** Budget della cache allegati in byte (configurato in MB). */
+    public long getCacheMaxBytes() {
+        return Math.max(1, get(CACHE_MAX_MB)) * 1024 * 1024;
+    }
+
+    /** Età massima (in giorni dall'ultimo uso) di un allegato in cache. */
+    public int getCacheMaxAgeDays() {
+        return Math.max(1, get(CACHE_MAX_AGE_DAYS));
+    }
+
+    /** Cifratura con la chiave locale dell'utente, la stessa delle password salvate. */
+    public SecretCipher getCipher() {
+        return cipher;
+    }
+
+    // --- NOTIFICHE ---
+
+    /**
+     * {@code action} viene chiamata dopo ogni {@link #save()} che cambia almeno una di {@code keys},
+     * sul thread che salva, con l'insieme delle chiavi cambiate.
+     */
+    public void addListener(Set<Key<?>> keys, Consumer<Set<Key<?>>> action) {
+        listeners.add(new Listener(keys, action));
+    }
+
+    /**
+     * Scrive su disco e notifica i sottosistemi interessati.
+     * @return chiavi cambiate dall'ultimo salvataggio (vuoto se nulla è cambiato)
+     */
+    public Set<Key<?>> save() {
+        Set<Key<?>> changed = new HashSet<>();
+        synchronized (this) {
+            for (Key<?> key : ALL_KEYS) {
+                if (!Objects.equals(saved.get(key.name), props.getProperty(key.name))) changed.add(key);
+            }
+            if (changed.isEmpty()) return changed;
+            try {
+                write();
+            } catch (IOException | GeneralSecurityException e) {
+                // Le modifiche restano valide in memoria per questa sessione
+                System.err.println("Warning: salvataggio configurazione fallito: " + e.getMessage());
+            }
+            snapshot();
+        }
+
+        // Fuori dal lock: i listener possono rileggere la configurazione
+        for (Listener l : listeners) {
+            if (!Collections.disjoint(l.keys, changed)) l.action.accept(Collections.unmodifiableSet(changed));
+        }
+        return changed;
+    }
+
+    // --- PERSISTENZA ---
+
     private void load() {
-        if (!Files.exists(configPath)) return;
-        try (InputStream is = Files.newInputStream(configPath)) {
+        try {
+            if (Files.exists(configPath)) {
+                read();
+            } else if (Files.exists(legacyPath)) {
+                migrateLegacy();
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: configurazione non leggibile: " + e.getMessage());
+        }
+        snapshot();
+    }
+
+    private void read() throws IOException {
+        try (BufferedReader r = Files.newBufferedReader(configPath, StandardCharsets.UTF_8)) {
+            // Formato futuro non riconosciuto: meglio i default che valori interpretati male
+            if (!("#" + FILE_HEADER).equals(r.readLine())) return;
+            Properties stored = new Properties();
+            stored.load(r);
+            for (String name : stored.stringPropertyNames()) {
+                String value = stored.getProperty(name);
+                if (SecretCipher.isEncrypted(value)) {
+                    try {
+                        value = cipher.decrypt(value);
+                    } catch (GeneralSecurityException | IllegalArgumentException e) {
+                        // Chiave persa o diversa: la password va reinserita
+                        System.err.println("Warning: impossibile decifrare " + name + ": " + e.getMessage());
+                        continue;
+                    }
+                }
+                props.setProperty(name, value);
+            }
+        }
+    }
+
+    /** Vecchio file in chiaro: si riscrive nel nuovo formato cifrato, poi si elimina. */
+    private void migrateLegacy() throws IOException {
+        try (InputStream is = Files.newInputStream(legacyPath)) {
             props.load(is);
-        } catch (IOException e) { e.printStackTrace(); }
+        }
+        try {
+            write();
+            Files.delete(legacyPath);
+            System.out.println("Configurazione migrata in " + configPath);
+        } catch (GeneralSecurityException e) {
+            // Si continua col vecchio file: riproverà al prossimo avvio
+            System.err.println("Warning: migrazione configurazione fallita: " + e.getMessage());
+        }
     }
 
-    public void save() {
-        try (OutputStream os = Files.newOutputStream(configPath)) {
-            props.store(os, "TaxReport GUI Config");
-        } catch (IOException e) { e.printStackTrace(); }
+    private void write() throws IOException, GeneralSecurityException {
+        Properties out = new Properties();
+        for (String name : props.stringPropertyNames()) {
+            String value = props.getProperty(name);
+            out.setProperty(name, isSecret(name) && !value.isEmpty() ? cipher.encrypt(value) : value);
+        }
+
+        Files.createDirectories(configPath.getParent());
+        Path tmp = Files.createTempFile(configPath.getParent(), CONFIG_FILE, ".part");
+        try {
+            try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                // Il commento di store() è la prima riga: fa da intestazione di versione
+                out.store(w, FILE_HEADER);
+            }
+            try {
+                Files.move(tmp, configPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, configPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
     }
 
-    public String get(String key, String def) { return props.getProperty(key, def); }
-    public void set(String key, String val) { props.setProperty(key, val); }
-}
\ No newline at end of file
+    private void snapshot() {
+        saved.clear();
+        for (String name : props.stringPropertyNames()) saved.put(name, props.getProperty(name));
+    }
+
+    private static boolean isSecret(String name) {
+        for (Key<?> key : ALL_KEYS) {
+            if (key.name.equals(name)) return key.secret;
+        }
+        return false;
+    }
+}
@@ -1,14 +1,9 @@
 package com.simonepugliese.taxreportgui.gui;
 
+import com.simonepugliese.taxreportgui.util.ViewRegistry;
 import javafx.fxml.FXML;
 import javafx.scene.Node;
-import javafx.scene.control.Alert;
-import javafx.scene.control.TextInputDialog;
 import javafx.scene.layout.StackPane;
-import pugliesesimone.taxreport.AppFactory;
-import pugliesesimone.taxreport.service.TaxReportService;
-
-import java.util.Optional;
 
 public class MainController {
 
@@ -18,8 +13,6 @@ public class MainController {
     private Node reportView;
     private Node expenseView;
 
-    private TaxReportService service;
-
     public void setViews(Node settingsView, Node reportView, Node expenseView) {
         this.settingsView = settingsView;
         this.reportView = reportView;
@@ -40,49 +33,8 @@ public class MainController {
 
     @FXML
     void handlePrintReport() {
-        // 1. Chiedi l'anno all'utente
-        TextInputDialog dialog = new TextInputDialog("2024");
-        dialog.setTitle("Verifica Report");
-        dialog.setHeaderText("Analisi Conformità Fiscale");
-        dialog.setContentText("Inserisci l'anno da verificare:");
-
-        Optional<String> result = dialog.showAndWait();
-        if (result.isEmpty()) return;
-
-        String year = result.get();
-
-        // 2. Carica configurazione ed esegui
-        ConfigService cfg = ConfigService.getInstance();
-        try {
-            this.service = AppFactory.buildAndroidService(
-                    cfg.get(ConfigService.KEY_HOST, "192.168.1.x"),
-                    Integer.parseInt(cfg.get(ConfigService.KEY_DB_PORT, "3306")),
-                    cfg.get(ConfigService.KEY_DB_NAME, "taxreport"),
-                    cfg.get(ConfigService.KEY_DB_USER, "root"),
-                    cfg.get(ConfigService.KEY_DB_PASS, ""),
-                    cfg.get(ConfigService.KEY_HOST, "192.168.1.x"),
-                    cfg.get(ConfigService.KEY_SMB_SHARE, "TaxData"),
-                    cfg.get(ConfigService.KEY_SMB_USER, "pi"),
-                    cfg.get(ConfigService.KEY_SMB_PASS, "")
-            );
-
-            // 3. Esegui il check vero e proprio
-            String reportSummary = service.runComplianceCheck(year);
-
-            // 4. Mostra Risultati
-            Alert alert = new Alert(Alert.AlertType.INFORMATION);
-            alert.setTitle("Report Completato");
-            alert.setHeaderText("Risultato Verifica " + year);
-            alert.setContentText(reportSummary);
-            alert.showAndWait();
-
-        } catch (Exception e) {
-            Alert alert = new Alert(Alert.AlertType.ERROR);
-            alert.setTitle("Errore Report");
-            alert.setHeaderText("Impossibile generare il report");
-            alert.setContentText(e.getMessage());
-            alert.showAndWait();
-        }
+        // Verifica ed esportazione passano dalla vista dedicata (anni multipli, CSV/XLSX/PDF, in background)
+        ViewRegistry.getInstance().show(ViewRegistry.View.EXPORT);
     }
 
     @FXML
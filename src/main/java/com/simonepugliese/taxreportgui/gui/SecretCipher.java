@@ -0,0 +1,128 @@
+package com.simonepugliese.taxreportgui.gui;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Cifratura AES-GCM dei valori segreti della configurazione (password DB e SMB) e dei file
+ * con dati personali nel profilo utente (replica locale).
+ * <p>
+ * La chiave è un file a parte nella cartella dati, leggibile solo dall'utente dove il file system
+ * lo permette: copiare il solo file di configurazione non basta a leggere le password.
+ * L'istanza condivisa si ottiene da {@link ConfigService#getCipher()}.
+ */
+public final class SecretCipher {
+
+    static final String PREFIX = "enc:v1:";
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+
+    private final Path keyFile;
+    private final SecureRandom random = new SecureRandom();
+    private SecretKey key;
+
+    public SecretCipher(Path keyFile) {
+        this.keyFile = keyFile;
+    }
+
+    static boolean isEncrypted(String value) {
+        return value != null && value.startsWith(PREFIX);
+    }
+
+    /** Testo in chiaro -> "enc:v1:" + Base64(IV + testo cifrato con tag). */
+    String encrypt(String plain) throws GeneralSecurityException, IOException {
+        return PREFIX + Base64.getEncoder().encodeToString(encrypt(plain.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    String decrypt(String value) throws GeneralSecurityException, IOException {
+        byte[] data = Base64.getDecoder().decode(value.substring(PREFIX.length()));
+        return new String(decrypt(data), StandardCharsets.UTF_8);
+    }
+
+    /** Dati in chiaro -> IV + dati cifrati con tag. */
+    public synchronized byte[] encrypt(byte[] plain) throws GeneralSecurityException, IOException {
+        byte[] iv = new byte[IV_BYTES];
+        random.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key(), new GCMParameterSpec(TAG_BITS, iv));
+        byte[] sealed = cipher.doFinal(plain);
+        return ByteBuffer.allocate(iv.length + sealed.length).put(iv).put(sealed).array();
+    }
+
+    /** Dimensione dei dati in chiaro di un blocco prodotto da {@link #encrypt(byte[])}. */
+    public static long plainLength(long sealedLength) {
+        return Math.max(0, sealedLength - IV_BYTES - TAG_BITS / 8);
+    }
+
+    /** Inverso di {@link #encrypt(byte[])}; dati alterati o chiave diversa -> {@link GeneralSecurityException}. */
+    public synchronized byte[] decrypt(byte[] data) throws GeneralSecurityException, IOException {
+        if (data.length <= IV_BYTES) throw new GeneralSecurityException("Valore cifrato troncato");
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key(), new GCMParameterSpec(TAG_BITS, data, 0, IV_BYTES));
+        return cipher.doFinal(data, IV_BYTES, data.length - IV_BYTES);
+    }
+
+    // --- CHIAVE ---
+
+    private SecretKey key() throws GeneralSecurityException, IOException {
+        if (key != null) return key;
+        if (!Files.exists(keyFile)) createKey();
+        byte[] raw = Base64.getDecoder().decode(Files.readString(keyFile, StandardCharsets.US_ASCII).trim());
+        key = new SecretKeySpec(raw, "AES");
+        return key;
+    }
+
+    private void createKey() throws GeneralSecurityException, IOException {
+        KeyGenerator generator = KeyGenerator.getInstance("AES");
+        generator.init(256, random);
+        String encoded = Base64.getEncoder().encodeToString(generator.generateKey().getEncoded());
+
+        // 1. Chiave completa in un file temporaneo della stessa cartella: un crash non lascia mai
+        //    una chiave vuota o a metà al posto giusto
+        Path dir = keyFile.getParent();
+        Files.createDirectories(dir);
+        Path tmp;
+        try {
+            // Permessi solo proprietario già alla creazione (niente finestra in cui è leggibile da altri)
+            FileAttribute<?> ownerOnly = PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"));
+            tmp = Files.createTempFile(dir, keyFile.getFileName().toString(), ".part", ownerOnly);
+        } catch (UnsupportedOperationException e) {
+            // Windows: vale l'ACL della cartella utente
+            tmp = Files.createTempFile(dir, keyFile.getFileName().toString(), ".part");
+        }
+
+        // 2. Pubblicazione atomica che non sovrascrive mai: se un altro processo ha creato la chiave
+        //    nel frattempo si usa quella (i dati già cifrati con lei restano leggibili)
+        try {
+            Files.writeString(tmp, encoded, StandardCharsets.US_ASCII);
+            try {
+                Files.createLink(keyFile, tmp);
+            } catch (FileAlreadyExistsException e) {
+                throw e;
+            } catch (UnsupportedOperationException | IOException e) {
+                // File system senza hard link: rename semplice, che fallisce se la chiave esiste già
+                Files.move(tmp, keyFile);
+            }
+        } catch (FileAlreadyExistsException e) {
+            // Creata da un altro processo nel frattempo: si usa quella
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package com.simonepugliese.taxreportgui.util;
+
+import com.simonepugliese.taxreportgui.gui.SecretCipher;
+import pugliesesimone.taxreport.model.Attachment;
+import pugliesesimone.taxreport.model.Document;
+import pugliesesimone.taxreport.model.DocumentType;
+import pugliesesimone.taxreport.model.Expense;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Salvataggio di una spesa con i suoi allegati locali, pensato per scansioni grandi (20-50 MB).
+ * <p>
+ * I file vengono letti a blocchi di {@link #CHUNK_SIZE} byte con notifica di avanzamento per file e
+ * gli stream sono sempre chiusi (anche in caso di errore). L'invio è un'unica {@code registerExpense}:
+ * il backend riceve gli allegati in sequenza e non permette di riprendere un file a metà.
+ * {@code registerExpense} non è idempotente: un tentativo fallito si ripete solo dopo aver ritrovato sul
+ * server quello che è già arrivato, tramite il {@link SaveJournal} dell'operazione. Se la riga di
+ * un'operazione non si distingue da altre righe nuove identiche il tentativo viene abbandonato.
+ * Va eseguito fuori dal thread JavaFX.
+ * <p>
+ * Gli allegati non si condividono tra spese diverse: il backend non ha riferimenti condivisi (togliere il
+ * documento da una spesa lo cancellerebbe anche dall'altra) né copie lato server, e una copia per spesa
+ * fatta dal client rileggerebbe e rinvierebbe comunque tutti i byte.
+ */
+public class AttachmentUploader {
+
+    public static final int CHUNK_SIZE = 1024 * 1024;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BACKOFF_MILLIS = 1000;
+    private static final int COMPARE_BUFFER = 64 * 1024;
+
+    /**
+     * Allegato da caricare, ancora sul disco locale.
+     * @param cipher chiave della copia locale cifrata (coda di invio); null = file in chiaro dell'utente
+     */
+    public record LocalAttachment(File file, DocumentType type, String name, SecretCipher cipher) {
+
+        public LocalAttachment(File file, DocumentType type, String name) {
+            this(file, type, name, null);
+        }
+
+        /** Contenuto in chiaro; una copia cifrata si decifra in memoria (mai su disco). */
+        public InputStream open() throws IOException {
+            if (cipher == null) return new FileInputStream(file);
+            try {
+                return new ByteArrayInputStream(cipher.decrypt(Files.readAllBytes(file.toPath())));
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Allegato " + name + " non decifrabile: " + e.getMessage(), e);
+            }
+        }
+
+        /** Dimensione del contenuto in chiaro. */
+        public long size() {
+            return cipher == null ? file.length() : SecretCipher.plainLength(file.length());
+        }
+    }
+
+    @FunctionalInterface
+    public interface ProgressListener {
+        void onProgress(int fileIndex, long fileRead, long fileSize, long totalRead, long totalSize);
+    }
+
+    private final ServiceManager serviceManager;
+
+    public AttachmentUploader(ServiceManager serviceManager) {
+        this.serviceManager = serviceManager;
+    }
+
+    /** Un file ancora da caricare, con la sua posizione nell'elenco originale (per l'avanzamento). */
+    private record Pending(int index, LocalAttachment attachment, String sha256) {}
+
+    /** Cosa resta da inviare dopo aver guardato il server; {@code done} = la spesa c'è già per intero. */
+    private record Plan(Expense expense, List<Pending> files, boolean done) {}
+
+    /** Registra la spesa caricando gli allegati indicati, senza ripetere i tentativi falliti di una spesa nuova. */
+    public void upload(Expense expense, List<LocalAttachment> files, ProgressListener listener) throws Exception {
+        serviceManager.ensureReady();
+        upload(expense, null, files, null, new YearCache(serviceManager.getMetadata()), listener);
+    }
+
+    /**
+     * Registra la spesa caricando gli allegati indicati.
+     * Lo stesso file scelto due volte nello stesso salvataggio (stesso SHA-256) viene caricato una volta sola.
+     * @param serverYear anno in cui la spesa si trova oggi sul server (una modifica può cambiarlo);
+     *                   null = quello della spesa
+     * @param operationId chiave dell'operazione nel {@link SaveJournal}, stabile tra i tentativi (anche di
+     *                    sessioni diverse); null = una spesa nuova non si ritenta
+     * @param years letture del server condivise dal lotto di salvataggi
+     */
+    public void upload(Expense expense, String serverYear, List<LocalAttachment> files, String operationId,
+                       YearCache years, ProgressListener listener) throws Exception {
+        serviceManager.ensureReady();
+        SaveJournal journal = serviceManager.getSaveJournal();
+        String year = serverYear != null ? serverYear : expense.getYear();
+
+        // 1. Hash locali: servono a riconoscere sul server i file di un tentativo precedente
+        List<Pending> pending = new ArrayList<>();
+        Set<String> hashes = new HashSet<>();
+        for (int i = 0; i < files.size(); i++) {
+            String sha = sha256(files.get(i));
+            if (hashes.add(sha)) pending.add(new Pending(i, files.get(i), sha));
+        }
+
+        // 2. Operazione già iniziata: si riparte da quello che il server ha ricevuto (righe di prima del lotto)
+        SaveJournal.Record record = operationId != null ? journal.get(operationId) : null;
+        Plan plan;
+        if (record != null) {
+            plan = reconcile(expense, pending, record, years, false);
+        } else {
+            plan = new Plan(expense, pending, false);
+            if (operationId != null) {
+                Set<Long> known = new HashSet<>();
+                if (expense.getId() == null) {
+                    for (Expense e : years.get(year)) known.add(e.getId());
+                }
+                journal.begin(operationId, year, known);
+                record = new SaveJournal.Record(operationId, year, known);
+            }
+        }
+
+        // Una spesa nuova senza journal non si può ritrovare: niente tentativi ripetuti
+        boolean retryable = expense.getId() != null || record != null;
+        for (int attempt = 1; !plan.done(); attempt++) {
+            try {
+                send(plan, listener);
+                return;
+            } catch (Exception e) {
+                if (!retryable || attempt >= MAX_ATTEMPTS) throw e;
+                System.err.println("Salvataggio fallito (tentativo " + attempt + "), riprovo: " + e.getMessage());
+                Thread.sleep(BACKOFF_MILLIS * attempt);
+
+                // 3. La riga può essere stata inserita anche se l'upload è fallito: controllo su dati freschi
+                try {
+                    SaveJournal.Record current = record != null ? record : new SaveJournal.Record(null, year, Set.of());
+                    plan = reconcile(plan.expense(), plan.files(), current, years, true);
+                } catch (Exception check) {
+                    e.addSuppressed(check);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void send(Plan plan, ProgressListener listener) throws Exception {
+        long totalSize = 0;
+        for (Pending f : plan.files()) totalSize += f.attachment().size();
+
+        long[] transferred = new long[1];
+        List<InputStream> opened = new ArrayList<>();
+        try {
+            List<Attachment> attachments = new ArrayList<>();
+            for (Pending f : plan.files()) {
+                LocalAttachment a = f.attachment();
+                InputStream in = new ProgressInputStream(
+                        new BufferedInputStream(a.open(), CHUNK_SIZE),
+                        f.index(), a.size(), totalSize, transferred, listener);
+                opened.add(in);
+                attachments.add(new Attachment(a.type(), a.name(), in));
+            }
+            serviceManager.registerExpense(plan.expense(), attachments);
+            Metrics.getInstance().add("smb.bytes.upload", transferred[0]);
+        } finally {
+            for (InputStream in : opened) {
+                try { in.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * Confronta la spesa con il server. Una spesa nuova già arrivata diventa una modifica di quella riga.
+     * Dei documenti sul server non ancora collegati, quelli con lo stesso contenuto di un file da caricare
+     * sono arrivati con un tentativo precedente: si tengono e il file non si ricarica. Gli altri non fanno
+     * parte della spesa richiesta.
+     * @param fresh true dopo un errore in questo lotto: la copia del lotto non contiene la riga appena inviata
+     */
+    private Plan reconcile(Expense expense, List<Pending> files, SaveJournal.Record record, YearCache years,
+                           boolean fresh) throws Exception {
+        Expense current = expense.getId() != null
+                ? findById(expense.getId(), record.year(), years, fresh)
+                : findCreated(expense, record, years, fresh);
+        if (current == null) {
+            if (expense.getId() != null) throw new IllegalStateException("La spesa da modificare non è più sul server");
+            return new Plan(expense, files, false);
+        }
+
+        List<Document> docs = expense.getDocuments() != null ? new ArrayList<>(expense.getDocuments()) : new ArrayList<>();
+        Set<String> linked = new HashSet<>();
+        for (Document d : docs) linked.add(d.getRelativePath());
+
+        List<Pending> remaining = new ArrayList<>(files);
+        if (current.getDocuments() != null) {
+            for (Document d : current.getDocuments()) {
+                if (remaining.isEmpty()) break;
+                if (linked.contains(d.getRelativePath())) continue;
+                Pending match = sameContent(d, remaining);
+                if (match != null) {
+                    remaining.remove(match);
+                    docs.add(d);
+                }
+            }
+        }
+
+        Expense target = new Expense(current.getId(), expense.getYear(), expense.getPerson(), expense.getExpenseType(),
+                expense.getDescription(), expense.getRawDate(),
+                expense.getId() != null ? expense.getExpenseState() : current.getExpenseState());
+        target.setDocuments(docs);
+        // Spesa nuova già inserita con tutti i suoi file: non c'è altro da inviare
+        boolean done = expense.getId() == null && remaining.isEmpty();
+        return new Plan(target, remaining, done);
+    }
+
+    /** Modifica: la riga si cerca nel suo anno sul server e, solo se non c'è, negli altri anni. */
+    static Expense findById(Long id, String year, YearCache years, boolean fresh) throws Exception {
+        for (Expense e : fresh ? years.fresh(year) : years.get(year)) {
+            if (id.equals(e.getId())) return e;
+        }
+        for (String other : years.years()) {
+            if (other.equals(year)) continue;
+            for (Expense e : years.get(other)) {
+                if (id.equals(e.getId())) return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Spesa nuova: la riga creata dall'operazione è una riga dell'anno assente prima dell'invio e con gli
+     * stessi campi. Con più candidate non si sceglie a caso: si abbandona, il controllo resta all'utente.
+     */
+    static Expense findCreated(Expense expense, SaveJournal.Record record, YearCache years, boolean fresh)
+            throws Exception {
+        List<Expense> candidates = new ArrayList<>();
+        for (Expense e : fresh ? years.fresh(record.year()) : years.get(record.year())) {
+            if (!record.knownIds().contains(e.getId()) && sameFields(expense, e)) candidates.add(e);
+        }
+        if (candidates.size() > 1) {
+            throw new IllegalStateException("Sul server ci sono " + candidates.size() + " spese nuove identiche a \""
+                    + expense.getDescription() + "\": impossibile stabilire se questo salvataggio è già arrivato."
+                    + " Controllare le spese del " + record.year() + " prima di salvarla di nuovo.");
+        }
+        return candidates.isEmpty() ? null : candidates.get(0);
+    }
+
+    private static boolean sameFields(Expense a, Expense b) {
+        return Objects.equals(a.getExpenseType(), b.getExpenseType())
+                && Objects.equals(a.getDescription(), b.getDescription())
+                && Objects.equals(a.getRawDate(), b.getRawDate())
+                && a.getPerson() != null && b.getPerson() != null
+                && Objects.equals(a.getPerson().getId(), b.getPerson().getId());
+    }
+
+    /**
+     * File locale con lo stesso contenuto del documento sul server, o null.
+     * Se il documento è nella cache locale basta il suo SHA-256; altrimenti lo stream remoto si confronta
+     * a blocchi con i file candidati e si chiude appena nessuno coincide più (primo blocco diverso, o file
+     * remoto più lungo di tutti). Il backend non espone la dimensione dei file senza leggerli.
+     */
+    private Pending sameContent(Document doc, List<Pending> candidates) {
+        String cached = serviceManager.getDocumentCache().sha256Of(doc.getRelativePath());
+        if (cached != null) {
+            for (Pending p : candidates) {
+                if (p.sha256().equalsIgnoreCase(cached)) return p;
+            }
+            return null;
+        }
+
+        try (InputStream remote = serviceManager.openRemote(doc)) {
+            if (remote == null) return null;
+            List<LocalAttachment> locals = new ArrayList<>();
+            for (Pending p : candidates) locals.add(p.attachment());
+            int match = firstEqual(remote, locals);
+            return match >= 0 ? candidates.get(match) : null;
+        } catch (Exception e) {
+            // Upload interrotto a metà o share non leggibile: il file si ricarica
+            System.err.println("Warning: " + doc.getRelativePath() + " non leggibile: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Indice del primo allegato con lo stesso contenuto dello stream, o -1. Lo stream si legge solo finché
+     * almeno un allegato coincide ancora.
+     */
+    static int firstEqual(InputStream remote, List<LocalAttachment> files) throws IOException {
+        List<Integer> alive = new ArrayList<>();
+        List<InputStream> locals = new ArrayList<>();
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                alive.add(i);
+                locals.add(new BufferedInputStream(files.get(i).open(), COMPARE_BUFFER));
+            }
+
+            byte[] remoteBuf = new byte[COMPARE_BUFFER];
+            byte[] localBuf = new byte[COMPARE_BUFFER];
+            long compared = 0;
+            while (!alive.isEmpty()) {
+                int n = remote.readNBytes(remoteBuf, 0, remoteBuf.length);
+                for (int i = alive.size() - 1; i >= 0; i--) {
+                    // Fine dello stream: coincide solo un file finito anche lui
+                    int m = locals.get(i).readNBytes(localBuf, 0, Math.max(n, 1));
+                    boolean same = n > 0 ? m == n && Arrays.equals(remoteBuf, 0, n, localBuf, 0, n) : m == 0;
+                    if (!same) {
+                        alive.remove(i);
+                        locals.remove(i).close();
+                    }
+                }
+                compared += n;
+                if (n == 0) break;
+            }
+            Metrics.getInstance().add("smb.bytes.compare", compared);
+            return alive.isEmpty() ? -1 : alive.get(0);
+        } finally {
+            for (InputStream in : locals) {
+                try { in.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    /** SHA-256 (esadecimale) del contenuto in chiaro di un allegato locale. */
+    static String sha256(LocalAttachment source) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = source.open()) {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) > 0) digest.update(buf, 0, n);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /** Stream che conta i byte letti e notifica l'avanzamento del file e del totale. */
+    private static class ProgressInputStream extends FilterInputStream {
+        private final int fileIndex;
+        private final long fileSize;
+        private final long totalSize;
+        private final long[] transferred;
+        private final ProgressListener listener;
+        private long fileRead;
+
+        ProgressInputStream(InputStream in, int fileIndex, long fileSize, long totalSize,
+                            long[] transferred, ProgressListener listener) {
+            super(in);
+            this.fileIndex = fileIndex;
+            this.fileSize = fileSize;
+            this.totalSize = totalSize;
+            this.transferred = transferred;
+            this.listener = listener;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) advance(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            int n = super.read(buf, off, len);
+            if (n > 0) advance(n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0) advance(skipped);
+            return skipped;
+        }
+
+        private void advance(long n) {
+            fileRead += n;
+            transferred[0] += n;
+            if (listener != null) listener.onProgress(fileIndex, fileRead, fileSize, transferred[0], totalSize);
+        }
+    }
+}
@@ -0,0 +1,514 @@
+package com.simonepugliese.taxreportgui.util;
+
+import pugliesesimone.taxreport.model.DocumentType;
+import pugliesesimone.taxreport.model.Expense;
+import pugliesesimone.taxreport.model.ExpenseType;
+import pugliesesimone.taxreport.model.Person;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Importazione in blocco di spese da una cartella o da un manifest CSV.
+ * <p>
+ * Pipeline: hash SHA-256 dei file (in parallelo) -> scarto dei duplicati (nel lotto, nel journal e sul
+ * server) -> salvataggio tramite {@link AttachmentUploader} con al massimo {@link #UPLOAD_PARALLELISM} spese
+ * in volo. Ogni spesa salvata finisce nel journal {@code ~/.taxreport/import.journal}: rilanciando lo
+ * stesso import dopo un'interruzione le righe già fatte vengono saltate. Senza journal (altro PC, journal
+ * cancellato) una riga con persona, tipo, data e descrizione già presenti sul server viene saltata come
+ * duplicato. L'hash dei file fa da chiave dell'operazione nel {@link SaveJournal}, così un upload ripetuto
+ * dopo un errore ritrova la spesa già inserita. Un solo import alla volta per processo: condividono il journal.
+ * Va eseguito fuori dal thread JavaFX.
+ */
+public class BatchImporter {
+
+    public static final String JOURNAL_FILE = "import.journal";
+    private static final int UPLOAD_PARALLELISM = 3;
+    private static final int HASH_BUFFER = 1024 * 1024;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+    private static final Set<String> EXTENSIONS = Set.of("pdf", "jpg", "jpeg", "png", "tif", "tiff");
+
+    public enum Status { PENDING, HASHING, UPLOADING, IMPORTED, DUPLICATE, ALREADY_IMPORTED, FAILED }
+
+    /** Valori usati per i file di una cartella (senza manifest). {@code year} nullo = anno della data del file. */
+    public record Defaults(Person person, ExpenseType type, DocumentType documentType, String year) {}
+
+    /** Esito complessivo di un import. */
+    public record Summary(int imported, int skipped, int failed, Set<String> years, boolean cancelled) {}
+
+    private static final AtomicBoolean RUNNING = new AtomicBoolean();
+
+    public interface Listener {
+        /** Stato o messaggio di una riga cambiato (chiamato dai thread dell'import). */
+        void itemChanged(Item item);
+
+        /** Byte caricati sul totale dei file da importare. */
+        void progress(long doneBytes, long totalBytes);
+    }
+
+    /** Una spesa da importare con i suoi file. */
+    public static final class Item {
+        private final int line;
+        private final List<Path> files;
+        private final Person person;
+        private final ExpenseType type;
+        private final DocumentType documentType;
+        private final String year;
+        private final String rawDate;
+        private final String description;
+        private volatile Status status = Status.PENDING;
+        private volatile String message = "";
+        private volatile String key;
+
+        Item(int line, List<Path> files, Person person, ExpenseType type, DocumentType documentType,
+             String year, String rawDate, String description) {
+            this.line = line;
+            this.files = files;
+            this.person = person;
+            this.type = type;
+            this.documentType = documentType;
+            this.year = year;
+            this.rawDate = rawDate;
+            this.description = description;
+        }
+
+        /** Riga del manifest (0 per l'import da cartella). */
+        public int getLine() { return line; }
+        public List<Path> getFiles() { return files; }
+        public Person getPerson() { return person; }
+        public ExpenseType getType() { return type; }
+        public String getYear() { return year; }
+        public String getRawDate() { return rawDate; }
+        public String getDescription() { return description; }
+        public Status getStatus() { return status; }
+        public String getMessage() { return message; }
+
+        long size() {
+            long total = 0;
+            for (Path f : files) {
+                try {
+                    total += Files.size(f);
+                } catch (IOException ignored) {
+                    // Il file sparito emerge come errore in fase di hash
+                }
+            }
+            return total;
+        }
+    }
+
+    private final ServiceManager serviceManager;
+    private final Path journalFile;
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    public BatchImporter(ServiceManager serviceManager) {
+        this.serviceManager = serviceManager;
+        this.journalFile = serviceManager.getDataPath().resolve(JOURNAL_FILE);
+    }
+
+    // --- PIANIFICAZIONE ---
+
+    /** Un file per spesa: descrizione dal nome, data dall'ultima modifica. */
+    public static List<Item> scanDirectory(Path dir, Defaults defaults) throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(dir)) {
+            files = stream.filter(Files::isRegularFile).filter(BatchImporter::isSupported).sorted().toList();
+        }
+
+        List<Item> items = new ArrayList<>();
+        for (Path f : files) {
+            LocalDate date = LocalDate.ofInstant(Files.getLastModifiedTime(f).toInstant(), ZoneId.systemDefault());
+            String name = f.getFileName().toString();
+            String description = name.substring(0, name.lastIndexOf('.')).replace('_', ' ');
+            String year = defaults.year() != null ? defaults.year() : String.valueOf(date.getYear());
+            items.add(new Item(0, List.of(f), defaults.person(), defaults.type(), defaults.documentType(),
+                    year, date.format(DATE_FORMAT), description));
+        }
+        return items;
+    }
+
+    /**
+     * Manifest CSV ({@code ;} o {@code ,}), una spesa per riga:
+     * {@code file;codice_fiscale;tipo;data;descrizione[;tipo_documento]}.
+     * Più file nella stessa spesa si separano con {@code |}; i percorsi relativi partono dalla cartella
+     * del manifest. Le righe non valide diventano righe {@link Status#FAILED} con il motivo.
+     */
+    public static List<Item> readManifest(Path manifest, List<Person> persons) throws IOException {
+        Map<String, Person> byFiscalCode = new HashMap<>();
+        for (Person p : persons) {
+            if (p.getFiscalCode() != null) byFiscalCode.put(p.getFiscalCode().toUpperCase(Locale.ROOT), p);
+        }
+
+        List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+        Path baseDir = manifest.toAbsolutePath().getParent();
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).strip();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            char separator = line.indexOf(';') >= 0 ? ';' : ',';
+            List<String> cells = splitCsv(line, separator);
+            if (i == 0 && cells.get(0).equalsIgnoreCase("file")) continue; // intestazione
+
+            int lineNumber = i + 1;
+            try {
+                items.add(parseRow(lineNumber, cells, baseDir, byFiscalCode));
+            } catch (IllegalArgumentException e) {
+                Item invalid = new Item(lineNumber, List.of(), null, null, null, null, "", line);
+                invalid.status = Status.FAILED;
+                invalid.message = e.getMessage();
+                items.add(invalid);
+            }
+        }
+        return items;
+    }
+
+    private static Item parseRow(int lineNumber, List<String> cells, Path baseDir, Map<String, Person> byFiscalCode) {
+        if (cells.size() < 5) throw new IllegalArgumentException("Colonne attese: file;codice_fiscale;tipo;data;descrizione");
+
+        List<Path> files = new ArrayList<>();
+        for (String f : cells.get(0).split("\\|")) {
+            if (f.isBlank()) continue;
+            Path path = baseDir.resolve(f.strip());
+            if (!Files.isRegularFile(path)) throw new IllegalArgumentException("File non trovato: " + f.strip());
+            files.add(path);
+        }
+        if (files.isEmpty()) throw new IllegalArgumentException("Nessun file indicato");
+
+        Person person = byFiscalCode.get(cells.get(1).strip().toUpperCase(Locale.ROOT));
+        if (person == null) throw new IllegalArgumentException("Persona sconosciuta: " + cells.get(1).strip());
+
+        ExpenseType type = parseEnum(ExpenseType.class, cells.get(2));
+        LocalDate date;
+        try {
+            date = LocalDate.parse(cells.get(3).strip(), DATE_FORMAT);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Data non valida (gg/mm/aaaa): " + cells.get(3).strip());
+        }
+        DocumentType documentType = cells.size() > 5 && !cells.get(5).isBlank()
+                ? parseEnum(DocumentType.class, cells.get(5)) : DocumentType.FATTURA;
+
+        return new Item(lineNumber, List.copyOf(files), person, type, documentType,
+                String.valueOf(date.getYear()), date.format(DATE_FORMAT), cells.get(4).strip());
+    }
+
+    // --- ESECUZIONE ---
+
+    /** True mentre un import è in corso (fino al termine degli upload già partiti). */
+    public static boolean isRunning() {
+        return RUNNING.get();
+    }
+
+    /**
+     * Annulla le spese non ancora partite. {@link #run} ritorna solo dopo che quelle in volo sono
+     * finite e scritte nel journal.
+     */
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    /**
+     * Esegue l'import delle righe ancora {@link Status#PENDING}.
+     * @throws IllegalStateException se un altro import è già in corso
+     */
+    public Summary run(List<Item> items, Listener listener) throws Exception {
+        if (!RUNNING.compareAndSet(false, true)) throw new IllegalStateException("Un import è già in corso");
+        try {
+            return doRun(items, listener);
+        } finally {
+            RUNNING.set(false);
+        }
+    }
+
+    private Summary doRun(List<Item> items, Listener listener) throws Exception {
+        serviceManager.ensureReady();
+        Set<String> journal = loadJournal();
+        Map<String, Item> seen = new ConcurrentHashMap<>();
+        Set<String> years = ConcurrentHashMap.newKeySet();
+
+        List<Item> pending = items.stream().filter(i -> i.status == Status.PENDING).toList();
+        YearCache yearCache = new YearCache(serviceManager.getMetadata());
+        Set<String> onServer = serverKeys(pending, yearCache);
+        long totalBytes = 0;
+        for (Item i : pending) totalBytes += i.size();
+        AtomicLong doneBytes = new AtomicLong();
+        long total = totalBytes;
+
+        ExecutorService hashers = Executors.newFixedThreadPool(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+        ExecutorService uploaders = Executors.newFixedThreadPool(UPLOAD_PARALLELISM);
+        BufferedWriter journalOut = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        try {
+            List<CompletableFuture<Void>> pipeline = new ArrayList<>();
+            for (Item item : pending) {
+                // 1. Hash (parallelo) -> 2. Duplicati -> 3. Upload (al massimo UPLOAD_PARALLELISM insieme)
+                pipeline.add(CompletableFuture
+                        .runAsync(() -> hash(item, listener), hashers)
+                        .thenApply(v -> isNew(item, journal, onServer, seen, listener, doneBytes, total))
+                        .thenAcceptAsync(isNew -> {
+                            if (!isNew) return;
+                            if (cancelled.get()) {
+                                update(item, Status.PENDING, "Annullata", listener);
+                                return;
+                            }
+                            upload(item, journalOut, yearCache, years, listener, doneBytes, total);
+                        }, uploaders)
+                        .exceptionally(e -> {
+                            fail(item, e.getCause() != null ? e.getCause() : e, listener);
+                            return null;
+                        }));
+            }
+            CompletableFuture.allOf(pipeline.toArray(CompletableFuture[]::new)).get();
+        } catch (InterruptedException e) {
+            cancelled.set(true);
+            throw e;
+        } finally {
+            // Niente interrupt agli upload in corso: finiscono e scrivono il journal prima della chiusura
+            hashers.shutdownNow();
+            uploaders.shutdown();
+            uploaders.awaitTermination(10, TimeUnit.MINUTES);
+            journalOut.close();
+        }
+
+        reindex(years);
+
+        int imported = 0, skipped = 0, failed = 0;
+        for (Item i : items) {
+            switch (i.status) {
+                case IMPORTED -> imported++;
+                case DUPLICATE, ALREADY_IMPORTED -> skipped++;
+                case FAILED -> failed++;
+                default -> { }
+            }
+        }
+        Metrics.getInstance().add("import.items", imported);
+        return new Summary(imported, skipped, failed, new TreeSet<>(years), cancelled.get());
+    }
+
+    private void hash(Item item, Listener listener) {
+        update(item, Status.HASHING, "", listener);
+        try {
+            // Chiave della spesa = hash degli hash dei file, nell'ordine indicato
+            MessageDigest combined = sha256();
+            for (Path f : item.files) combined.update(sha256(f));
+            item.key = HexFormat.of().formatHex(combined.digest());
+        } catch (IOException e) {
+            throw new IllegalStateException("Lettura fallita: " + e.getMessage(), e);
+        }
+    }
+
+    private boolean isNew(Item item, Set<String> journal, Set<String> onServer, Map<String, Item> seen,
+                          Listener listener, AtomicLong doneBytes, long totalBytes) {
+        String reason = null;
+        if (journal.contains(item.key)) {
+            reason = "Già importata in precedenza";
+            update(item, Status.ALREADY_IMPORTED, reason, listener);
+        } else if (onServer.contains(fieldsKey(item.person != null ? item.person.getId() : null, item.type, item.rawDate, item.description))) {
+            reason = "Già presente sul server";
+            update(item, Status.ALREADY_IMPORTED, reason, listener);
+        } else {
+            Item first = seen.putIfAbsent(item.key, item);
+            if (first != null) {
+                reason = "Stessi file di " + describe(first);
+                update(item, Status.DUPLICATE, reason, listener);
+            }
+        }
+        if (reason == null) return true;
+
+        Metrics.getInstance().increment("import.duplicates");
+        listener.progress(doneBytes.addAndGet(item.size()), totalBytes);
+        return false;
+    }
+
+    /** Persona, tipo, data e descrizione delle spese già sul server negli anni delle righe da importare. */
+    private static Set<String> serverKeys(List<Item> pending, YearCache yearCache) throws Exception {
+        Set<String> years = new TreeSet<>();
+        for (Item i : pending) years.add(i.year);
+        Set<String> keys = new HashSet<>();
+        for (String year : years) {
+            for (Expense e : yearCache.get(year)) {
+                keys.add(fieldsKey(e.getPerson() != null ? e.getPerson().getId() : null, e.getExpenseType(),
+                        e.getRawDate(), e.getDescription()));
+            }
+        }
+        return keys;
+    }
+
+    private static String fieldsKey(Object personId, ExpenseType type, String rawDate, String description) {
+        return personId + "\u0000" + type + "\u0000" + rawDate + "\u0000" + description;
+    }
+
+    private void upload(Item item, BufferedWriter journalOut, YearCache yearCache, Set<String> years,
+                        Listener listener, AtomicLong doneBytes, long totalBytes) {
+        update(item, Status.UPLOADING, "", listener);
+        List<AttachmentUploader.LocalAttachment> attachments = new ArrayList<>();
+        for (Path f : item.files) {
+            attachments.add(new AttachmentUploader.LocalAttachment(f.toFile(), item.documentType, f.getFileName().toString()));
+        }
+        Expense expense = new Expense(item.year, item.person, item.type, item.description, item.rawDate);
+
+        long[] reported = new long[1];
+        Metrics.Sample sample = Metrics.getInstance().start("import.item");
+        try {
+            // Chiave dell'operazione = hash dei file: un upload ripetuto dopo un errore ritrova la riga già inserita
+            new AttachmentUploader(serviceManager).upload(expense, null, attachments, item.key, yearCache,
+                    (index, fileRead, fileSize, totalRead, totalSize) -> {
+                        listener.progress(doneBytes.addAndGet(totalRead - reported[0]), totalBytes);
+                        reported[0] = totalRead;
+                    });
+            sample.stop();
+        } catch (Exception e) {
+            sample.discard();
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+
+        // Subito nel journal (anche se l'import viene interrotto adesso): un nuovo avvio non la ripete
+        appendJournal(journalOut, item);
+        serviceManager.getSaveJournal().forget(item.key);
+        years.add(item.year);
+        update(item, Status.IMPORTED, "", listener);
+    }
+
+    private void fail(Item item, Throwable error, Listener listener) {
+        if (item.status == Status.IMPORTED) return;
+        String message = error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName();
+        update(item, Status.FAILED, message, listener);
+        System.err.println("Import fallito per " + describe(item) + ": " + message);
+    }
+
+    private static void update(Item item, Status status, String message, Listener listener) {
+        item.status = status;
+        item.message = message;
+        listener.itemChanged(item);
+    }
+
+    /** Aggiorna gli indici locali per gli anni toccati (errore non bloccante). */
+    private void reindex(Set<String> years) {
+        if (years.isEmpty()) return;
+        try {
+            for (String year : years) serviceManager.indexYear(year, serviceManager.getMetadata().findByYear(year));
+        } catch (Exception e) {
+            System.err.println("Warning: indicizzazione dopo import fallita: " + e.getMessage());
+        }
+    }
+
+    // --- JOURNAL ---
+
+    private Set<String> loadJournal() throws IOException {
+        Set<String> keys = new HashSet<>();
+        Files.createDirectories(journalFile.getParent());
+        if (!Files.exists(journalFile)) return keys;
+        // key \t anno \t istante \t primo file
+        for (String line : Files.readAllLines(journalFile, StandardCharsets.UTF_8)) {
+            int tab = line.indexOf('\t');
+            if (tab > 0) keys.add(line.substring(0, tab));
+        }
+        return keys;
+    }
+
+    private static void appendJournal(BufferedWriter out, Item item) {
+        synchronized (out) {
+            try {
+                out.write(item.key + "\t" + item.year + "\t" + Instant.now() + "\t" + item.files.get(0).getFileName());
+                out.newLine();
+                out.flush();
+            } catch (IOException e) {
+                // La spesa è salvata: perdere la riga di journal significa solo rischiare un duplicato al resume
+                System.err.println("Warning: journal import non aggiornato: " + e.getMessage());
+            }
+        }
+    }
+
+    // --- UTILITY ---
+
+    private static boolean isSupported(Path file) {
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private static String describe(Item item) {
+        if (item.files.isEmpty()) return "riga " + item.line;
+        String name = item.files.get(0).getFileName().toString();
+        return item.line > 0 ? "riga " + item.line + " (" + name + ")" : name;
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String value) {
+        String normalized = value.strip().toUpperCase(Locale.ROOT).replace(' ', '_');
+        try {
+            return Enum.valueOf(type, normalized);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Valore non valido per " + type.getSimpleName() + ": " + value.strip());
+        }
+    }
+
+    /** Split di una riga CSV con supporto minimo alle virgolette ({@code ""} = virgoletta letterale). */
+    static List<String> splitCsv(String line, char separator) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    cell.append('"');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == separator && !quoted) {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        cells.add(cell.toString());
+        return cells;
+    }
+
+    private static byte[] sha256(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buf = new byte[HASH_BUFFER];
+            int n;
+            while ((n = in.read(buf)) > 0) digest.update(buf, 0, n);
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.simonepugliese.taxreportgui.util;
+
+import com.simonepugliese.taxreportgui.gui.ConfigService;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Manutenzione periodica della cache allegati, su un thread a bassa priorità.
+ * <p>
+ * Applica sia l'età massima sia il budget in MB lavorando sull'indice della {@link DocumentCache}
+ * (nessuna scansione della cartella); i documenti fissati o aperti di recente restano sempre.
+ * Le miniature non più usate da oltre l'età massima vengono tolte anche loro.
+ * L'esito di ogni giro arriva ai listener registrati (su thread di background).
+ */
+public class CacheMaintenanceService {
+
+    /** Esito di un giro di manutenzione. */
+    public record Report(long finishedAt, int removedFiles, long reclaimedBytes, long cacheBytes, long maxBytes) {}
+
+    private static final long INITIAL_DELAY_MINUTES = 2;
+    private static final long PERIOD_MINUTES = 6 * 60;
+
+    private static CacheMaintenanceService instance;
+
+    private final CopyOnWriteArrayList<Consumer<Report>> listeners = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService scheduler;
+    private volatile Report lastReport;
+
+    private CacheMaintenanceService() {}
+
+    public static synchronized CacheMaintenanceService getInstance() {
+        if (instance == null) instance = new CacheMaintenanceService();
+        return instance;
+    }
+
+    /** Avvia il giro periodico; il primo parte a qualche minuto dall'avvio, ad app già usabile. */
+    public synchronized void start() {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cache-maintenance");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::runQuietly, INITIAL_DELAY_MINUTES, PERIOD_MINUTES, TimeUnit.MINUTES);
+    }
+
+    public synchronized void stop() {
+        if (scheduler == null) return;
+        scheduler.shutdownNow();
+        scheduler = null;
+    }
+
+    /** Registrarlo di nuovo non lo duplica. */
+    public void addListener(Consumer<Report> listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Consumer<Report> listener) {
+        listeners.remove(listener);
+    }
+
+    /** Ultimo esito, {@code null} se non è ancora girata in questa sessione. */
+    public Report getLastReport() {
+        return lastReport;
+    }
+
+    /** Esegue subito un giro sul thread chiamante (non dal thread JavaFX). */
+    public Report runNow() throws IOException {
+        ServiceManager sm = ServiceManager.getInstance();
+        DocumentCache cache = sm.getDocumentCache();
+        ConfigService cfg = ConfigService.getInstance();
+
+        // 1. Limiti letti a ogni giro: le modifiche dalle Impostazioni valgono subito
+        cache.open();
+        cache.setMaxBytes(cfg.getCacheMaxBytes());
+        long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(cfg.getCacheMaxAgeDays());
+
+        // 2. Documenti: età e budget dall'indice
+        DocumentCache.Reclaimed documents = cache.maintain(cutoff);
+
+        // 3. Miniature: una sola cartella piatta, la data di modifica è l'ultimo uso
+        DocumentCache.Reclaimed thumbnails = pruneThumbnails(sm.getThumbnailPath(), cutoff);
+
+        // 4. Cartelle delle versioni precedenti in java.io.tmpdir, ormai inutilizzate
+        DocumentCache.Reclaimed legacy = removeLegacyDirs();
+
+        int files = documents.files() + thumbnails.files() + legacy.files();
+        long bytes = documents.bytes() + thumbnails.bytes() + legacy.bytes();
+        Report report = new Report(System.currentTimeMillis(), files, bytes, cache.getTotalBytes(), cache.getMaxBytes());
+        lastReport = report;
+
+        Metrics.getInstance().add("cache.maintenance.reclaimed", bytes);
+        if (files > 0) {
+            System.out.println("Manutenzione cache: " + files + " file rimossi, " + (bytes / 1024) + " KB liberati");
+        }
+        listeners.forEach(l -> l.accept(report));
+        return report;
+    }
+
+    private void runQuietly() {
+        try {
+            Metrics.getInstance().time("cache.maintenance", this::runNow);
+        } catch (Exception e) {
+            // Un giro fallito non deve fermare i successivi
+            System.err.println("Warning: Manutenzione cache fallita: " + e.getMessage());
+        }
+    }
+
+    private static DocumentCache.Reclaimed removeLegacyDirs() {
+        Path tmp = Paths.get(System.getProperty("java.io.tmpdir"));
+        int files = 0;
+        long bytes = 0;
+        for (Path dir : List.of(tmp.resolve("TaxReportCache").resolve(".partial"), tmp.resolve("TaxReportCache"),
+                tmp.resolve("TaxReportThumbnails"))) {
+            if (!Files.isDirectory(dir)) continue;
+            // Cartelle piatte (la .partial è la sola sottocartella e si svuota per prima)
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, Files::isRegularFile)) {
+                for (Path f : stream) {
+                    long size = Files.size(f);
+                    if (Files.deleteIfExists(f)) {
+                        files++;
+                        bytes += size;
+                    }
+                }
+                Files.deleteIfExists(dir);
+            } catch (IOException e) {
+                System.err.println("Warning: vecchia cache " + dir + " non rimossa: " + e.getMessage());
+            }
+        }
+        return new DocumentCache.Reclaimed(files, bytes);
+    }
+
+    private static DocumentCache.Reclaimed pruneThumbnails(Path dir, long cutoffMillis) throws IOException {
+        if (!Files.isDirectory(dir)) return new DocumentCache.Reclaimed(0, 0);
+        int files = 0;
+        long bytes = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.png")) {
+            for (Path png : stream) {
+                try {
+                    if (Files.getLastModifiedTime(png).toMillis() >= cutoffMillis) continue;
+                    long size = Files.size(png);
+                    if (Files.deleteIfExists(png)) {
+                        files++;
+                        bytes += size;
+                    }
+                } catch (IOException e) {
+                    // File in uso o già rimosso: si riprova al prossimo giro
+                }
+            }
+        }
+        return new DocumentCache.Reclaimed(files, bytes);
+    }
+}
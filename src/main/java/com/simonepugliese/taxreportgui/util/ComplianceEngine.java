@@ -0,0 +1,156 @@
+package com.simonepugliese.taxreportgui.util;
+
+import pugliesesimone.taxreport.model.Document;
+import pugliesesimone.taxreport.model.DocumentType;
+import pugliesesimone.taxreport.model.Expense;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Verifica di conformità locale, senza passare dal backend.
+ * <p>
+ * Le spese vengono valutate in parallelo (fork/join) contro le {@link ComplianceRules} dell'anno.
+ * Per un anno senza regole locali non c'è verifica locale: chi chiama usa la verifica del backend
+ * ({@link ServiceManager#runComplianceCheck}) e gli stati salvati in DB.
+ * Il motore ricorda l'impronta dei documenti di ogni spesa: alla verifica successiva vengono
+ * ricontrollate solo le spese i cui documenti (o le regole) sono cambiati.
+ */
+public class ComplianceEngine {
+
+    /** Esito per singola spesa. */
+    public record Result(Object expenseId, boolean compliant, EnumSet<DocumentType> missing) {}
+
+    private static final int SEQUENTIAL_THRESHOLD = 256;
+
+    private static ComplianceEngine instance;
+
+    private final List<Path> userRulesDirs;
+    private final Map<String, ComplianceRules> rulesByYear = new HashMap<>();
+    // id spesa -> impronta (regole + documenti) e ultimo esito
+    private final Map<Object, Long> lastFingerprint = new HashMap<>();
+    private final Map<Object, Result> lastResult = new HashMap<>();
+
+    /** @param userRulesDirs cartelle con i file di regole dell'utente, in ordine di priorità */
+    public ComplianceEngine(List<Path> userRulesDirs) {
+        this.userRulesDirs = List.copyOf(userRulesDirs);
+    }
+
+    public static synchronized ComplianceEngine getInstance() {
+        if (instance == null) {
+            instance = new ComplianceEngine(List.of(ServiceManager.getInstance().getDataPath().resolve("config")));
+        }
+        return instance;
+    }
+
+    /**
+     * Regole compilate per l'anno (caricate alla prima richiesta).
+     * @return null se nessun file di regole copre l'anno
+     */
+    public synchronized ComplianceRules rulesFor(String year) throws IOException {
+        if (!rulesByYear.containsKey(year)) rulesByYear.put(year, ComplianceRules.load(year, userRulesDirs));
+        return rulesByYear.get(year);
+    }
+
+    /** Dimentica regole ed esiti (es. dopo aver modificato un file di regole). */
+    public synchronized void invalidate() {
+        rulesByYear.clear();
+        lastFingerprint.clear();
+        lastResult.clear();
+    }
+
+    /** Ultimo esito noto per la spesa, o null se mai verificata. */
+    public synchronized Result lastResult(Object expenseId) {
+        return lastResult.get(expenseId);
+    }
+
+    /**
+     * Verifica le spese dell'anno e ritorna solo gli esiti ricalcolati
+     * (spese nuove o con documenti cambiati dall'ultima verifica).
+     * @throws IllegalStateException se l'anno non ha regole locali (vedi {@link #rulesFor})
+     */
+    public List<Result> check(String year, List<Expense> expenses) throws IOException {
+        ComplianceRules rules = rulesFor(year);
+        if (rules == null) throw new IllegalStateException("Nessuna regola di conformità locale per l'anno " + year);
+
+        List<Expense> dirty = new ArrayList<>();
+        List<Long> fingerprints = new ArrayList<>();
+        synchronized (this) {
+            for (Expense e : expenses) {
+                long fp = fingerprint(rules, e);
+                Long previous = lastFingerprint.get(e.getId());
+                if (previous == null || previous != fp) {
+                    dirty.add(e);
+                    fingerprints.add(fp);
+                }
+            }
+        }
+        if (dirty.isEmpty()) return List.of();
+
+        List<Result> results = ForkJoinPool.commonPool().invoke(new CheckTask(rules, dirty, 0, dirty.size()));
+
+        synchronized (this) {
+            for (int i = 0; i < dirty.size(); i++) {
+                Object id = dirty.get(i).getId();
+                lastFingerprint.put(id, fingerprints.get(i));
+                lastResult.put(id, results.get(i));
+            }
+        }
+        return results;
+    }
+
+    static Result evaluate(ComplianceRules rules, Expense e) {
+        EnumSet<DocumentType> missing = EnumSet.copyOf(rules.requiredFor(e.getExpenseType()));
+        if (e.getDocuments() != null) {
+            for (Document d : e.getDocuments()) missing.remove(d.getDocumentType());
+        }
+        return new Result(e.getId(), missing.isEmpty(), missing);
+    }
+
+    private static long fingerprint(ComplianceRules rules, Expense e) {
+        long h = Objects.hash(rules.getVersion(), e.getExpenseType());
+        if (e.getDocuments() != null) {
+            for (Document d : e.getDocuments()) h = 31 * h + Objects.hash(d.getRelativePath(), d.getDocumentType());
+        }
+        return h;
+    }
+
+    /** Divide l'elenco a metà finché i blocchi non sono abbastanza piccoli da valutare in sequenza. */
+    private static final class CheckTask extends RecursiveTask<List<Result>> {
+        private final ComplianceRules rules;
+        private final List<Expense> expenses;
+        private final int from;
+        private final int to;
+
+        CheckTask(ComplianceRules rules, List<Expense> expenses, int from, int to) {
+            this.rules = rules;
+            this.expenses = expenses;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Result> compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                List<Result> out = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) out.add(evaluate(rules, expenses.get(i)));
+                return out;
+            }
+            int mid = (from + to) >>> 1;
+            CheckTask left = new CheckTask(rules, expenses, from, mid);
+            left.fork();
+            List<Result> right = new CheckTask(rules, expenses, mid, to).compute();
+            List<Result> out = left.join();
+            out.addAll(right);
+            return out;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.simonepugliese.taxreportgui.util;
+
+import pugliesesimone.taxreport.model.DocumentType;
+import pugliesesimone.taxreport.model.ExpenseType;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Regole di conformità di un anno fiscale: per ogni {@link ExpenseType} i {@link DocumentType} richiesti.
+ * <p>
+ * Le regole sono file {@code rules_<anno>.json}: quelli inclusi nell'applicazione (risorse del modulo,
+ * elencati in {@code rules/index.txt}) e quelli dell'utente in {@code ~/.taxreport/config}, che a parità
+ * di anno hanno la precedenza. Per un anno senza file proprio vale l'ultimo file precedente; per un anno
+ * anteriore al primo file non ci sono regole e {@link #load} ritorna null.
+ * Il JSON viene compilato una volta sola in una {@link EnumMap} di {@link EnumSet},
+ * così la verifica di una spesa è un confronto tra bitset.
+ */
+public final class ComplianceRules {
+
+    private static final Pattern FILE_PATTERN = Pattern.compile("rules_(\\d{4})\\.json");
+    private static final String BUNDLED_DIR = "/com/simonepugliese/taxreportgui/rules/";
+    private static final String BUNDLED_INDEX = "index.txt";
+
+    private final String version;
+    private final Map<ExpenseType, EnumSet<DocumentType>> required;
+
+    private ComplianceRules(String version, Map<ExpenseType, EnumSet<DocumentType>> required) {
+        this.version = version;
+        this.required = required;
+    }
+
+    /** Anno del file da cui arrivano le regole. */
+    public String getVersion() {
+        return version;
+    }
+
+    /** Documenti richiesti per il tipo di spesa (vuoto se il tipo non ha regole). */
+    public EnumSet<DocumentType> requiredFor(ExpenseType type) {
+        EnumSet<DocumentType> docs = required.get(type);
+        return docs != null ? docs : EnumSet.noneOf(DocumentType.class);
+    }
+
+    /**
+     * Carica le regole valide per {@code year}: file dell'utente (cartelle in ordine di priorità)
+     * e file inclusi nell'applicazione.
+     * @return null se nessun file copre l'anno (anno non numerico o precedente al primo file di regole)
+     */
+    public static ComplianceRules load(String year, List<Path> userDirs) throws IOException {
+        Integer wanted = parseYear(year);
+        if (wanted == null) return null;
+
+        // 1. File dell'utente: a parità di anno vince la prima cartella in lista
+        Path userFile = null;
+        int bestYear = Integer.MIN_VALUE;
+        for (Path dir : userDirs) {
+            if (!Files.isDirectory(dir)) continue;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "rules_*.json")) {
+                for (Path f : files) {
+                    int fileYear = fileYear(f.getFileName().toString());
+                    if (fileYear <= wanted && fileYear > bestYear) {
+                        userFile = f;
+                        bestYear = fileYear;
+                    }
+                }
+            }
+        }
+
+        // 2. File inclusi: valgono solo se più recenti di quello dell'utente
+        String bundledName = null;
+        for (String name : bundledFiles()) {
+            int fileYear = fileYear(name);
+            if (fileYear <= wanted && fileYear > bestYear) {
+                bundledName = name;
+                userFile = null;
+                bestYear = fileYear;
+            }
+        }
+
+        String json;
+        if (userFile != null) json = Files.readString(userFile, StandardCharsets.UTF_8);
+        else if (bundledName != null) json = readBundled(bundledName);
+        else return null;
+        return new ComplianceRules(String.valueOf(bestYear), compile(parse(json)));
+    }
+
+    /** Anno del nome file, o {@link Integer#MAX_VALUE} se il nome non è {@code rules_<anno>.json}. */
+    private static int fileYear(String fileName) {
+        Matcher m = FILE_PATTERN.matcher(fileName);
+        return m.matches() ? Integer.parseInt(m.group(1)) : Integer.MAX_VALUE;
+    }
+
+    private static Integer parseYear(String year) {
+        try {
+            return Integer.parseInt(year.trim());
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static List<String> bundledFiles() throws IOException {
+        List<String> names = new ArrayList<>();
+        for (String line : readBundled(BUNDLED_INDEX).split("\\R")) {
+            line = line.strip();
+            if (!line.isEmpty() && !line.startsWith("#")) names.add(line);
+        }
+        return names;
+    }
+
+    private static String readBundled(String name) throws IOException {
+        try (InputStream in = ComplianceRules.class.getResourceAsStream(BUNDLED_DIR + name)) {
+            // Risorsa mancante = pacchetto dell'applicazione incompleto, non "nessuna regola"
+            if (in == null) throw new FileNotFoundException("Regole di conformità mancanti nell'applicazione: " + name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Map<ExpenseType, EnumSet<DocumentType>> compile(Map<String, List<String>> raw) {
+        Map<ExpenseType, EnumSet<DocumentType>> compiled = new EnumMap<>(ExpenseType.class);
+        for (Map.Entry<String, List<String>> e : raw.entrySet()) {
+            ExpenseType type;
+            try {
+                type = ExpenseType.valueOf(e.getKey());
+            } catch (IllegalArgumentException ex) {
+                System.err.println("Warning: tipo spesa sconosciuto nelle regole: " + e.getKey());
+                continue;
+            }
+            EnumSet<DocumentType> docs = EnumSet.noneOf(DocumentType.class);
+            for (String name : e.getValue()) {
+                try {
+                    docs.add(DocumentType.valueOf(name));
+                } catch (IllegalArgumentException ex) {
+                    System.err.println("Warning: tipo documento sconosciuto nelle regole: " + name);
+                }
+            }
+            compiled.put(type, docs);
+        }
+        return compiled;
+    }
+
+    // --- Parser minimale per {"CHIAVE": ["A", "B"], ...} ---
+
+    static Map<String, List<String>> parse(String json) {
+        Parser p = new Parser(json);
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        p.expect('{');
+        if (!p.peekIs('}')) {
+            do {
+                String key = p.string();
+                p.expect(':');
+                result.put(key, p.stringArray());
+            } while (p.consumeIf(','));
+        }
+        p.expect('}');
+        return result;
+    }
+
+    private static final class Parser {
+        private final String s;
+        private int pos;
+
+        Parser(String s) {
+            this.s = s;
+        }
+
+        void skipWs() {
+            while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) pos++;
+        }
+
+        boolean peekIs(char c) {
+            skipWs();
+            return pos < s.length() && s.charAt(pos) == c;
+        }
+
+        boolean consumeIf(char c) {
+            if (!peekIs(c)) return false;
+            pos++;
+            return true;
+        }
+
+        void expect(char c) {
+            if (!consumeIf(c)) throw new IllegalArgumentException("Regole JSON non valide: atteso '" + c + "' alla posizione " + pos);
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (pos < s.length()) {
+                char c = s.charAt(pos++);
+                if (c == '"') return sb.toString();
+                if (c == '\\' && pos < s.length()) c = s.charAt(pos++);
+                sb.append(c);
+            }
+            throw new IllegalArgumentException("Regole JSON non valide: stringa non chiusa");
+        }
+
+        List<String> stringArray() {
+            List<String> values = new ArrayList<>();
+            expect('[');
+            if (!peekIs(']')) {
+                do {
+                    values.add(string());
+                } while (consumeIf(','));
+            }
+            expect(']');
+            return values;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.simonepugliese.taxreportgui.util;
+
+import com.simonepugliese.taxreportgui.gui.ConfigService;
+import pugliesesimone.taxreport.metadata.MariaDbMetadata;
+import pugliesesimone.taxreport.metadata.MetadataInterface;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Accesso al DB condiviso, un {@link MetadataInterface} per configurazione.
+ * <p>
+ * Tutti i controller e il percorso report ottengono da qui la stessa istanza di {@link MariaDbMetadata},
+ * costruita con host e porta: il backend apre e gestisce da sé le proprie connessioni (non accetta un
+ * pool dall'esterno). Da qui parte solo la connessione di prova di {@link #ping}.
+ */
+public final class DatabaseConnections {
+
+    private static final Map<String, MetadataInterface> metadataByConfig = new HashMap<>();
+    // Lock e non synchronized: il costruttore del backend si collega al DB e si chiama da virtual thread
+    private static final ReentrantLock lock = new ReentrantLock();
+
+    private DatabaseConnections() {}
+
+    /** Metadata condiviso per la configurazione corrente (creato alla prima richiesta). */
+    public static MetadataInterface metadata(ConfigService cfg) throws Exception {
+        lock.lock();
+        try {
+            String key = configKey(cfg);
+            MetadataInterface metadata = metadataByConfig.get(key);
+            if (metadata == null) {
+                metadata = new MariaDbMetadata(
+                        cfg.get(ConfigService.HOST),
+                        cfg.get(ConfigService.DB_PORT),
+                        cfg.get(ConfigService.DB_NAME),
+                        cfg.get(ConfigService.DB_USER),
+                        cfg.get(ConfigService.DB_PASS)
+                );
+                metadataByConfig.put(key, metadata);
+            }
+            return metadata;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Verifica veloce della raggiungibilità del DB con una connessione di prova. */
+    public static boolean ping(ConfigService cfg) {
+        try (Connection c = DriverManager.getConnection(jdbcUrl(cfg) + "?connectTimeout="
+                + cfg.get(ConfigService.DB_CONN_TIMEOUT_MS), cfg.get(ConfigService.DB_USER), cfg.get(ConfigService.DB_PASS))) {
+            return c.isValid(2);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /** Dimentica le istanze di configurazioni non più attive (es. dopo un cambio impostazioni). */
+    public static void retainOnly(ConfigService cfg) {
+        lock.lock();
+        try {
+            String keep = configKey(cfg);
+            metadataByConfig.keySet().removeIf(k -> !k.equals(keep));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public static void shutdown() {
+        lock.lock();
+        try {
+            metadataByConfig.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // --- INTERNALS ---
+
+    private static String jdbcUrl(ConfigService cfg) {
+        return "jdbc:mariadb://" + cfg.get(ConfigService.HOST) + ":"
+                + cfg.get(ConfigService.DB_PORT) + "/"
+                + cfg.get(ConfigService.DB_NAME);
+    }
+
+    private static String configKey(ConfigService cfg) {
+        return jdbcUrl(cfg) + "|" + cfg.get(ConfigService.DB_USER) + "|"
+                + cfg.get(ConfigService.DB_PASS).hashCode();
+    }
+}
@@ -0,0 +1,491 @@
+package com.simonepugliese.taxreportgui.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache locale degli allegati scaricati dallo share SMB.
+ * <p>
+ * La chiave deriva dal path relativo completo (due file omonimi in cartelle diverse non collidono),
+ * ogni voce registra dimensione e SHA-256 del contenuto. Su un hit, se il file locale risulta modificato
+ * dopo l'ultima verifica, lo SHA-256 viene ricalcolato: una copia sostituita non passa. Un file cambiato
+ * sullo share allo stesso path non si vede senza rileggerlo: lo scarta {@link #verify} (comando
+ * {@code verify} della modalità batch). I download passano da un file temporaneo rinominato
+ * atomicamente, quindi un file a metà non viene mai scambiato per un hit.
+ * Un indice su disco (ordinato LRU) evita di scansionare la cartella all'avvio e permette
+ * di rispettare un budget massimo in byte.
+ * I documenti fissati ("offline") e quelli aperti di recente non vengono mai rimossi, né per età
+ * né per spazio: fissaggi e aperture sono salvati in un secondo file accanto all'indice.
+ */
+public class DocumentCache {
+
+    private static final String INDEX_FILE = "cache.index";
+    private static final String INDEX_HEADER = "TAXREPORT-CACHE v2";
+    private static final String PARTIAL_DIR = ".partial";
+    private static final String PINS_FILE = "cache.pins";
+    private static final String PINS_HEADER = "TAXREPORT-PINS v1";
+    // Un documento aperto dall'utente resta protetto per questo tempo
+    private static final long RECENT_OPEN_MILLIS = 3L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Voce dell'indice: una per ogni documento presente in cache.
+     * {@code modified} è la data di modifica del file quando il suo SHA-256 è stato verificato (-1 = mai).
+     */
+    public record Entry(String key, String relativePath, String fileName, long size, String sha256, long lastAccess,
+                        long modified) {
+        Entry touch(long now, long modified) {
+            return new Entry(key, relativePath, fileName, size, sha256, now, modified);
+        }
+    }
+
+    /** Esito di {@link #verify(String)}. */
+    public enum Integrity { NOT_CACHED, VALID, CORRUPT }
+
+    /** Esito di una pulizia: file rimossi e byte liberati. */
+    public record Reclaimed(int files, long bytes) {}
+
+    /** Sorgente remota del contenuto, aperta solo in caso di miss. */
+    @FunctionalInterface
+    public interface Source {
+        InputStream open() throws Exception;
+    }
+
+    private final Path root;
+    private final Path partialDir;
+    private final Path indexPath;
+    private final Path pinsPath;
+
+    // accessOrder = true -> il primo elemento è sempre il meno usato di recente (LRU)
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    // Un lock per chiave: due richieste sullo stesso documento non scaricano due volte.
+    // ReentrantLock e non synchronized: il download SMB dura a lungo e gira su virtual thread.
+    // La voce sparisce quando non la usa più nessuno, la mappa non cresce con i documenti aperti
+    private final Map<String, KeyLock> keyLocks = new ConcurrentHashMap<>();
+
+    private static final class KeyLock {
+        final ReentrantLock lock = new ReentrantLock();
+        int users; // modificato solo dentro compute() della mappa
+    }
+
+    // Chiavi fissate dall'utente e ultime aperture (chiave -> istante)
+    private final Set<String> pinned = new HashSet<>();
+    private final Map<String, Long> opened = new HashMap<>();
+    private boolean pinsDirty;
+
+    private long totalBytes;
+    private long maxBytes;
+    private boolean loaded;
+    private boolean dirty;
+
+    public DocumentCache(Path root, long maxBytes) {
+        this.root = root;
+        this.partialDir = root.resolve(PARTIAL_DIR);
+        this.indexPath = root.resolve(INDEX_FILE);
+        this.pinsPath = root.resolve(PINS_FILE);
+        this.maxBytes = maxBytes;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Prepara la cartella e carica l'indice. Idempotente.
+     * Se l'indice manca o è di un altro formato (primo avvio o cache di una versione precedente) la cartella
+     * viene ripulita una volta sola: i file non sono nel budget e non si saprebbe verificarli.
+     */
+    public synchronized void open() throws IOException {
+        if (loaded) return;
+        Files.createDirectories(partialDir);
+
+        // Download interrotti da una sessione precedente
+        try (DirectoryStream<Path> partials = Files.newDirectoryStream(partialDir)) {
+            for (Path p : partials) Files.deleteIfExists(p);
+        }
+
+        if (Files.exists(pinsPath)) readPins();
+        if (!Files.exists(indexPath) || !readIndex()) {
+            // I fissaggi sono già in memoria: il loro file resta
+            try (DirectoryStream<Path> legacy = Files.newDirectoryStream(root, Files::isRegularFile)) {
+                for (Path p : legacy) {
+                    if (!p.equals(pinsPath)) Files.deleteIfExists(p);
+                }
+            }
+        }
+        loaded = true;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evictOverBudget(null);
+        persistIfDirty();
+    }
+
+    public synchronized long getMaxBytes() { return maxBytes; }
+
+    public synchronized long getTotalBytes() { return totalBytes; }
+
+    public synchronized int size() { return entries.size(); }
+
+    /**
+     * Ritorna il file locale per il documento, scaricandolo da {@code source} solo se non è già in cache.
+     */
+    public File get(String relativePath, Source source) throws Exception {
+        open();
+        String key = keyFor(relativePath);
+        KeyLock keyLock = keyLocks.compute(key, (k, l) -> {
+            if (l == null) l = new KeyLock();
+            l.users++;
+            return l;
+        });
+        keyLock.lock.lock();
+        try {
+            File hit = lookup(key);
+            if (hit != null) {
+                Metrics.getInstance().increment("cache.hit");
+                return hit;
+            }
+            Metrics.getInstance().increment("cache.miss");
+            return fetch(key, relativePath, source);
+        } finally {
+            keyLock.lock.unlock();
+            keyLocks.computeIfPresent(key, (k, l) -> --l.users == 0 ? null : l);
+        }
+    }
+
+    /** True se il documento è in cache (senza scaricarlo né aggiornare l'ordine LRU). */
+    public synchronized boolean contains(String relativePath) {
+        return entries.containsKey(keyFor(relativePath));
+    }
+
+    /** SHA-256 del documento se è in cache, altrimenti null. */
+    public synchronized String sha256Of(String relativePath) {
+        Entry e = entries.get(keyFor(relativePath));
+        return e != null ? e.sha256() : null;
+    }
+
+    /**
+     * Rilegge il file in cache e ne ricalcola lo SHA-256. Una voce sparita, troncata o con hash diverso
+     * dall'indice viene rimossa: al prossimo accesso il documento si riscarica.
+     */
+    public Integrity verify(String relativePath) throws IOException {
+        open();
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(keyFor(relativePath));
+        }
+        if (entry == null) return Integrity.NOT_CACHED;
+
+        Path file = root.resolve(entry.fileName());
+        boolean valid = Files.isRegularFile(file) && Files.size(file) == entry.size()
+                && entry.sha256().equals(hashFile(file));
+        if (valid) return Integrity.VALID;
+        remove(relativePath);
+        return Integrity.CORRUPT;
+    }
+
+    /** Toglie il documento dalla cache (anche se fissato). True se c'era. */
+    public synchronized boolean remove(String relativePath) {
+        Entry entry = entries.remove(keyFor(relativePath));
+        if (entry == null) return false;
+        deleteEntryFile(entry);
+        persistIfDirty();
+        return true;
+    }
+
+    /** Copia delle voci in ordine LRU (dalla meno recente). */
+    public synchronized List<Entry> snapshot() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /** Fissa (o libera) un documento: i fissati restano in cache anche oltre età e budget. */
+    public synchronized void setPinned(String relativePath, boolean pin) {
+        String key = keyFor(relativePath);
+        if (pin ? pinned.add(key) : pinned.remove(key)) pinsDirty = true;
+        persistIfDirty();
+    }
+
+    public synchronized boolean isPinned(String relativePath) {
+        return pinned.contains(keyFor(relativePath));
+    }
+
+    /** L'utente ha aperto il documento: protetto dalla pulizia per qualche giorno. */
+    public synchronized void markOpened(String relativePath) {
+        opened.put(keyFor(relativePath), System.currentTimeMillis());
+        pinsDirty = true;
+        persistIfDirty();
+    }
+
+    /**
+     * Manutenzione: rimuove le voci non usate da prima di {@code cutoffMillis}, poi le meno recenti
+     * finché il totale non rientra nel budget. Fissati e aperti di recente restano sempre.
+     * Lavora solo sull'indice, senza scansionare la cartella.
+     */
+    public synchronized Reclaimed maintain(long cutoffMillis) {
+        long now = System.currentTimeMillis();
+        opened.values().removeIf(at -> at < now - RECENT_OPEN_MILLIS);
+
+        int files = 0;
+        long bytes = 0;
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (e.lastAccess() < cutoffMillis && !isProtected(e.key(), now)) {
+                it.remove();
+                bytes += deleteEntryFile(e);
+                files++;
+            }
+        }
+        Reclaimed overBudget = evictOverBudget(null);
+        persistIfDirty();
+        return new Reclaimed(files + overBudget.files(), bytes + overBudget.bytes());
+    }
+
+    /** Salva l'indice se ci sono modifiche pendenti (es. solo aggiornamenti LRU). */
+    public synchronized void flush() {
+        persistIfDirty();
+    }
+
+    // --- INTERNALS ---
+
+    private File lookup(String key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key); // aggiorna anche l'ordine LRU
+            if (entry == null) return null;
+        }
+
+        Path file = root.resolve(entry.fileName());
+        boolean valid;
+        long modified = entry.modified();
+        try {
+            valid = Files.isRegularFile(file) && Files.size(file) == entry.size();
+            if (valid) {
+                // File toccato dopo l'ultima verifica (o mai verificato): si ricontrolla il contenuto.
+                // Altrimenti basta la data, niente rilettura di scansioni da 50 MB a ogni apertura
+                long current = Files.getLastModifiedTime(file).toMillis();
+                if (current != modified) {
+                    valid = entry.sha256().equals(hashFile(file));
+                    modified = current;
+                }
+            }
+        } catch (IOException e) {
+            valid = false;
+        }
+
+        synchronized (this) {
+            if (!valid) {
+                // Cancellato, troncato o sostituito da fuori: lo trattiamo come un miss
+                if (entries.remove(key) != null) deleteEntryFile(entry);
+                return null;
+            }
+            entries.put(key, entry.touch(System.currentTimeMillis(), modified));
+            dirty = true;
+        }
+        return file.toFile();
+    }
+
+    private File fetch(String key, String relativePath, Source source) throws Exception {
+        String fileName = key + "_" + sanitize(new File(relativePath).getName());
+        Path target = root.resolve(fileName);
+        Path partial = Files.createTempFile(partialDir, key, ".part");
+
+        try {
+            MessageDigest digest = sha256();
+            long size;
+            try (InputStream is = new DigestInputStream(source.open(), digest);
+                 OutputStream os = Files.newOutputStream(partial)) {
+                size = is.transferTo(os);
+            }
+
+            moveAtomically(partial, target);
+
+            Entry entry = new Entry(key, relativePath, fileName, size,
+                    HexFormat.of().formatHex(digest.digest()), System.currentTimeMillis(),
+                    Files.getLastModifiedTime(target).toMillis());
+            synchronized (this) {
+                Entry previous = entries.put(key, entry);
+                if (previous != null) totalBytes -= previous.size();
+                totalBytes += size;
+                dirty = true;
+                evictOverBudget(key);
+                persistIfDirty();
+            }
+            return target.toFile();
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    /**
+     * Elimina le voci meno recenti finché il totale non rientra nel budget, saltando le protette
+     * (se restano solo quelle, il budget può essere superato). Chiamare col lock.
+     */
+    private Reclaimed evictOverBudget(String keep) {
+        long now = System.currentTimeMillis();
+        int files = 0;
+        long bytes = 0;
+        Iterator<Entry> it = entries.values().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Entry e = it.next();
+            if (e.key().equals(keep) || isProtected(e.key(), now)) continue;
+            it.remove();
+            bytes += deleteEntryFile(e);
+            files++;
+        }
+        return new Reclaimed(files, bytes);
+    }
+
+    private boolean isProtected(String key, long now) {
+        if (pinned.contains(key)) return true;
+        Long at = opened.get(key);
+        return at != null && at >= now - RECENT_OPEN_MILLIS;
+    }
+
+    /** Rimuove il file di una voce già tolta dalla mappa. Chiamare col lock. */
+    private long deleteEntryFile(Entry e) {
+        totalBytes -= e.size();
+        dirty = true;
+        try {
+            Files.deleteIfExists(root.resolve(e.fileName()));
+        } catch (IOException ex) {
+            System.err.println("Warning: impossibile rimuovere " + e.fileName() + ": " + ex.getMessage());
+        }
+        return e.size();
+    }
+
+    /** False se l'indice è di un altro formato (nessuna voce letta). */
+    private boolean readIndex() throws IOException {
+        List<String> lines = Files.readAllLines(indexPath, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !INDEX_HEADER.equals(lines.get(0))) return false;
+
+        for (String line : lines.subList(1, lines.size())) {
+            // key \t size \t sha256 \t lastAccess \t modified \t fileName \t relativePath
+            String[] f = line.split("\t", 7);
+            if (f.length < 7) continue;
+            try {
+                Entry e = new Entry(f[0], f[6], f[5], Long.parseLong(f[1]), f[2], Long.parseLong(f[3]), Long.parseLong(f[4]));
+                entries.put(e.key(), e);
+                totalBytes += e.size();
+            } catch (NumberFormatException ignored) {}
+        }
+        return true;
+    }
+
+    private void readPins() throws IOException {
+        List<String> lines = Files.readAllLines(pinsPath, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !PINS_HEADER.equals(lines.get(0))) return;
+
+        for (String line : lines.subList(1, lines.size())) {
+            // P \t key  oppure  O \t key \t istante apertura
+            String[] f = line.split("\t");
+            if (f.length >= 2 && f[0].equals("P")) pinned.add(f[1]);
+            if (f.length >= 3 && f[0].equals("O")) {
+                try {
+                    opened.put(f[1], Long.parseLong(f[2]));
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+    }
+
+    private void persistIfDirty() {
+        if (pinsDirty) persistPins();
+        if (!dirty) return;
+        try {
+            Path tmp = Files.createTempFile(partialDir, "index", ".part");
+            try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                w.write(INDEX_HEADER);
+                w.newLine();
+                for (Entry e : entries.values()) {
+                    w.write(e.key() + "\t" + e.size() + "\t" + e.sha256() + "\t" + e.lastAccess()
+                            + "\t" + e.modified() + "\t" + e.fileName() + "\t" + e.relativePath());
+                    w.newLine();
+                }
+            }
+            moveAtomically(tmp, indexPath);
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("Warning: salvataggio indice cache fallito: " + e.getMessage());
+        }
+    }
+
+    private void persistPins() {
+        try {
+            Files.createDirectories(partialDir);
+            Path tmp = Files.createTempFile(partialDir, "pins", ".part");
+            try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                w.write(PINS_HEADER);
+                w.newLine();
+                for (String key : pinned) {
+                    w.write("P\t" + key);
+                    w.newLine();
+                }
+                for (Map.Entry<String, Long> e : opened.entrySet()) {
+                    w.write("O\t" + e.getKey() + "\t" + e.getValue());
+                    w.newLine();
+                }
+            }
+            moveAtomically(tmp, pinsPath);
+            pinsDirty = false;
+        } catch (IOException e) {
+            System.err.println("Warning: salvataggio documenti fissati fallito: " + e.getMessage());
+        }
+    }
+
+    private static void moveAtomically(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    static String keyFor(String relativePath) {
+        String normalized = relativePath.replace('\\', '/');
+        byte[] hash = sha256().digest(normalized.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(hash, 0, 12);
+    }
+
+    private static String hashFile(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream is = new DigestInputStream(Files.newInputStream(file), digest)) {
+            is.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.simonepugliese.taxreportgui.util;
+
+import pugliesesimone.taxreport.model.Expense;
+import pugliesesimone.taxreport.model.ExpenseType;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Filtri della Dashboard (persone, categorie, risultati della ricerca) sopra un {@link FilterIndex}.
+ * <p>
+ * {@link #apply} calcola il bitset delle righe visibili, {@link #test} è il predicato della FilteredList:
+ * per le righe indicizzate è un lookup nel bitset, quelle arrivate dopo l'ultima ricostruzione
+ * si verificano direttamente. {@link #apply} restituisce anche le righe che hanno cambiato visibilità
+ * (XOR col bitset precedente), per chi aggiorna dei totali. Da usare sul thread JavaFX.
+ */
+public class ExpenseFilter implements Predicate<Expense> {
+
+    private static final String DIM_PERSON = "person";
+    private static final String DIM_TYPE = "type";
+    private static final String DIM_ID = "id";
+
+    private final Function<Expense, Object> personKey;
+    private final Map<String, Function<Expense, Object>> dimensions;
+
+    private FilterIndex index = FilterIndex.empty();
+    private boolean stale;
+    private BitSet visibleRows = new BitSet();
+
+    private Set<Object> personKeys = Set.of();
+    private Set<ExpenseType> types = Set.of();
+    private Set<String> searchIds; // null = nessuna ricerca attiva
+
+    /** Persone identificate dall'id del DB, come nei filtri della Dashboard. */
+    public ExpenseFilter() {
+        this(ExpenseFilter::personId);
+    }
+
+    /** @param personKey chiave della persona di una spesa (la selezione usa le stesse chiavi) */
+    public ExpenseFilter(Function<Expense, Object> personKey) {
+        this.personKey = personKey;
+        this.dimensions = Map.of(
+                DIM_PERSON, personKey,
+                DIM_TYPE, Expense::getExpenseType,
+                DIM_ID, expense -> String.valueOf(expense.getId()));
+    }
+
+    /** Le righe sono cambiate: l'indice si ricostruisce alla prossima {@link #apply}, una volta sola. */
+    public void markStale() {
+        stale = true;
+    }
+
+    /**
+     * Nuova selezione (insiemi vuoti = nessun filtro su quella dimensione) e ricalcolo delle righe visibili.
+     * @param rows righe correnti, indicizzate di nuovo solo se segnate con {@link #markStale()}
+     * @param searchIds id delle spese trovate dalla ricerca, o null se non c'è una ricerca attiva
+     * @return righe che hanno cambiato visibilità, o null se l'indice è stato ricostruito (posizioni nuove:
+     *         il confronto con la selezione precedente non ha senso)
+     */
+    public List<Expense> apply(List<Expense> rows, Set<Object> personKeys, Set<ExpenseType> types, Set<String> searchIds) {
+        boolean rebuilt = stale;
+        if (stale) {
+            stale = false;
+            index = FilterIndex.build(rows, dimensions);
+        }
+        this.personKeys = personKeys;
+        this.types = types;
+        this.searchIds = searchIds;
+
+        // AND tra le dimensioni attive, OR dentro ciascuna
+        BitSet bits = index.all();
+        if (!personKeys.isEmpty()) bits.and(index.match(DIM_PERSON, personKeys));
+        if (!types.isEmpty()) bits.and(index.match(DIM_TYPE, types));
+        if (searchIds != null) bits.and(index.match(DIM_ID, searchIds));
+
+        BitSet flipped = (BitSet) bits.clone();
+        flipped.xor(visibleRows);
+        visibleRows = bits;
+        if (rebuilt) return null;
+
+        List<Expense> changed = new ArrayList<>(flipped.cardinality());
+        for (int i = flipped.nextSetBit(0); i >= 0; i = flipped.nextSetBit(i + 1)) changed.add(index.rowAt(i));
+        return changed;
+    }
+
+    @Override
+    public boolean test(Expense expense) {
+        int pos = index.positionOf(expense);
+        if (pos >= 0) return visibleRows.get(pos);
+
+        // Riga arrivata dopo la costruzione dell'indice (delta o pagina non ancora indicizzati): verifica diretta
+        boolean personMatch = personKeys.isEmpty() || personKeys.contains(personKey.apply(expense));
+        boolean typeMatch = types.isEmpty() || types.contains(expense.getExpenseType());
+        boolean searchMatch = searchIds == null || searchIds.contains(String.valueOf(expense.getId()));
+        return personMatch && typeMatch && searchMatch;
+    }
+
+    private static Object personId(Expense expense) {
+        return expense.getPerson() != null ? expense.getPerson().getId() : null;
+    }
+}
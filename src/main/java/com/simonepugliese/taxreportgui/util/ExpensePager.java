@@ -0,0 +1,123 @@
+package com.simonepugliese.taxreportgui.util;
+
+import pugliesesimone.taxreport.model.Expense;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Paginazione delle spese su più anni, per la modalità "Tutti gli anni" della Dashboard.
+ * <p>
+ * Una pagina è un anno (il backend espone solo {@code findByYear}): le pagine si caricano man mano che
+ * la tabella scorre e in memoria ne resta al massimo una finestra di {@code maxPages} anni consecutivi.
+ * Il pager tiene solo anni e dimensioni delle pagine; le righe stanno nella lista della tabella.
+ * L'ordine (data decrescente, poi id) è fissato qui, al posto dell'ordinamento lato tabella.
+ */
+public class ExpensePager {
+
+    /** Carica le spese di un anno (chiamato fuori dal thread JavaFX). */
+    @FunctionalInterface
+    public interface PageLoader {
+        List<Expense> load(String year) throws Exception;
+    }
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    private final List<String> years;
+    private final PageLoader loader;
+    private final int maxPages;
+
+    // Finestra caricata: anni [start, end) e numero di righe di ciascuna pagina
+    private int start;
+    private int end;
+    private final Deque<Integer> pageSizes = new ArrayDeque<>();
+
+    public ExpensePager(List<String> years, PageLoader loader, int maxPages) {
+        this.years = new ArrayList<>(years);
+        this.years.sort(Comparator.reverseOrder());
+        this.loader = loader;
+        this.maxPages = Math.max(2, maxPages);
+    }
+
+    public boolean hasNext() {
+        return end < years.size();
+    }
+
+    public boolean hasPrevious() {
+        return start > 0;
+    }
+
+    /** Anni attualmente in memoria, dal più recente. */
+    public List<String> getLoadedYears() {
+        return List.copyOf(years.subList(start, end));
+    }
+
+    /** Anno della prossima pagina (più vecchia), o null. */
+    public String nextYear() {
+        return hasNext() ? years.get(end) : null;
+    }
+
+    /** Anno della pagina precedente (più recente), o null. */
+    public String previousYear() {
+        return hasPrevious() ? years.get(start - 1) : null;
+    }
+
+    /**
+     * Carica e ordina la pagina di un anno. Non modifica la finestra: da chiamare in background,
+     * poi confermare con {@link #commitNext} o {@link #commitPrevious} sul thread JavaFX.
+     */
+    public List<Expense> fetch(String year) throws Exception {
+        List<Expense> page = new ArrayList<>(loader.load(year));
+        sort(page);
+        return page;
+    }
+
+    /**
+     * Accoda la pagina in fondo alla finestra.
+     * @return righe da togliere in cima (pagina più recente uscita dalla finestra), 0 se nessuna
+     */
+    public int commitNext(List<Expense> page) {
+        pageSizes.addLast(page.size());
+        end++;
+        if (pageSizes.size() <= maxPages) return 0;
+        start++;
+        return pageSizes.removeFirst();
+    }
+
+    /**
+     * Inserisce la pagina in cima alla finestra.
+     * @return righe da togliere in fondo (pagina più vecchia uscita dalla finestra), 0 se nessuna
+     */
+    public int commitPrevious(List<Expense> page) {
+        pageSizes.addFirst(page.size());
+        start--;
+        if (pageSizes.size() <= maxPages) return 0;
+        end--;
+        return pageSizes.removeLast();
+    }
+
+    /** Ordine della modalità multi-anno: data decrescente (date non leggibili in fondo), poi id crescente (senza id in fondo). */
+    static void sort(List<Expense> page) {
+        // Le date si leggono una volta sola, non a ogni confronto
+        Map<Expense, LocalDate> dates = new IdentityHashMap<>(page.size() * 2);
+        for (Expense e : page) dates.put(e, parseDate(e.getRawDate()));
+        page.sort(Comparator.<Expense, LocalDate>comparing(dates::get, Comparator.nullsLast(Comparator.reverseOrder()))
+                .thenComparing(Expense::getId, Comparator.nullsLast(Comparator.naturalOrder())));
+    }
+
+    private static LocalDate parseDate(String raw) {
+        if (raw == null || raw.isBlank()) return null;
+        try {
+            return LocalDate.parse(raw.trim(), DATE_FORMAT);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.simonepugliese.taxreportgui.util;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import pugliesesimone.taxreport.model.Expense;
+import pugliesesimone.taxreport.model.ExpenseType;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Statistiche della Dashboard sulle righe visibili, mantenute in modo incrementale.
+ * <p>
+ * Ascolta la lista di tutte le righe caricate: un delta dei dati aggiorna i totali con le sole righe
+ * aggiunte/rimosse. Un cambio di filtro non passa dalla lista (la FilteredList lo notifica come
+ * sostituzione completa): {@link #visibilityChanged} riceve solo le righe che hanno cambiato visibilità,
+ * calcolate da {@link ExpenseFilter#apply} con lo XOR dei bitset, e costa O(righe cambiate).
+ * Per ogni riga ricorda in quale "secchio" è stata contata, così la rimozione resta corretta anche se
+ * nel frattempo è cambiato il criterio di completamento. Le spese senza tipo non compaiono in
+ * {@link #getPerType()} ma in {@link #getUntyped()}.
+ */
+public class ExpenseStats {
+
+    private final ObservableList<Expense> source;
+    private final Predicate<Expense> visible;
+    private final Predicate<Expense> completedTest;
+
+    // riga visibile -> contata come completata?
+    private final Map<Expense, Boolean> counted = new IdentityHashMap<>();
+    private final Map<ExpenseType, Integer> perType = new EnumMap<>(ExpenseType.class);
+    private final Map<Object, Integer> perPerson = new HashMap<>();
+    private int untyped;
+    private int total;
+    private int completed;
+
+    private Runnable onChange = () -> {};
+
+    /**
+     * @param source tutte le righe caricate (non filtrate)
+     * @param visible filtro corrente (lo stesso predicato della FilteredList)
+     */
+    public ExpenseStats(ObservableList<Expense> source, Predicate<Expense> visible, Predicate<Expense> completedTest) {
+        this.source = source;
+        this.visible = visible;
+        this.completedTest = completedTest;
+        source.addListener((ListChangeListener<Expense>) this::onListChanged);
+        rebuild();
+    }
+
+    /** Callback invocata dopo ogni aggiornamento dei totali. */
+    public void setOnChange(Runnable onChange) {
+        this.onChange = onChange != null ? onChange : () -> {};
+    }
+
+    public int getTotal() { return total; }
+
+    public int getCompleted() { return completed; }
+
+    public int getPartial() { return total - completed; }
+
+    public Map<ExpenseType, Integer> getPerType() { return Collections.unmodifiableMap(perType); }
+
+    /** Righe visibili senza tipo spesa. */
+    public int getUntyped() { return untyped; }
+
+    /** Conteggi per id persona. */
+    public Map<Object, Integer> getPerPerson() { return Collections.unmodifiableMap(perPerson); }
+
+    /**
+     * Il filtro è cambiato solo per le righe indicate; null = righe sconosciute (indice del filtro
+     * ricostruito), si ricalcola tutto.
+     */
+    public void visibilityChanged(Collection<Expense> rows) {
+        if (rows == null) {
+            rebuild();
+            return;
+        }
+        for (Expense e : rows) {
+            boolean show = visible.test(e);
+            if (show && !counted.containsKey(e)) add(e);
+            else if (!show) remove(e);
+        }
+        onChange.run();
+    }
+
+    /**
+     * Ricalcolo completo: quando cambia il criterio di completamento (es. esiti di una verifica di
+     * conformità) o dopo una ricostruzione dell'indice dei filtri.
+     */
+    public void rebuild() {
+        counted.clear();
+        perType.clear();
+        perPerson.clear();
+        untyped = 0;
+        total = 0;
+        completed = 0;
+        for (Expense e : source) {
+            if (visible.test(e)) add(e);
+        }
+        onChange.run();
+    }
+
+    private void onListChanged(ListChangeListener.Change<? extends Expense> c) {
+        while (c.next()) {
+            if (c.wasPermutated()) continue; // stesso insieme, totali invariati
+            for (Expense e : c.getRemoved()) remove(e);
+            for (Expense e : c.getAddedSubList()) {
+                if (visible.test(e)) add(e);
+            }
+        }
+        onChange.run();
+    }
+
+    private void add(Expense e) {
+        boolean done = completedTest.test(e);
+        counted.put(e, done);
+        total++;
+        if (done) completed++;
+        if (e.getExpenseType() != null) perType.merge(e.getExpenseType(), 1, Integer::sum);
+        else untyped++;
+        perPerson.merge(personKey(e), 1, Integer::sum);
+    }
+
+    private void remove(Expense e) {
+        Boolean done = counted.remove(e);
+        if (done == null) return;
+        total--;
+        if (done) completed--;
+        if (e.getExpenseType() != null) decrement(perType, e.getExpenseType());
+        else untyped--;
+        decrement(perPerson, personKey(e));
+    }
+
+    private static <K> void decrement(Map<K, Integer> map, K key) {
+        map.computeIfPresent(key, (k, v) -> v > 1 ? v - 1 : null);
+    }
+
+    private static Object personKey(Expense e) {
+        return e.getPerson() != null ? e.getPerson().getId() : null;
+    }
+}
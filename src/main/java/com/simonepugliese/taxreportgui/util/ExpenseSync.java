@@ -0,0 +1,119 @@
+package com.simonepugliese.taxreportgui.util;
+
+import pugliesesimone.taxreport.model.Document;
+import pugliesesimone.taxreport.model.Expense;
+import pugliesesimone.taxreport.model.ExpenseState;
+import pugliesesimone.taxreport.model.ExpenseType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Sincronizzazione incrementale delle spese di un anno.
+ * <p>
+ * Il backend non espone timestamp di modifica, quindi la "high-water mark" per anno è
+ * l'impronta di ogni spesa (id -> campi e documenti) vista all'ultimo caricamento. L'impronta conserva
+ * i valori stessi, non un hash: una collisione farebbe sparire una modifica dalla tabella.
+ * Confrontando un nuovo elenco con quello precedente si ottiene un {@link Delta} che si applica
+ * alla lista osservabile con add/set/remove mirati, senza {@code setAll}.
+ */
+public class ExpenseSync {
+
+    /** Differenze rispetto all'ultimo stato noto per l'anno. */
+    public record Delta(List<Expense> added, List<Expense> changed, Set<Object> removedIds) {
+        public boolean isEmpty() {
+            return added.isEmpty() && changed.isEmpty() && removedIds.isEmpty();
+        }
+
+        /**
+         * Applica le differenze a {@code target} mantenendo la posizione delle righe invariate.
+         */
+        public void applyTo(List<Expense> target) {
+            if (!removedIds.isEmpty()) {
+                target.removeIf(e -> removedIds.contains(e.getId()));
+            }
+            if (!changed.isEmpty()) {
+                Map<Object, Integer> positions = new HashMap<>();
+                for (int i = 0; i < target.size(); i++) positions.put(target.get(i).getId(), i);
+                for (Expense e : changed) {
+                    Integer pos = positions.get(e.getId());
+                    if (pos != null) target.set(pos, e); else target.add(e);
+                }
+            }
+            if (!added.isEmpty()) {
+                target.addAll(added);
+            }
+        }
+    }
+
+    /** Campi confrontati per riconoscere una spesa modificata. */
+    record Fingerprint(Long id, String year, ExpenseType type, String description, String rawDate,
+                       ExpenseState state, UUID personId, List<List<Object>> documents) {}
+
+    private String year;
+    private Map<Object, Fingerprint> fingerprints = new HashMap<>();
+
+    /** Anno a cui si riferisce lo stato corrente, o null se mai sincronizzato. */
+    public synchronized String getYear() {
+        return year;
+    }
+
+    /** Dimentica lo stato: il prossimo {@link #diff} sarà un caricamento completo. */
+    public synchronized void reset() {
+        year = null;
+        fingerprints = new HashMap<>();
+    }
+
+    /**
+     * True se {@code year} è l'anno già sincronizzato (quindi ha senso applicare un delta).
+     */
+    public synchronized boolean isIncremental(String year) {
+        return year != null && year.equals(this.year);
+    }
+
+    /**
+     * Confronta l'elenco aggiornato con lo stato noto e aggiorna la high-water mark.
+     * Se l'anno è diverso da quello sincronizzato, tutte le spese risultano "added".
+     */
+    public synchronized Delta diff(String year, List<Expense> fresh) {
+        Map<Object, Fingerprint> previous = isIncremental(year) ? fingerprints : Map.of();
+        Map<Object, Fingerprint> next = new HashMap<>(fresh.size() * 2);
+
+        List<Expense> added = new ArrayList<>();
+        List<Expense> changed = new ArrayList<>();
+        for (Expense e : fresh) {
+            Fingerprint fp = fingerprint(e);
+            next.put(e.getId(), fp);
+            Fingerprint old = previous.get(e.getId());
+            if (old == null) added.add(e);
+            else if (!old.equals(fp)) changed.add(e);
+        }
+
+        Set<Object> removed = new HashSet<>();
+        for (Object id : previous.keySet()) {
+            if (!next.containsKey(id)) removed.add(id);
+        }
+
+        this.year = year;
+        this.fingerprints = next;
+        return new Delta(added, changed, removed);
+    }
+
+    static Fingerprint fingerprint(Expense e) {
+        List<List<Object>> documents = new ArrayList<>();
+        if (e.getDocuments() != null) {
+            for (Document d : e.getDocuments()) {
+                documents.add(Arrays.asList(d.getRelativePath(), d.getDocumentType()));
+            }
+        }
+        return new Fingerprint(e.getId(), e.getYear(), e.getExpenseType(), e.getDescription(),
+                e.getRawDate(), e.getExpenseState(),
+                e.getPerson() != null ? e.getPerson().getId() : null, documents);
+    }
+}
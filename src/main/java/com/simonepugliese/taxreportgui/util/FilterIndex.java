@@ -0,0 +1,105 @@
+package com.simonepugliese.taxreportgui.util;
+
+import pugliesesimone.taxreport.model.Expense;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Indice per i filtri della Dashboard, costruito una volta per caricamento.
+ * <p>
+ * Per ogni dimensione (persona, categoria, ...) mappa ogni valore a un {@link BitSet} delle posizioni
+ * delle righe. Filtrare diventa un OR dei valori selezionati e un AND tra dimensioni, senza toccare
+ * le spese né allocare stringhe per riga. Nuovi filtri (date, stato, testo) si aggiungono come
+ * dimensioni o come bitset prodotti da {@link #bitsOf}.
+ */
+public class FilterIndex {
+
+    private final List<Expense> rows;
+    private final Map<Expense, Integer> positions;
+    private final Map<String, Map<Object, BitSet>> dimensions;
+
+    private FilterIndex(List<Expense> rows, Map<Expense, Integer> positions, Map<String, Map<Object, BitSet>> dimensions) {
+        this.rows = rows;
+        this.positions = positions;
+        this.dimensions = dimensions;
+    }
+
+    /** Indice vuoto (nessuna riga). */
+    public static FilterIndex empty() {
+        return new FilterIndex(List.of(), new IdentityHashMap<>(), Map.of());
+    }
+
+    /**
+     * Costruisce l'indice sulle righe indicate.
+     * @param dimensions nome dimensione -> estrattore della chiave (la chiave può essere null)
+     */
+    public static FilterIndex build(List<Expense> source, Map<String, Function<Expense, Object>> dimensions) {
+        List<Expense> rows = new ArrayList<>(source);
+        Map<Expense, Integer> positions = new IdentityHashMap<>(rows.size() * 2);
+        Map<String, Map<Object, BitSet>> dims = new LinkedHashMap<>();
+        dimensions.keySet().forEach(name -> dims.put(name, new HashMap<>()));
+
+        for (int i = 0; i < rows.size(); i++) {
+            Expense e = rows.get(i);
+            positions.put(e, i);
+            for (Map.Entry<String, Function<Expense, Object>> d : dimensions.entrySet()) {
+                Object key = d.getValue().apply(e);
+                dims.get(d.getKey()).computeIfAbsent(key, k -> new BitSet()).set(i);
+            }
+        }
+        return new FilterIndex(rows, positions, dims);
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    /** Tutte le righe (copia modificabile). */
+    public BitSet all() {
+        BitSet bits = new BitSet(rows.size());
+        bits.set(0, rows.size());
+        return bits;
+    }
+
+    /**
+     * Righe che hanno uno qualunque dei valori indicati per la dimensione (OR).
+     */
+    public BitSet match(String dimension, Collection<?> keys) {
+        Map<Object, BitSet> values = dimensions.get(dimension);
+        if (values == null) throw new IllegalArgumentException("Dimensione non indicizzata: " + dimension);
+        BitSet bits = new BitSet(rows.size());
+        for (Object key : keys) {
+            BitSet b = values.get(key);
+            if (b != null) bits.or(b);
+        }
+        return bits;
+    }
+
+    /** Bitset delle righe indicate (es. risultati di una ricerca testuale). */
+    public BitSet bitsOf(Collection<Expense> expenses) {
+        BitSet bits = new BitSet(rows.size());
+        for (Expense e : expenses) {
+            Integer pos = positions.get(e);
+            if (pos != null) bits.set(pos);
+        }
+        return bits;
+    }
+
+    /** Posizione della riga nell'indice, o -1 se la riga è arrivata dopo la costruzione. */
+    public int positionOf(Expense e) {
+        Integer pos = positions.get(e);
+        return pos != null ? pos : -1;
+    }
+
+    public Expense rowAt(int position) {
+        return rows.get(position);
+    }
+}
@@ -0,0 +1,235 @@
+package com.simonepugliese.taxreportgui.util;
+
+import com.simonepugliese.taxreportgui.gui.SecretCipher;
+import pugliesesimone.taxreport.model.Expense;
+import pugliesesimone.taxreport.model.Person;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Copia locale (sola lettura) dei metadati: persone, anni e spese con i relativi documenti.
+ * <p>
+ * Salvata nel profilo utente, permette alla Dashboard di mostrare subito l'ultimo stato noto all'avvio
+ * (o quando il Raspberry non risponde) e di riconciliarsi col DB in background. Un file indice
+ * (anni, persone, ultimo anno) e un file per anno: un caricamento riscrive solo l'anno caricato, e gli
+ * anni si leggono dal disco alla prima richiesta. I file contengono nomi, codici fiscali e descrizioni
+ * delle spese: sono cifrati con la chiave locale di {@link SecretCipher}.
+ * <p>
+ * Si salvano i modelli del backend così come sono: una copia propria del modulo richiederebbe di
+ * ricostruire i {@code Document}, che il backend non permette di creare. Se i modelli non fossero
+ * serializzabili la replica si disattiva, senza impedire il funzionamento online; il motivo resta in
+ * {@link #getDisabledReason()} (pannello Diagnostica) e nel contatore {@code replica.disabled}.
+ */
+public class LocalReplica {
+
+    private static final String DIR_NAME = "replica";
+    private static final String INDEX_FILE = "index.bin";
+    private static final String LEGACY_FILE = "replica.bin";
+    private static final int FORMAT_VERSION = 2;
+    private static final ObjectInputFilter MODEL_FILTER = ObjectInputFilter.Config.createFilter(
+            "maxdepth=20;pugliesesimone.taxreport.model.*;java.util.*;java.lang.*;java.time.*;java.math.*;!*");
+
+    private final Path dir;
+    private final Path legacyFile;
+    private final SecretCipher cipher;
+
+    private List<Person> persons = new ArrayList<>();
+    private List<String> years = new ArrayList<>();
+    private Set<String> storedYears = new HashSet<>();
+    private String lastYear;
+    private long savedAt;
+
+    // Anni già letti dal disco o appena aggiornati
+    private final Map<String, List<Expense>> expensesByYear = new HashMap<>();
+
+    private boolean loaded;
+    private String disabledReason; // null = replica attiva
+
+    /** Scrittura del contenuto di un file, dopo il numero di versione. */
+    private interface Payload {
+        void writeTo(ObjectOutputStream out) throws IOException;
+    }
+
+    public LocalReplica(Path dataDir, SecretCipher cipher) {
+        this.dir = dataDir.resolve(DIR_NAME);
+        this.legacyFile = dataDir.resolve(LEGACY_FILE);
+        this.cipher = cipher;
+    }
+
+    /** Carica l'indice dal disco una volta sola. Un file corrotto o di un'altra versione viene ignorato. */
+    @SuppressWarnings("unchecked")
+    public synchronized void load() {
+        if (loaded) return;
+        loaded = true;
+        deleteLegacy();
+        Path index = dir.resolve(INDEX_FILE);
+        if (!Files.exists(index)) return;
+
+        try (ObjectInputStream in = openEncrypted(index)) {
+            savedAt = in.readLong();
+            lastYear = (String) in.readObject();
+            years = (List<String>) in.readObject();
+            persons = (List<Person>) in.readObject();
+            storedYears = (Set<String>) in.readObject();
+        } catch (Exception e) {
+            System.err.println("Warning: replica locale non leggibile, verrà ricreata: " + e.getMessage());
+            persons = new ArrayList<>();
+            years = new ArrayList<>();
+            storedYears = new HashSet<>();
+            lastYear = null;
+        }
+    }
+
+    public synchronized boolean hasYear(String year) {
+        load();
+        return year != null && storedYears.contains(year);
+    }
+
+    /** Ultimo anno sincronizzato (quello da mostrare all'avvio), o null. */
+    public synchronized String getLastYear() {
+        load();
+        return lastYear;
+    }
+
+    public synchronized long getSavedAt() {
+        load();
+        return savedAt;
+    }
+
+    public synchronized List<String> getAvailableYears() {
+        load();
+        return new ArrayList<>(years);
+    }
+
+    public synchronized List<Expense> findByYear(String year) {
+        load();
+        return new ArrayList<>(yearExpenses(year));
+    }
+
+    public synchronized List<Person> getAllPersons() {
+        load();
+        return new ArrayList<>(persons);
+    }
+
+    /**
+     * Registra l'esito di un caricamento riuscito dal DB e lo rende persistente (indice + file dell'anno).
+     * Da chiamare fuori dal thread JavaFX (scrive su disco).
+     */
+    public synchronized void update(List<String> years, String year, List<Expense> expenses, List<Person> persons) {
+        load();
+        if (disabledReason != null) return;
+        this.years = new ArrayList<>(years);
+        this.persons = new ArrayList<>(persons);
+        this.expensesByYear.put(year, new ArrayList<>(expenses));
+        this.lastYear = year;
+        this.savedAt = System.currentTimeMillis();
+
+        // 1. Prima l'anno, poi l'indice che lo elenca: un'interruzione a metà lascia l'anno vecchio valido
+        List<Expense> yearData = expensesByYear.get(year);
+        if (!save(yearFile(year), out -> out.writeObject(yearData))) return;
+        storedYears.add(year);
+
+        // 2. Indice
+        save(dir.resolve(INDEX_FILE), out -> {
+            out.writeLong(savedAt);
+            out.writeObject(lastYear);
+            out.writeObject(this.years);
+            out.writeObject(this.persons);
+            out.writeObject(storedYears);
+        });
+    }
+
+    /** Perché la replica non salva più in questa sessione, o null se è attiva. */
+    public synchronized String getDisabledReason() {
+        return disabledReason;
+    }
+
+    // --- INTERNALS ---
+
+    @SuppressWarnings("unchecked")
+    private List<Expense> yearExpenses(String year) {
+        List<Expense> cached = expensesByYear.get(year);
+        if (cached != null || !storedYears.contains(year)) return cached != null ? cached : List.of();
+
+        try (ObjectInputStream in = openEncrypted(yearFile(year))) {
+            List<Expense> expenses = (List<Expense>) in.readObject();
+            expensesByYear.put(year, expenses);
+            return expenses;
+        } catch (Exception e) {
+            System.err.println("Warning: replica locale dell'anno " + year + " non leggibile: " + e.getMessage());
+            storedYears.remove(year);
+            return List.of();
+        }
+    }
+
+    private Path yearFile(String year) {
+        return dir.resolve("year-" + year.replaceAll("[^0-9A-Za-z_-]", "_") + ".bin");
+    }
+
+    /** True se il file è stato scritto; un modello non serializzabile disattiva la replica. */
+    private boolean save(Path target, Payload payload) {
+        try {
+            ByteArrayOutputStream plain = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(plain))) {
+                out.writeInt(FORMAT_VERSION);
+                payload.writeTo(out);
+            } catch (NotSerializableException e) {
+                disabledReason = "modello non serializzabile: " + e.getMessage();
+                Metrics.getInstance().increment("replica.disabled");
+                System.err.println("Warning: replica locale disattivata, " + disabledReason);
+                return false;
+            }
+            byte[] sealed = cipher.encrypt(plain.toByteArray());
+
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, target.getFileName().toString(), ".part");
+            try {
+                Files.write(tmp, sealed);
+                try {
+                    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            return true;
+        } catch (IOException | GeneralSecurityException e) {
+            System.err.println("Warning: salvataggio replica locale fallito: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private ObjectInputStream openEncrypted(Path source) throws IOException, GeneralSecurityException {
+        byte[] plain = cipher.decrypt(Files.readAllBytes(source));
+        ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new ByteArrayInputStream(plain)));
+        in.setObjectInputFilter(MODEL_FILTER);
+        if (in.readInt() != FORMAT_VERSION) {
+            in.close();
+            throw new InvalidObjectException("versione del formato diversa");
+        }
+        return in;
+    }
+
+    /** La replica della versione precedente era un file unico in chiaro: si cancella, la ricrea il prossimo caricamento. */
+    private void deleteLegacy() {
+        try {
+            Files.deleteIfExists(legacyFile);
+        } catch (IOException e) {
+            System.err.println("Warning: impossibile rimuovere la vecchia replica in chiaro: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.simonepugliese.taxreportgui.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metriche di sessione: tempi (istogramma a bucket fissi), contatori e operazioni in corso.
+ * <p>
+ * I nomi seguono il layer: {@code db.*} (metadati), {@code smb.*} (storage), {@code service.*}
+ * (backend), {@code task.*} (background), {@code ui.*} (caricamenti delle viste), {@code cache.*}.
+ * Così quando "oggi è lento" si vede subito se è il DB, la share o la UI.
+ * Tutto in memoria e thread-safe, azzerato a ogni avvio.
+ */
+public class Metrics {
+
+    // Limiti superiori dei bucket in millisecondi (l'ultimo bucket è "oltre")
+    private static final long[] BUCKETS_MS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000};
+
+    /** Riga del pannello di diagnostica: un timer ({@code kind = "timer"}) o un contatore. */
+    public record Row(String name, String kind, long count, double meanMs, double p50Ms, double p95Ms,
+                      double p99Ms, double maxMs, int inFlight) {}
+
+    private static Metrics instance;
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private volatile long startedAt = System.currentTimeMillis();
+
+    public static synchronized Metrics getInstance() {
+        if (instance == null) instance = new Metrics();
+        return instance;
+    }
+
+    /** Misura in corso: va chiusa con {@link #stop()}, tipicamente in un finally. */
+    public final class Sample {
+        private final Timer timer;
+        private final long start = System.nanoTime();
+        private boolean stopped;
+
+        private Sample(Timer timer) {
+            this.timer = timer;
+            timer.inFlight.incrementAndGet();
+        }
+
+        public void stop() {
+            if (stopped) return;
+            stopped = true;
+            timer.inFlight.decrementAndGet();
+            timer.record(System.nanoTime() - start);
+        }
+
+        /** Chiude senza registrare il tempo (es. task annullato perché superato da uno nuovo). */
+        public void discard() {
+            if (stopped) return;
+            stopped = true;
+            timer.inFlight.decrementAndGet();
+        }
+    }
+
+    public Sample start(String name) {
+        return new Sample(timer(name));
+    }
+
+    public <T> T time(String name, Callable<T> action) throws Exception {
+        Sample sample = start(name);
+        try {
+            return action.call();
+        } finally {
+            sample.stop();
+        }
+    }
+
+    /** Registra una durata misurata altrove (es. avvio dell'applicazione). */
+    public void record(String name, long nanos) {
+        timer(name).record(nanos);
+    }
+
+    public void increment(String name) {
+        add(name, 1);
+    }
+
+    public void add(String name, long delta) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * Avvolge un'interfaccia del backend: ogni metodo diventa un timer {@code prefix + nome metodo}.
+     * Gli {@link InputStream} restituiti contano i byte letti in {@code prefix + "bytes.read"}.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T instrument(Class<T> type, T target, String prefix) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return switch (method.getName()) {
+                    case "equals" -> proxy == args[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    default -> prefix + target;
+                };
+            }
+            Sample sample = start(prefix + method.getName());
+            try {
+                Object result = method.invoke(target, args);
+                return result instanceof InputStream in ? countBytes(in, prefix + "bytes.read") : result;
+            } catch (InvocationTargetException e) {
+                increment(prefix + method.getName() + ".errors");
+                throw e.getCause();
+            } finally {
+                sample.stop();
+            }
+        });
+    }
+
+    /** Stream che somma i byte letti nel contatore indicato. */
+    public InputStream countBytes(InputStream in, String counter) {
+        LongAdder bytes = counters.computeIfAbsent(counter, k -> new LongAdder());
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) bytes.increment();
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                int n = super.read(buf, off, len);
+                if (n > 0) bytes.add(n);
+                return n;
+            }
+        };
+    }
+
+    /** Fotografia ordinata per nome: prima i timer, poi i contatori. */
+    public List<Row> snapshot() {
+        List<Row> rows = new ArrayList<>();
+        new TreeMap<>(timers).forEach((name, t) -> rows.add(t.toRow(name)));
+        new TreeMap<>(counters).forEach((name, c) -> rows.add(new Row(name, "counter", c.sum(), 0, 0, 0, 0, 0, 0)));
+        return rows;
+    }
+
+    public void reset() {
+        timers.clear();
+        counters.clear();
+        startedAt = System.currentTimeMillis();
+    }
+
+    public String toCsv() {
+        StringBuilder sb = new StringBuilder("name,kind,count,mean_ms,p50_ms,p95_ms,p99_ms,max_ms,in_flight\n");
+        for (Row r : snapshot()) {
+            sb.append(r.name()).append(',').append(r.kind()).append(',').append(r.count()).append(',')
+                    .append(fmt(r.meanMs())).append(',').append(fmt(r.p50Ms())).append(',')
+                    .append(fmt(r.p95Ms())).append(',').append(fmt(r.p99Ms())).append(',')
+                    .append(fmt(r.maxMs())).append(',').append(r.inFlight()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("{\n  \"since\": \"").append(Instant.ofEpochMilli(startedAt))
+                .append("\",\n  \"exported\": \"").append(Instant.now()).append("\",\n  \"metrics\": [");
+        List<Row> rows = snapshot();
+        for (int i = 0; i < rows.size(); i++) {
+            Row r = rows.get(i);
+            sb.append(i == 0 ? "\n" : ",\n").append("    {\"name\": \"").append(r.name().replace("\"", "\\\""))
+                    .append("\", \"kind\": \"").append(r.kind()).append("\", \"count\": ").append(r.count());
+            if ("timer".equals(r.kind())) {
+                sb.append(", \"mean_ms\": ").append(fmt(r.meanMs()))
+                        .append(", \"p50_ms\": ").append(fmt(r.p50Ms()))
+                        .append(", \"p95_ms\": ").append(fmt(r.p95Ms()))
+                        .append(", \"p99_ms\": ").append(fmt(r.p99Ms()))
+                        .append(", \"max_ms\": ").append(fmt(r.maxMs()))
+                        .append(", \"in_flight\": ").append(r.inFlight());
+            }
+            sb.append('}');
+        }
+        return sb.append("\n  ]\n}\n").toString();
+    }
+
+    // --- INTERNALS ---
+
+    private Timer timer(String name) {
+        return timers.computeIfAbsent(name, k -> new Timer());
+    }
+
+    private static String fmt(double ms) {
+        return String.format(Locale.ROOT, "%.2f", ms);
+    }
+
+    private static final class Timer {
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS_MS.length + 1);
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        void record(long nanos) {
+            long ms = nanos / 1_000_000;
+            int i = 0;
+            while (i < BUCKETS_MS.length && ms >= BUCKETS_MS[i]) i++;
+            buckets.incrementAndGet(i);
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        Row toRow(String name) {
+            long n = count.sum();
+            double max = maxNanos.get() / 1e6;
+            double mean = n > 0 ? totalNanos.sum() / 1e6 / n : 0;
+            return new Row(name, "timer", n, mean,
+                    percentile(n, 0.50, max), percentile(n, 0.95, max), percentile(n, 0.99, max), max, inFlight.get());
+        }
+
+        /** Stima dal limite superiore del bucket che contiene il percentile (mai oltre il massimo osservato). */
+        private double percentile(long n, double q, double max) {
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(q * n);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) return i < BUCKETS_MS.length ? Math.min(BUCKETS_MS[i], max) : max;
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,515 @@
+package com.simonepugliese.taxreportgui.util;
+
+import com.simonepugliese.taxreportgui.gui.ConfigService;
+import com.simonepugliese.taxreportgui.gui.SecretCipher;
+import pugliesesimone.taxreport.model.Document;
+import pugliesesimone.taxreport.model.DocumentType;
+import pugliesesimone.taxreport.model.Expense;
+import pugliesesimone.taxreport.model.ExpenseState;
+import pugliesesimone.taxreport.model.ExpenseType;
+import pugliesesimone.taxreport.model.Person;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Coda locale delle spese da inviare al server: salvare non richiede che il Raspberry sia raggiungibile.
+ * <p>
+ * Ogni salvataggio diventa una cartella in {@code ~/.taxreport/outbox/<id>} con i metadati e una copia
+ * degli allegati, creata per intero e poi rinominata (mai voci a metà dopo un crash). Metadati e copie
+ * contengono dati personali e sono cifrati con {@link SecretCipher} come la replica locale; anche i nomi
+ * dei file restano solo dentro i metadati. Un thread in background invia le voci scadute a lotti (una
+ * connessione, una lettura per anno e una reindicizzazione per anno per lotto) con backoff esponenziale
+ * per voce. Una modifica ricorda l'anno in cui la spesa si trova sul server, per cercarla lì. L'id della voce fa da chiave di idempotenza nel {@link SaveJournal}:
+ * prima di contattare il server l'operazione viene annotata su disco, e da lì in poi ogni nuovo tentativo
+ * (anche dopo un crash) riparte da quello che il server ha già ricevuto.
+ */
+public class Outbox {
+
+    public enum State { PENDING, SYNCING, SYNCED }
+
+    /** Istantanea di una voce per la UI. */
+    public record Entry(String id, long createdAt, String year, String personName, String description, String rawDate,
+                        boolean edit, State state, int attempts, long nextAttemptAt, String lastError) {}
+
+    /** Esito di un invio immediato da {@link #trySync}. */
+    public record SyncResult(boolean synced, String error) {}
+
+    private static final String DIR_NAME = "outbox";
+    private static final String ENTRY_FILE = "entry.bin";
+    private static final String FORMAT_VERSION = "1";
+
+    private static final int BATCH_SIZE = 10;
+    private static final long POLL_SECONDS = 30;
+    private static final long BASE_BACKOFF_MILLIS = 15_000;
+    private static final long MAX_BACKOFF_MILLIS = 15 * 60_000;
+
+    private static Outbox instance;
+
+    private final Path dir;
+    private final SecretCipher cipher;
+    // Voci per id in ordine di creazione; le SYNCED restano solo in memoria finché la UI non le toglie
+    private final Map<String, Properties> entries = new LinkedHashMap<>();
+    private final Map<String, State> states = new HashMap<>();
+    private final CopyOnWriteArrayList<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService scheduler;
+    private boolean loaded;
+
+    private Outbox() {
+        this(ServiceManager.getInstance().getDataPath().resolve(DIR_NAME), ConfigService.getInstance().getCipher());
+    }
+
+    Outbox(Path dir, SecretCipher cipher) {
+        this.dir = dir;
+        this.cipher = cipher;
+    }
+
+    public static synchronized Outbox getInstance() {
+        if (instance == null) instance = new Outbox();
+        return instance;
+    }
+
+    // --- SCRITTURA LOCALE ---
+
+    /**
+     * Salva in locale la spesa con gli allegati nuovi (copiati) e, per una modifica, i documenti
+     * da mantenere. Non tocca la rete. Da chiamare fuori dal thread JavaFX.
+     * @param serverYear per una modifica, l'anno in cui la spesa si trova ora sul server
+     * @return id della voce
+     */
+    public String enqueue(Expense expense, String serverYear, List<Document> keepDocs,
+                          List<AttachmentUploader.LocalAttachment> files) throws IOException {
+        load();
+        String id = UUID.randomUUID().toString();
+        Properties p = new Properties();
+        p.setProperty("version", FORMAT_VERSION);
+        p.setProperty("id", id);
+        p.setProperty("created", String.valueOf(System.currentTimeMillis()));
+        p.setProperty("year", expense.getYear());
+        p.setProperty("person.id", String.valueOf(expense.getPerson().getId()));
+        p.setProperty("person.name", expense.getPerson().getName());
+        p.setProperty("person.cf", Objects.toString(expense.getPerson().getFiscalCode(), ""));
+        p.setProperty("type", expense.getExpenseType().name());
+        p.setProperty("description", Objects.toString(expense.getDescription(), ""));
+        p.setProperty("date", Objects.toString(expense.getRawDate(), ""));
+        if (expense.getId() != null) {
+            p.setProperty("expense.id", String.valueOf(expense.getId()));
+            p.setProperty("server.year", serverYear != null ? serverYear : expense.getYear());
+            p.setProperty("state", expense.getExpenseState().name());
+            p.setProperty("keep.docs", keepDocs.stream().map(Document::getRelativePath).collect(Collectors.joining("|")));
+        }
+        p.setProperty("attempts", "0");
+        p.setProperty("next.attempt", "0");
+
+        // 1. Tutto in una cartella temporanea...
+        Path tmp = dir.resolve(id + ".tmp");
+        Files.createDirectories(tmp);
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                AttachmentUploader.LocalAttachment a = files.get(i);
+                String copy = i + ".bin";
+                try (InputStream in = a.open()) {
+                    Files.write(tmp.resolve(copy), seal(in.readAllBytes()));
+                }
+                p.setProperty("attachment." + i + ".file", copy);
+                p.setProperty("attachment." + i + ".type", a.type().name());
+                p.setProperty("attachment." + i + ".name", a.name());
+            }
+            p.setProperty("attachments", String.valueOf(files.size()));
+            writeProperties(tmp.resolve(ENTRY_FILE), p);
+
+            // 2. ...poi un solo rename: la voce esiste intera o non esiste
+            Files.move(tmp, dir.resolve(id), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            deleteDirectory(tmp);
+            throw e;
+        }
+
+        synchronized (this) {
+            entries.put(id, p);
+            states.put(id, State.PENDING);
+        }
+        Metrics.getInstance().increment("outbox.enqueued");
+        notifyListeners();
+        return id;
+    }
+
+    // --- STATO PER LA UI ---
+
+    public synchronized List<Entry> entries() {
+        load();
+        List<Entry> out = new ArrayList<>();
+        for (Properties p : entries.values()) out.add(toEntry(p));
+        return out;
+    }
+
+    public synchronized int pendingCount() {
+        return (int) states.values().stream().filter(s -> s != State.SYNCED).count();
+    }
+
+    /** Toglie dalla lista le voci già inviate (la UI le vede ormai tra i dati del server). */
+    public synchronized void clearSynced() {
+        boolean removed = entries.keySet().removeIf(id -> states.get(id) == State.SYNCED);
+        states.values().removeIf(s -> s == State.SYNCED);
+        if (removed) notifyListeners();
+    }
+
+    /** Chiamato sul thread che ha cambiato lo stato (spesso quello in background). Registrarlo di nuovo non lo duplica. */
+    public void addListener(Runnable listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    // --- INVIO ---
+
+    /** Avvia il thread di invio; riprende anche le voci rimaste dall'ultima sessione. */
+    public synchronized void start() {
+        if (scheduler != null) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "outbox-replay");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::replayQuietly, 5, POLL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler == null) return;
+        scheduler.shutdownNow();
+        scheduler = null;
+    }
+
+    /** Invio anticipato di tutte le voci in attesa, ignorando il backoff. */
+    public void syncNow() {
+        synchronized (this) {
+            for (Properties p : entries.values()) p.setProperty("next.attempt", "0");
+            if (scheduler != null) scheduler.execute(this::replayQuietly);
+        }
+    }
+
+    /**
+     * Prova a inviare subito una voce appena salvata (es. dal modulo, con avanzamento).
+     * Se il server non risponde la voce resta in coda per il thread in background.
+     */
+    public SyncResult trySync(String id, AttachmentUploader.ProgressListener listener) {
+        Properties p;
+        synchronized (this) {
+            p = entries.get(id);
+            if (p == null || states.get(id) != State.PENDING) return new SyncResult(false, null);
+            states.put(id, State.SYNCING);
+        }
+        notifyListeners();
+        try {
+            ServiceManager sm = ServiceManager.getInstance();
+            sm.ensureReady();
+            YearCache yearCache = new YearCache(sm.getMetadata());
+            send(p, sm.getAllPersons(), yearCache, listener);
+            synced(p);
+            reindex(touchedYears(p), yearCache);
+            return new SyncResult(true, null);
+        } catch (Exception e) {
+            failed(p, e);
+            return new SyncResult(false, e.getMessage());
+        }
+    }
+
+    private void replayQuietly() {
+        try {
+            while (replayBatch()) {
+                // Altre voci scadute: lotto successivo subito
+            }
+        } catch (Exception e) {
+            System.err.println("Warning: invio coda fallito: " + e.getMessage());
+        }
+    }
+
+    /** @return true se restano altre voci scadute oltre a quelle di questo lotto */
+    private boolean replayBatch() {
+        load();
+        long now = System.currentTimeMillis();
+        List<Properties> batch = new ArrayList<>();
+        int due = 0;
+        synchronized (this) {
+            for (Map.Entry<String, Properties> e : entries.entrySet()) {
+                if (states.get(e.getKey()) != State.PENDING) continue;
+                if (Long.parseLong(e.getValue().getProperty("next.attempt", "0")) > now) continue;
+                due++;
+                if (batch.size() < BATCH_SIZE) {
+                    batch.add(e.getValue());
+                    states.put(e.getKey(), State.SYNCING);
+                }
+            }
+        }
+        if (batch.isEmpty()) return false;
+        notifyListeners();
+
+        Metrics.Sample sample = Metrics.getInstance().start("outbox.replay");
+        ServiceManager sm = ServiceManager.getInstance();
+        List<Person> persons;
+        try {
+            // 1. Una connessione e un elenco persone per tutto il lotto
+            sm.ensureReady();
+            persons = sm.getAllPersons();
+        } catch (Exception e) {
+            // Server non raggiungibile: nessuna voce è partita, si riprova col backoff
+            sample.discard();
+            for (Properties p : batch) failed(p, e);
+            return false;
+        }
+
+        // 2. Invio in ordine di creazione; ogni anno si legge una volta e si reindicizza una volta sola
+        YearCache yearCache = new YearCache(sm.getMetadata());
+        Set<String> years = new HashSet<>();
+        for (Properties p : batch) {
+            try {
+                send(p, persons, yearCache, null);
+                synced(p);
+                years.addAll(touchedYears(p));
+            } catch (Exception e) {
+                failed(p, e);
+            }
+        }
+        sample.stop();
+        reindex(years, yearCache);
+        return due > batch.size();
+    }
+
+    /** Invia una voce al server. */
+    private void send(Properties p, List<Person> persons, YearCache yearCache,
+                     AttachmentUploader.ProgressListener listener) throws Exception {
+        Expense expense = toExpense(p, persons, yearCache);
+        new AttachmentUploader(ServiceManager.getInstance())
+                .upload(expense, p.getProperty("server.year"), attachments(p), p.getProperty("id"), yearCache, listener);
+    }
+
+    /** Copie cifrate degli allegati di una voce, decifrate solo in memoria durante l'invio. */
+    List<AttachmentUploader.LocalAttachment> attachments(Properties p) {
+        Path entryDir = dir.resolve(p.getProperty("id"));
+        List<AttachmentUploader.LocalAttachment> files = new ArrayList<>();
+        int count = Integer.parseInt(p.getProperty("attachments", "0"));
+        for (int i = 0; i < count; i++) {
+            files.add(new AttachmentUploader.LocalAttachment(
+                    entryDir.resolve(p.getProperty("attachment." + i + ".file")).toFile(),
+                    DocumentType.valueOf(p.getProperty("attachment." + i + ".type")),
+                    p.getProperty("attachment." + i + ".name"),
+                    cipher));
+        }
+        return files;
+    }
+
+    /** Voce in coda per id (per i test e la diagnostica). */
+    synchronized Properties entry(String id) {
+        load();
+        return entries.get(id);
+    }
+
+    private Expense toExpense(Properties p, List<Person> persons, YearCache yearCache)
+            throws Exception {
+        Person person = persons.stream()
+                .filter(x -> String.valueOf(x.getId()).equals(p.getProperty("person.id"))
+                        || Objects.equals(x.getFiscalCode(), p.getProperty("person.cf")))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("Persona non trovata: " + p.getProperty("person.name")));
+        String year = p.getProperty("year");
+        ExpenseType type = ExpenseType.valueOf(p.getProperty("type"));
+
+        String expenseId = p.getProperty("expense.id");
+        if (expenseId == null) return new Expense(year, person, type, p.getProperty("description"), p.getProperty("date"));
+
+        // Modifica: i documenti da mantenere si riprendono dalla spesa attuale sul server.
+        // Se non c'è più si resta in coda con l'errore: un elenco vuoto cancellerebbe i suoi allegati
+        Set<String> keep = new HashSet<>(Arrays.asList(p.getProperty("keep.docs", "").split("\\|")));
+        List<Document> docs = new ArrayList<>();
+        Expense current = AttachmentUploader.findById(Long.valueOf(expenseId), p.getProperty("server.year", year), yearCache, false);
+        if (current == null) throw new IllegalStateException("Spesa da modificare non trovata sul server");
+        if (current.getDocuments() != null) {
+            for (Document d : current.getDocuments()) {
+                if (keep.contains(d.getRelativePath())) docs.add(d);
+            }
+        }
+        Expense expense = new Expense(Long.valueOf(expenseId), year, person, type, p.getProperty("description"),
+                p.getProperty("date"), ExpenseState.valueOf(p.getProperty("state")));
+        expense.setDocuments(docs);
+        return expense;
+    }
+
+    /** Anni cambiati da una voce: quello della spesa e, se la modifica l'ha spostata, quello di prima. */
+    private static Set<String> touchedYears(Properties p) {
+        Set<String> years = new HashSet<>();
+        years.add(p.getProperty("year"));
+        if (p.getProperty("server.year") != null) years.add(p.getProperty("server.year"));
+        return years;
+    }
+
+    /** Una lettura fresca per anno toccato, che aggiorna anche la copia del lotto. */
+    private static void reindex(Set<String> years, YearCache yearCache) {
+        ServiceManager sm = ServiceManager.getInstance();
+        for (String year : years) {
+            try {
+                sm.indexYear(year, yearCache.fresh(year));
+            } catch (Exception e) {
+                System.err.println("Warning: indicizzazione fallita per " + year + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // --- ESITI ---
+
+    private void synced(Properties p) {
+        String id = p.getProperty("id");
+        try {
+            deleteDirectory(dir.resolve(id));
+            // Solo a voce rimossa: se resta su disco, al riavvio il journal la ritrova sul server e non la reinvia
+            ServiceManager.getInstance().getSaveJournal().forget(id);
+        } catch (IOException e) {
+            System.err.println("Warning: voce inviata ma non rimossa dalla coda: " + e.getMessage());
+        }
+        synchronized (this) {
+            states.put(id, State.SYNCED);
+        }
+        Metrics.getInstance().increment("outbox.synced");
+        notifyListeners();
+    }
+
+    private void failed(Properties p, Exception e) {
+        int attempts = Integer.parseInt(p.getProperty("attempts", "0")) + 1;
+        long delay = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempts - 1, 10));
+        synchronized (this) {
+            p.setProperty("attempts", String.valueOf(attempts));
+            p.setProperty("next.attempt", String.valueOf(System.currentTimeMillis() + delay));
+            p.setProperty("last.error", Objects.toString(e.getMessage(), e.getClass().getSimpleName()));
+            states.put(p.getProperty("id"), State.PENDING);
+        }
+        try {
+            writeProperties(dir.resolve(p.getProperty("id")).resolve(ENTRY_FILE), p);
+        } catch (IOException io) {
+            System.err.println("Warning: stato voce in coda non salvato: " + io.getMessage());
+        }
+        notifyListeners();
+    }
+
+    // --- PERSISTENZA ---
+
+    private synchronized void load() {
+        if (loaded) return;
+        loaded = true;
+        if (!Files.isDirectory(dir)) return;
+
+        List<Properties> found = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, Files::isDirectory)) {
+            for (Path entryDir : stream) {
+                String name = entryDir.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    // Salvataggio interrotto a metà: la spesa non era stata confermata all'utente
+                    deleteDirectory(entryDir);
+                    continue;
+                }
+                Properties p = readProperties(entryDir.resolve(ENTRY_FILE));
+                if (p != null && FORMAT_VERSION.equals(p.getProperty("version"))) found.add(p);
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: coda locale non leggibile: " + e.getMessage());
+        }
+
+        found.sort(Comparator.comparingLong(p -> Long.parseLong(p.getProperty("created", "0"))));
+        for (Properties p : found) {
+            entries.put(p.getProperty("id"), p);
+            states.put(p.getProperty("id"), State.PENDING);
+        }
+    }
+
+    private Properties readProperties(Path file) {
+        if (!Files.exists(file)) return null;
+        Properties p = new Properties();
+        try {
+            p.load(new ByteArrayInputStream(cipher.decrypt(Files.readAllBytes(file))));
+            return p;
+        } catch (IOException | IllegalArgumentException | GeneralSecurityException e) {
+            // Resta su disco: con la chiave giusta (es. profilo ripristinato) la voce si recupera
+            System.err.println("Warning: voce in coda illeggibile: " + file + " (" + e.getMessage() + ")");
+            return null;
+        }
+    }
+
+    private void writeProperties(Path file, Properties p) throws IOException {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        p.store(plain, "TaxReport outbox");
+        byte[] sealed = seal(plain.toByteArray());
+
+        Path tmp = Files.createTempFile(file.getParent(), ENTRY_FILE, ".part");
+        try {
+            Files.write(tmp, sealed);
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private byte[] seal(byte[] plain) throws IOException {
+        try {
+            return cipher.encrypt(plain);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cifratura della voce in coda fallita: " + e.getMessage(), e);
+        }
+    }
+
+    /** Le cartelle delle voci sono piatte: solo file, nessuna sottocartella. */
+    private static void deleteDirectory(Path entryDir) throws IOException {
+        if (!Files.exists(entryDir)) return;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(entryDir)) {
+            for (Path file : stream) Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(entryDir);
+    }
+
+    private Entry toEntry(Properties p) {
+        return new Entry(
+                p.getProperty("id"),
+                Long.parseLong(p.getProperty("created", "0")),
+                p.getProperty("year"),
+                p.getProperty("person.name"),
+                p.getProperty("description"),
+                p.getProperty("date"),
+                p.getProperty("expense.id") != null,
+                states.getOrDefault(p.getProperty("id"), State.PENDING),
+                Integer.parseInt(p.getProperty("attempts", "0")),
+                Long.parseLong(p.getProperty("next.attempt", "0")),
+                p.getProperty("last.error"));
+    }
+
+    private void notifyListeners() {
+        listeners.forEach(Runnable::run);
+    }
+}
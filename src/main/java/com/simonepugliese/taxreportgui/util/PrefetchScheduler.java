@@ -0,0 +1,78 @@
+package com.simonepugliese.taxreportgui.util;
+
+import javafx.concurrent.Task;
+import pugliesesimone.taxreport.model.Document;
+import pugliesesimone.taxreport.model.Expense;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pre-scarica in background gli allegati delle spese visibili in Dashboard,
+ * così l'apertura di una ricevuta trova il file già in {@link DocumentCache}.
+ * <p>
+ * Gira nella categoria {@link TaskRunner.Category#PREFETCH}, con concorrenza limitata
+ * per non rubare banda alla UI. Ogni nuova schedulazione annulla quella precedente (cambio anno o filtro).
+ */
+public class PrefetchScheduler {
+
+    private static final int MAX_DOCUMENTS = 100;
+
+    private static PrefetchScheduler instance;
+
+    private final List<Task<?>> pending = new ArrayList<>();
+
+    private PrefetchScheduler() {}
+
+    public static synchronized PrefetchScheduler getInstance() {
+        if (instance == null) instance = new PrefetchScheduler();
+        return instance;
+    }
+
+    /**
+     * Sostituisce la coda corrente con i documenti delle spese indicate,
+     * nell'ordine in cui sono mostrate (le prime righe vengono servite per prime).
+     */
+    public synchronized void schedule(List<Expense> visibleExpenses) {
+        cancel();
+        ServiceManager sm = ServiceManager.getInstance();
+        if (!sm.isReady()) return;
+
+        DocumentCache cache = sm.getDocumentCache();
+        int queued = 0;
+
+        for (Expense expense : visibleExpenses) {
+            if (expense.getDocuments() == null) continue;
+            for (Document doc : expense.getDocuments()) {
+                if (queued >= MAX_DOCUMENTS) return;
+                if (cache.contains(doc.getRelativePath())) continue;
+
+                Task<Void> task = new Task<>() {
+                    {
+                        updateTitle("Prefetch " + doc.getRelativePath());
+                    }
+
+                    @Override
+                    protected Void call() {
+                        try {
+                            sm.downloadDocument(doc);
+                        } catch (Exception e) {
+                            if (!isCancelled()) {
+                                System.err.println("Prefetch fallito per " + doc.getRelativePath() + ": " + e.getMessage());
+                            }
+                        }
+                        return null;
+                    }
+                };
+                pending.add(TaskRunner.getInstance().submit(TaskRunner.Category.PREFETCH, task));
+                queued++;
+            }
+        }
+    }
+
+    /** Annulla i download non ancora completati. */
+    public synchronized void cancel() {
+        for (Task<?> t : pending) t.cancel(true);
+        pending.clear();
+    }
+}
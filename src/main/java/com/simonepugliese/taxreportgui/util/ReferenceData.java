@@ -0,0 +1,161 @@
+package com.simonepugliese.taxreportgui.util;
+
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import pugliesesimone.taxreport.model.Expense;
+import pugliesesimone.taxreport.model.Person;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Dati di riferimento condivisi da tutte le viste: persone e anni disponibili.
+ * <p>
+ * Caricati una volta (prima dalla copia locale, poi dal DB) e tenuti in liste osservabili a cui le viste
+ * si legano direttamente: aprire un modulo non costa query. Le scritture fatte tramite {@link ServiceManager}
+ * li aggiornano da sole (nuova persona -> ricarica persone, nuova spesa -> anno aggiunto).
+ * Le liste osservabili si modificano solo sul thread JavaFX; {@link #findPerson} e
+ * {@link #persons(long)} si possono usare da qualunque thread.
+ */
+public class ReferenceData implements ServiceManager.ChangeListener {
+
+    private static ReferenceData instance;
+
+    private final ObservableList<Person> persons = FXCollections.observableArrayList();
+    private final ObservableList<String> years = FXCollections.observableArrayList();
+
+    // Copie immutabili sostituite in blocco: chi legge da un altro thread non vede mai uno stato a metà
+    private volatile Map<Object, Person> personsById = Map.of();
+    private volatile List<Person> personSnapshot = List.of();
+    private volatile long personsLoadedAt;
+    private final AtomicBoolean loadStarted = new AtomicBoolean();
+
+    private ReferenceData() {
+        ServiceManager.getInstance().addChangeListener(this);
+    }
+
+    public static synchronized ReferenceData getInstance() {
+        if (instance == null) instance = new ReferenceData();
+        return instance;
+    }
+
+    /** Persone ordinate per nome (thread JavaFX). */
+    public ObservableList<Person> getPersons() {
+        return persons;
+    }
+
+    /** Anni presenti nel DB, dal più recente (thread JavaFX). */
+    public ObservableList<String> getYears() {
+        return years;
+    }
+
+    public Person findPerson(Object id) {
+        return id != null ? personsById.get(id) : null;
+    }
+
+    /** Avvia il caricamento la prima volta; le chiamate successive non fanno nulla finché l'ultimo non fallisce. */
+    public void ensureLoaded() {
+        if (loadStarted.compareAndSet(false, true)) refresh();
+    }
+
+    /** Ricarica in background: subito la copia locale se non c'è ancora nulla, poi il DB. */
+    public void refresh() {
+        loadStarted.set(true);
+        Task<Void> task = new Task<>() {
+            {
+                updateTitle("Aggiornamento persone");
+            }
+
+            @Override
+            protected Void call() throws Exception {
+                ServiceManager sm = ServiceManager.getInstance();
+                if (personSnapshot.isEmpty()) {
+                    LocalReplica replica = sm.getReplica();
+                    publish(replica.getAvailableYears(), replica.getAllPersons(), 0);
+                }
+                sm.ensureReady();
+                publish(sm.getMetadata().getAvailableYears(), sm.getAllPersons(), System.currentTimeMillis());
+                return null;
+            }
+        };
+        task.setOnFailed(e -> {
+            // Es. DB non configurato all'avvio: la prossima ensureLoaded() deve riprovare
+            loadStarted.set(false);
+            System.err.println("Warning: dati di riferimento non aggiornati: " + task.getException().getMessage());
+        });
+        TaskRunner.getInstance().supersede("reference.refresh", TaskRunner.Category.IO, task);
+    }
+
+    /**
+     * Persone già caricate se più recenti di {@code maxAgeMillis}, altrimenti le chiede al DB.
+     * Da chiamare fuori dal thread JavaFX.
+     */
+    public List<Person> persons(long maxAgeMillis) throws Exception {
+        if (personsLoadedAt > 0 && System.currentTimeMillis() - personsLoadedAt <= maxAgeMillis) return personSnapshot;
+        List<Person> fresh = ServiceManager.getInstance().getAllPersons();
+        publishPersons(fresh, System.currentTimeMillis());
+        return fresh;
+    }
+
+    /** Anni appena letti dal DB da un altro caricamento (es. Dashboard): niente query in più. */
+    public void publishYears(List<String> fresh) {
+        List<String> sorted = new ArrayList<>(fresh);
+        sorted.sort(Comparator.reverseOrder());
+        onFx(() -> {
+            if (!years.equals(sorted)) years.setAll(sorted);
+        });
+    }
+
+    // --- NOTIFICHE DA ServiceManager ---
+
+    @Override
+    public void personRegistered(Person person) {
+        // L'id lo assegna il DB: ricarichiamo la lista invece di aggiungere l'oggetto locale
+        personsLoadedAt = 0;
+        refresh();
+    }
+
+    @Override
+    public void expenseRegistered(Expense expense) {
+        String year = expense.getYear();
+        if (year == null) return;
+        onFx(() -> {
+            if (years.contains(year)) return;
+            List<String> updated = new ArrayList<>(years);
+            updated.add(year);
+            updated.sort(Comparator.reverseOrder());
+            years.setAll(updated);
+        });
+    }
+
+    // --- INTERNALS ---
+
+    private void publish(List<String> freshYears, List<Person> freshPersons, long loadedAt) {
+        if (freshYears != null && !freshYears.isEmpty()) publishYears(freshYears);
+        if (freshPersons != null && !freshPersons.isEmpty()) publishPersons(freshPersons, loadedAt);
+    }
+
+    private void publishPersons(List<Person> fresh, long loadedAt) {
+        List<Person> sorted = new ArrayList<>(fresh);
+        sorted.sort(Comparator.comparing(Person::getName, Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER)));
+
+        Map<Object, Person> byId = new HashMap<>();
+        for (Person p : sorted) {
+            if (p.getId() != null) byId.put(p.getId(), p);
+        }
+        personsById = byId;
+        personSnapshot = List.copyOf(sorted);
+        if (loadedAt > 0) personsLoadedAt = loadedAt;
+        onFx(() -> persons.setAll(sorted));
+    }
+
+    private static void onFx(Runnable r) {
+        if (Platform.isFxApplicationThread()) r.run(); else Platform.runLater(r);
+    }
+}
@@ -0,0 +1,595 @@
+package com.simonepugliese.taxreportgui.util;
+
+import pugliesesimone.taxreport.model.Document;
+import pugliesesimone.taxreport.model.DocumentType;
+import pugliesesimone.taxreport.model.Expense;
+import pugliesesimone.taxreport.model.ExpenseState;
+import pugliesesimone.taxreport.model.ExpenseType;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Esportazione del riepilogo spese di uno o più anni in CSV, XLSX o PDF stampabile.
+ * <p>
+ * Le righe sono raggruppate per persona e tipologia, con i documenti allegati e l'esito di conformità
+ * ({@link ComplianceEngine} con le regole dell'anno; per un anno senza regole locali vale lo stato salvato
+ * dal backend). Si lavora un anno alla volta (il backend espone
+ * solo {@code findByYear}): ogni anno viene scritto e rilasciato prima di leggere il successivo, così la
+ * memoria dipende dall'anno più grande e non dal numero di anni. Il file si scrive accanto alla
+ * destinazione e si rinomina solo a esportazione completata. Da eseguire fuori dal thread JavaFX;
+ * interrompere il thread annulla l'esportazione.
+ */
+public class ReportExporter {
+
+    public enum Format {
+        CSV("csv"),
+        XLSX("xlsx"),
+        PDF("pdf");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Progress {
+        void update(int yearsDone, int yearsTotal, long rowsWritten);
+    }
+
+    public record Summary(int years, long rows, long compliant) {}
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+    private static final String[] COLUMNS = {"Anno", "Persona", "Codice fiscale", "Tipologia", "Data",
+            "Descrizione", "Stato", "Conforme", "Documenti mancanti", "Documenti"};
+
+    /** Una spesa già pronta per la scrittura (niente riferimenti ai modelli del backend). */
+    private record Row(String year, String person, String fiscalCode, ExpenseType type, String date,
+                       String description, String state, boolean compliant, String missing, List<String> documents) {
+
+        String[] cells() {
+            return new String[]{year, person, fiscalCode, typeName(type), date, description, state,
+                    compliant ? "Sì" : "No", missing, String.join(", ", documents)};
+        }
+    }
+
+    private record GroupKey(String person, String fiscalCode, ExpenseType type) {}
+
+    /** Le spese importate o registrate senza tipologia finiscono in un gruppo a parte, in fondo. */
+    private static String typeName(ExpenseType type) {
+        return type != null ? type.name() : "Senza tipologia";
+    }
+
+    private final ServiceManager serviceManager;
+
+    public ReportExporter(ServiceManager serviceManager) {
+        this.serviceManager = serviceManager;
+    }
+
+    /**
+     * Esporta gli anni indicati (nell'ordine dato) nel file {@code target}.
+     * @param serverCompliance se true, prima di leggere ogni anno aggiorna gli stati sul server
+     */
+    public Summary export(List<String> years, Format format, Path target, boolean serverCompliance,
+                          Progress progress) throws Exception {
+        serviceManager.ensureReady();
+        Path dir = target.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, "export", ".part");
+
+        long rows = 0;
+        long compliant = 0;
+        try {
+            try (Sink sink = openSink(format, tmp)) {
+                for (int i = 0; i < years.size(); i++) {
+                    String year = years.get(i);
+                    if (serverCompliance) serviceManager.runComplianceCheck(year);
+
+                    // 1. Un anno alla volta: letto, ordinato, scritto e poi lasciato al GC
+                    List<Row> yearRows = toRows(year, serviceManager.getMetadata().findByYear(year));
+                    Map<GroupKey, int[]> groups = countGroups(yearRows);
+
+                    // 2. Scrittura raggruppata per persona e tipologia
+                    int yearCompliant = 0;
+                    sink.beginYear(year, yearRows.size());
+                    GroupKey current = null;
+                    for (Row row : yearRows) {
+                        if (Thread.currentThread().isInterrupted()) throw new InterruptedException("Esportazione annullata");
+                        GroupKey key = new GroupKey(row.person(), row.fiscalCode(), row.type());
+                        if (!key.equals(current)) {
+                            int[] counts = groups.get(key);
+                            sink.beginGroup(row.person(), row.fiscalCode(), row.type(), counts[0], counts[1]);
+                            current = key;
+                        }
+                        sink.row(row);
+                        rows++;
+                        if (row.compliant()) yearCompliant++;
+                    }
+                    sink.endYear(yearRows.size(), yearCompliant);
+                    compliant += yearCompliant;
+
+                    if (progress != null) progress.update(i + 1, years.size(), rows);
+                }
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        Metrics.getInstance().add("export.rows", rows);
+        return new Summary(years.size(), rows, compliant);
+    }
+
+    // --- PREPARAZIONE RIGHE ---
+
+    private static List<Row> toRows(String year, List<Expense> expenses) throws IOException {
+        ComplianceRules rules = ComplianceEngine.getInstance().rulesFor(year);
+        List<Row> rows = new ArrayList<>(expenses.size());
+        for (Expense e : expenses) {
+            // Valutazione diretta: l'export non deve riempire la cache esiti del motore
+            boolean compliant;
+            String missing;
+            if (rules != null) {
+                ComplianceEngine.Result result = ComplianceEngine.evaluate(rules, e);
+                compliant = result.compliant();
+                missing = result.missing().stream().map(DocumentType::name).collect(Collectors.joining(", "));
+            } else {
+                compliant = e.getExpenseState() == ExpenseState.COMPLETED;
+                missing = "";
+            }
+            List<String> documents = new ArrayList<>();
+            if (e.getDocuments() != null) {
+                for (Document d : e.getDocuments()) {
+                    documents.add(d.getDocumentType() + ": " + new File(d.getRelativePath()).getName());
+                }
+            }
+            rows.add(new Row(
+                    year,
+                    e.getPerson() != null ? e.getPerson().getName() : "",
+                    e.getPerson() != null ? Objects.toString(e.getPerson().getFiscalCode(), "") : "",
+                    e.getExpenseType(),
+                    Objects.toString(e.getRawDate(), ""),
+                    Objects.toString(e.getDescription(), ""),
+                    Objects.toString(e.getExpenseState(), ""),
+                    compliant,
+                    missing,
+                    documents));
+        }
+        rows.sort(Comparator.comparing((Row r) -> r.person().toLowerCase(Locale.ROOT))
+                .thenComparing(Row::type, Comparator.nullsLast(Comparator.naturalOrder()))
+                .thenComparing(r -> parseDate(r.date()), Comparator.nullsLast(Comparator.naturalOrder()))
+                .thenComparing(Row::description));
+        return rows;
+    }
+
+    /** Per gruppo: {spese, conformi}. */
+    private static Map<GroupKey, int[]> countGroups(List<Row> rows) {
+        Map<GroupKey, int[]> groups = new HashMap<>();
+        for (Row r : rows) {
+            int[] counts = groups.computeIfAbsent(new GroupKey(r.person(), r.fiscalCode(), r.type()), k -> new int[2]);
+            counts[0]++;
+            if (r.compliant()) counts[1]++;
+        }
+        return groups;
+    }
+
+    private static LocalDate parseDate(String raw) {
+        try {
+            return raw.isEmpty() ? null : LocalDate.parse(raw, DATE_FORMAT);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    // --- FORMATI ---
+
+    private static Sink openSink(Format format, Path file) throws IOException {
+        return switch (format) {
+            case CSV -> new CsvSink(file);
+            case XLSX -> new XlsxSink(file);
+            case PDF -> new PdfSink(file);
+        };
+    }
+
+    /** Destinazione delle righe, già ordinate e raggruppate. {@code close()} completa il file. */
+    private interface Sink extends Closeable {
+        void beginYear(String year, int expenses) throws IOException;
+
+        void beginGroup(String person, String fiscalCode, ExpenseType type, int expenses, int compliant) throws IOException;
+
+        void row(Row row) throws IOException;
+
+        void endYear(int expenses, int compliant) throws IOException;
+    }
+
+    /** Tabella piatta separata da ";" (come la aspetta Excel in italiano), UTF-8 con BOM. */
+    private static final class CsvSink implements Sink {
+        private final BufferedWriter out;
+
+        CsvSink(Path file) throws IOException {
+            out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+            out.write('\uFEFF');
+            line(COLUMNS);
+        }
+
+        @Override public void beginYear(String year, int expenses) {}
+
+        @Override public void beginGroup(String person, String fiscalCode, ExpenseType type, int expenses, int compliant) {}
+
+        @Override
+        public void row(Row row) throws IOException {
+            line(row.cells());
+        }
+
+        @Override public void endYear(int expenses, int compliant) {}
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        private void line(String[] cells) throws IOException {
+            for (int i = 0; i < cells.length; i++) {
+                if (i > 0) out.write(';');
+                out.write(quote(cells[i]));
+            }
+            out.write("\r\n");
+        }
+
+        private static String quote(String value) {
+            // Una cella che inizia con = + - @ verrebbe eseguita come formula da Excel/LibreOffice
+            // (descrizioni e nomi arrivano da import e da altri utenti): l'apice la forza a testo
+            if (!value.isEmpty() && "=+-@\t\r".indexOf(value.charAt(0)) >= 0) value = "'" + value;
+            if (value.indexOf(';') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                return value;
+            }
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+    }
+
+    /**
+     * Cartella di lavoro XLSX minima (un foglio, stringhe inline) scritta direttamente nello zip:
+     * il foglio è in streaming, le altre parti sono costanti e vanno scritte alla chiusura.
+     */
+    private static final class XlsxSink implements Sink {
+        private final ZipOutputStream zip;
+        private final Writer out;
+        private int rowNumber;
+
+        XlsxSink(Path file) throws IOException {
+            zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(file)));
+            zip.putNextEntry(new ZipEntry("xl/worksheets/sheet1.xml"));
+            // Niente close() su questo writer: chiuderebbe lo zip
+            out = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                    + "<worksheet xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\">"
+                    + "<sheetData>");
+            line(COLUMNS);
+        }
+
+        @Override public void beginYear(String year, int expenses) {}
+
+        @Override public void beginGroup(String person, String fiscalCode, ExpenseType type, int expenses, int compliant) {}
+
+        @Override
+        public void row(Row row) throws IOException {
+            line(row.cells());
+        }
+
+        @Override public void endYear(int expenses, int compliant) {}
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.write("</sheetData></worksheet>");
+                out.flush();
+                zip.closeEntry();
+
+                part("[Content_Types].xml", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                        + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+                        + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+                        + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+                        + "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+                        + "<Override PartName=\"/xl/worksheets/sheet1.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>"
+                        + "</Types>");
+                part("_rels/.rels", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                        + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                        + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"xl/workbook.xml\"/>"
+                        + "</Relationships>");
+                part("xl/workbook.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                        + "<workbook xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" "
+                        + "xmlns:r=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships\">"
+                        + "<sheets><sheet name=\"Spese\" sheetId=\"1\" r:id=\"rId1\"/></sheets></workbook>");
+                part("xl/_rels/workbook.xml.rels", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+                        + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                        + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/worksheet\" Target=\"worksheets/sheet1.xml\"/>"
+                        + "</Relationships>");
+            } finally {
+                zip.close();
+            }
+        }
+
+        private void part(String name, String content) throws IOException {
+            zip.putNextEntry(new ZipEntry(name));
+            zip.write(content.getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+
+        private void line(String[] cells) throws IOException {
+            rowNumber++;
+            out.write("<row r=\"" + rowNumber + "\">");
+            for (String cell : cells) {
+                out.write("<c t=\"inlineStr\"><is><t xml:space=\"preserve\">");
+                out.write(escapeXml(cell));
+                out.write("</t></is></c>");
+            }
+            out.write("</row>");
+        }
+
+        private static String escapeXml(String value) {
+            StringBuilder sb = new StringBuilder(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '&' -> sb.append("&amp;");
+                    case '<' -> sb.append("&lt;");
+                    case '>' -> sb.append("&gt;");
+                    case '"' -> sb.append("&quot;");
+                    // Caratteri di controllo non ammessi in XML 1.0
+                    default -> sb.append(c < 0x20 && c != '\t' && c != '\n' && c != '\r' ? ' ' : c);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Riepilogo stampabile A4: un capitolo per anno, gruppi persona/tipologia con conteggi,
+     * una riga per spesa e l'elenco dei documenti sotto.
+     * <p>
+     * Il PDF si scrive a mano come l'XLSX (PDFBox non è un modulo esplicito e jlink non lo accetta):
+     * solo testo con i font standard Helvetica, ogni pagina va su file appena è piena.
+     */
+    private static final class PdfSink implements Sink {
+        private static final float MARGIN = 50;
+        private static final float LINE = 14;
+        private static final float PAGE_WIDTH = 595.28f;
+        private static final float PAGE_HEIGHT = 841.89f;
+        private static final String REGULAR = "F1";
+        private static final String BOLD = "F2";
+
+        // Oggetti fissi, scritti alla chiusura; ogni pagina aggiunge contenuto + pagina
+        private static final int CATALOG = 1;
+        private static final int PAGES = 2;
+        private static final int FONT_REGULAR = 3;
+        private static final int FONT_BOLD = 4;
+        private static final int FIRST_PAGE_OBJECT = 5;
+
+        // Larghezze Helvetica (millesimi di em) dei caratteri 32..126, dalle metriche standard Adobe
+        private static final short[] HELVETICA_WIDTHS = {
+                278, 278, 355, 556, 556, 889, 667, 191, 333, 333, 389, 584, 278, 333, 278, 278,
+                556, 556, 556, 556, 556, 556, 556, 556, 556, 556, 278, 278, 584, 584, 584, 556,
+                1015, 667, 667, 722, 722, 667, 611, 778, 722, 278, 500, 667, 556, 833, 722, 778,
+                667, 778, 722, 667, 611, 722, 667, 944, 667, 667, 611, 278, 278, 278, 469, 556,
+                333, 556, 556, 500, 556, 556, 278, 556, 556, 222, 222, 500, 222, 833, 556, 556,
+                556, 556, 333, 500, 278, 556, 500, 722, 500, 500, 500, 334, 260, 334, 584};
+        // Lettere accentate e simboli: per eccesso, al massimo si tronca un carattere prima
+        private static final int OTHER_WIDTH = 667;
+
+        private final OutputStream out;
+        private long offset;
+        private final Map<Integer, Long> offsets = new HashMap<>();
+        private final List<Integer> pages = new ArrayList<>();
+        private int nextObject = FIRST_PAGE_OBJECT;
+        private StringBuilder content; // pagina corrente, null se non ce n'è una aperta
+        private float y;
+
+        PdfSink(Path file) throws IOException {
+            out = new BufferedOutputStream(Files.newOutputStream(file));
+            // Il commento con byte alti segnala ai programmi di trasferimento che il file è binario
+            write("%PDF-1.4\n%\u00E2\u00E3\u00CF\u00D3\n");
+        }
+
+        @Override
+        public void beginYear(String year, int expenses) throws IOException {
+            newPage();
+            text(BOLD, 18, MARGIN, "Riepilogo spese " + year);
+            y -= 8;
+            text(REGULAR, 10, MARGIN, expenses + " spese");
+            y -= 6;
+        }
+
+        @Override
+        public void beginGroup(String person, String fiscalCode, ExpenseType type, int expenses, int compliant)
+                throws IOException {
+            ensureSpace(LINE * 4);
+            y -= 6;
+            text(BOLD, 12, MARGIN, person + (fiscalCode.isEmpty() ? "" : " (" + fiscalCode + ")"));
+            text(BOLD, 10, MARGIN + 10, typeName(type) + " - " + expenses + " spese, " + compliant + " conformi");
+        }
+
+        @Override
+        public void row(Row row) throws IOException {
+            ensureSpace(LINE * (2 + row.documents().size()));
+            float width = PAGE_WIDTH - 2 * MARGIN;
+            String status = row.compliant() ? "conforme" : "mancano: " + row.missing();
+            text(REGULAR, 10, MARGIN + 20, fit(10, width - 20,
+                    row.date() + "  " + row.description() + "  [" + status + "]"));
+            for (String document : row.documents()) {
+                text(REGULAR, 8, MARGIN + 35, fit(8, width - 35, document));
+            }
+        }
+
+        @Override
+        public void endYear(int expenses, int compliant) throws IOException {
+            ensureSpace(LINE * 2);
+            y -= 8;
+            text(BOLD, 11, MARGIN, "Totale: " + expenses + " spese, " + compliant + " conformi, "
+                    + (expenses - compliant) + " da completare");
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // Un PDF senza pagine non si apre: almeno una pagina vuota
+                if (content == null && pages.isEmpty()) content = new StringBuilder();
+                if (content != null) writePage();
+
+                writeFont(FONT_REGULAR, "Helvetica");
+                writeFont(FONT_BOLD, "Helvetica-Bold");
+                StringBuilder kids = new StringBuilder();
+                for (int page : pages) kids.append(page).append(" 0 R ");
+                beginObject(PAGES);
+                write("<< /Type /Pages /Kids [" + kids + "] /Count " + pages.size() + " >>\nendobj\n");
+                beginObject(CATALOG);
+                write("<< /Type /Catalog /Pages " + PAGES + " 0 R >>\nendobj\n");
+
+                // Tabella xref: una riga di 20 byte per oggetto con la sua posizione nel file
+                long xref = offset;
+                write("xref\n0 " + nextObject + "\n0000000000 65535 f \n");
+                for (int i = 1; i < nextObject; i++) {
+                    write(String.format(Locale.ROOT, "%010d 00000 n \n", offsets.get(i)));
+                }
+                write("trailer\n<< /Size " + nextObject + " /Root " + CATALOG + " 0 R >>\nstartxref\n"
+                        + xref + "\n%%EOF\n");
+            } finally {
+                out.close();
+            }
+        }
+
+        private void newPage() throws IOException {
+            if (content != null) writePage();
+            content = new StringBuilder();
+            y = PAGE_HEIGHT - MARGIN;
+        }
+
+        private void ensureSpace(float needed) throws IOException {
+            if (content == null || y - needed < MARGIN) newPage();
+        }
+
+        /** Scrive la pagina corrente (flusso di contenuto + oggetto pagina) e la toglie dalla memoria. */
+        private void writePage() throws IOException {
+            byte[] stream = content.toString().getBytes(StandardCharsets.ISO_8859_1);
+            content = null;
+            int contentObject = nextObject++;
+            int pageObject = nextObject++;
+
+            beginObject(contentObject);
+            write("<< /Length " + stream.length + " >>\nstream\n");
+            out.write(stream);
+            offset += stream.length;
+            write("\nendstream\nendobj\n");
+
+            beginObject(pageObject);
+            write("<< /Type /Page /Parent " + PAGES + " 0 R /MediaBox [0 0 " + number(PAGE_WIDTH) + " "
+                    + number(PAGE_HEIGHT) + "] /Resources << /Font << /" + REGULAR + " " + FONT_REGULAR + " 0 R /"
+                    + BOLD + " " + FONT_BOLD + " 0 R >> >> /Contents " + contentObject + " 0 R >>\nendobj\n");
+            pages.add(pageObject);
+        }
+
+        private void writeFont(int object, String baseFont) throws IOException {
+            beginObject(object);
+            write("<< /Type /Font /Subtype /Type1 /BaseFont /" + baseFont + " /Encoding /WinAnsiEncoding >>\nendobj\n");
+        }
+
+        private void beginObject(int object) throws IOException {
+            offsets.put(object, offset);
+            write(object + " 0 obj\n");
+        }
+
+        private void write(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+            out.write(bytes);
+            offset += bytes.length;
+        }
+
+        private void text(String font, float size, float x, String value) {
+            y -= LINE;
+            content.append("BT /").append(font).append(' ').append(number(size)).append(" Tf ")
+                    .append(number(x)).append(' ').append(number(y)).append(" Td (")
+                    .append(escape(printable(value))).append(") Tj ET\n");
+        }
+
+        /** Tronca con "..." per restare nella larghezza della pagina (Helvetica normale). */
+        private static String fit(float size, float maxWidth, String value) {
+            String text = printable(value);
+            if (width(size, text) <= maxWidth) return text;
+            int end = text.length();
+            while (end > 0 && width(size, text.substring(0, end) + "...") > maxWidth) end--;
+            return text.substring(0, end) + "...";
+        }
+
+        private static float width(float size, String text) {
+            int units = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                units += c >= 32 && c <= 126 ? HELVETICA_WIDTHS[c - 32] : OTHER_WIDTH;
+            }
+            return units / 1000f * size;
+        }
+
+        /**
+         * I font standard usano WinAnsi: l'euro va al suo codice (0x80), il resto fuori dal Latin-1
+         * stampabile si sostituisce.
+         */
+        private static String printable(String value) {
+            StringBuilder sb = new StringBuilder(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '\u20AC') sb.append('\u0080');
+                else if (c < 0x20 || (c >= 0x7F && c < 0xA0)) sb.append(' ');
+                else if (c > 0xFF) sb.append('?');
+                else sb.append(c);
+            }
+            return sb.toString();
+        }
+
+        /** Stringa letterale PDF: parentesi e backslash vanno preceduti da backslash. */
+        private static String escape(String value) {
+            StringBuilder sb = new StringBuilder(value.length() + 8);
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '(' || c == ')' || c == '\\') sb.append('\\');
+                sb.append(c);
+            }
+            return sb.toString();
+        }
+
+        private static String number(float value) {
+            return String.format(Locale.ROOT, "%.2f", value);
+        }
+    }
+}
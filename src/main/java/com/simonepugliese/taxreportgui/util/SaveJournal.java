@@ -0,0 +1,102 @@
+package com.simonepugliese.taxreportgui.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Journal locale dei salvataggi verso il server: quale operazione ha prodotto quale riga.
+ * <p>
+ * Il backend non ha una colonna per le chiavi di idempotenza e {@code registerExpense} non restituisce
+ * l'id della riga creata. Prima di inviare una spesa si annota l'anno e gli id già presenti in quell'anno:
+ * dopo un errore (o un crash) la riga prodotta dall'operazione è l'unica riga nuova dell'anno con gli
+ * stessi campi. La descrizione della spesa resta quella scritta dall'utente.
+ * Un file per operazione in {@code ~/.taxreport/operations}, con soli id e anno (nessun dato personale).
+ * Chi ha avviato l'operazione la dimentica dopo aver aggiornato il proprio stato (coda, journal import).
+ */
+public class SaveJournal {
+
+    private static final String DIR_NAME = "operations";
+    private static final Pattern SAFE_ID = Pattern.compile("[0-9A-Za-z-]{1,80}");
+
+    /** Operazione iniziata: anno della riga sul server e id presenti in quell'anno prima dell'invio. */
+    public record Record(String operationId, String year, Set<Long> knownIds) {}
+
+    private final Path dir;
+
+    public SaveJournal(Path dataDir) {
+        this.dir = dataDir.resolve(DIR_NAME);
+    }
+
+    /** Operazione già iniziata in precedenza (anche in un'altra sessione), o null. */
+    public synchronized Record get(String operationId) {
+        Path file = fileOf(operationId);
+        if (!Files.exists(file)) return null;
+        Properties p = new Properties();
+        Set<Long> known = new HashSet<>();
+        try (InputStream in = Files.newInputStream(file)) {
+            p.load(in);
+            for (String id : p.getProperty("known", "").split(",")) {
+                if (!id.isEmpty()) known.add(Long.valueOf(id));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // Senza il journal non si può escludere che la riga sia arrivata: meglio fermarsi che duplicare
+            throw new IllegalStateException("Journal dell'operazione " + operationId + " illeggibile: " + e.getMessage(), e);
+        }
+        if (p.getProperty("year") == null) {
+            throw new IllegalStateException("Journal dell'operazione " + operationId + " senza anno");
+        }
+        return new Record(operationId, p.getProperty("year"), known);
+    }
+
+    /** Da chiamare prima di contattare il server: da qui in poi la riga potrebbe esistere. */
+    public synchronized void begin(String operationId, String year, Set<Long> knownIds) throws IOException {
+        StringBuilder known = new StringBuilder();
+        for (Long id : knownIds) {
+            if (id == null) continue;
+            if (known.length() > 0) known.append(',');
+            known.append(id);
+        }
+        Properties p = new Properties();
+        p.setProperty("year", year);
+        p.setProperty("known", known.toString());
+
+        Files.createDirectories(dir);
+        Path target = fileOf(operationId);
+        Path tmp = Files.createTempFile(dir, target.getFileName().toString(), ".part");
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                p.store(out, "TaxReport save journal");
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** L'operazione è conclusa e registrata da chi l'ha avviata. */
+    public synchronized void forget(String operationId) {
+        try {
+            Files.deleteIfExists(fileOf(operationId));
+        } catch (IOException e) {
+            System.err.println("Warning: journal dell'operazione " + operationId + " non rimosso: " + e.getMessage());
+        }
+    }
+
+    private Path fileOf(String operationId) {
+        if (!SAFE_ID.matcher(operationId).matches()) throw new IllegalArgumentException("Id operazione non valido: " + operationId);
+        return dir.resolve(operationId + ".properties");
+    }
+}
@@ -0,0 +1,269 @@
+package com.simonepugliese.taxreportgui.util;
+
+import com.simonepugliese.taxreportgui.gui.SecretCipher;
+import pugliesesimone.taxreport.model.Document;
+import pugliesesimone.taxreport.model.Expense;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Indice di ricerca full-text su tutte le spese di tutti gli anni.
+ * <p>
+ * Indice invertito (token -> spese) ordinato, così la ricerca per prefisso è un {@code subMap}.
+ * Copre descrizione, persona, codice fiscale, data, tipo e nomi degli allegati; si aggiorna per anno
+ * a ogni caricamento e dopo ogni salvataggio, ed è salvato su disco tra un avvio e l'altro.
+ * Il file contiene dati personali (nomi, codici fiscali, descrizioni mediche): è cifrato con
+ * {@link SecretCipher} come la replica locale.
+ */
+public class SearchIndex {
+
+    private static final String FILE_NAME = "search.bin";
+    // Indice in chiaro delle build precedenti: si cancella, si ricostruisce cifrato
+    private static final String PLAIN_FILE_NAME = "search.idx";
+    private static final String FILE_HEADER = "TAXREPORT-SEARCH v1";
+    private static final Pattern SPLIT = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    /** Spesa trovata: anno, id (come stringa) e riga riassuntiva da mostrare. */
+    public record Hit(String year, String expenseId, String summary) {}
+
+    private final Path file;
+    private final Path plainFile;
+    private final SecretCipher cipher;
+
+    // chiave documento = anno + "/" + id
+    private final Map<String, Hit> docs = new HashMap<>();
+    private final Map<String, Set<String>> docTokens = new HashMap<>();
+    private final NavigableMap<String, Set<String>> postings = new TreeMap<>();
+    private final Set<String> indexedYears = new HashSet<>();
+
+    private boolean loaded;
+    private boolean dirty;
+
+    public SearchIndex(Path dataDir, SecretCipher cipher) {
+        this.file = dataDir.resolve(FILE_NAME);
+        this.plainFile = dataDir.resolve(PLAIN_FILE_NAME);
+        this.cipher = cipher;
+    }
+
+    /** Anni già presenti nell'indice. */
+    public synchronized Set<String> getIndexedYears() {
+        load();
+        return new HashSet<>(indexedYears);
+    }
+
+    /**
+     * Sostituisce il contenuto indicizzato per l'anno con le spese indicate.
+     */
+    public synchronized void indexYear(String year, List<Expense> expenses) {
+        load();
+        Set<String> keep = new HashSet<>();
+        for (Expense e : expenses) keep.add(put(year, e));
+
+        String prefix = year + "/";
+        for (String key : new ArrayList<>(docs.keySet())) {
+            if (key.startsWith(prefix) && !keep.contains(key)) remove(key);
+        }
+        indexedYears.add(year);
+        dirty = true;
+    }
+
+    /**
+     * Anni non ancora indicizzati (prima costruzione dell'indice), dal più recente. Chi li indicizza lo fa
+     * un anno per task, così la costruzione si può interrompere tra un anno e l'altro.
+     */
+    public synchronized List<String> missingYears(Collection<String> years) {
+        load();
+        List<String> missing = new ArrayList<>();
+        for (String year : years) {
+            if (!indexedYears.contains(year)) missing.add(year);
+        }
+        missing.sort(Comparator.reverseOrder());
+        return missing;
+    }
+
+    /**
+     * Cerca le spese che contengono tutte le parole della query (ognuna anche solo come prefisso).
+     * Risultati dal più recente.
+     */
+    public synchronized List<Hit> search(String query, int limit) {
+        load();
+        Set<String> tokens = tokenize(query);
+        if (tokens.isEmpty()) return List.of();
+
+        Set<String> result = null;
+        for (String token : tokens) {
+            Set<String> matches = new HashSet<>();
+            for (Set<String> keys : postings.subMap(token, true, token + Character.MAX_VALUE, false).values()) {
+                matches.addAll(keys);
+            }
+            if (result == null) result = matches; else result.retainAll(matches);
+            if (result.isEmpty()) return List.of();
+        }
+
+        List<Hit> hits = new ArrayList<>();
+        for (String key : result) hits.add(docs.get(key));
+        hits.sort(Comparator.comparing(Hit::year).reversed().thenComparing(Hit::summary));
+        return hits.size() > limit ? hits.subList(0, limit) : hits;
+    }
+
+    /** Salva su disco se ci sono modifiche. Da chiamare fuori dal thread JavaFX. */
+    public synchronized void save() {
+        if (!dirty) return;
+        try {
+            ByteArrayOutputStream plain = new ByteArrayOutputStream();
+            try (BufferedWriter w = new BufferedWriter(new OutputStreamWriter(plain, StandardCharsets.UTF_8))) {
+                w.write(FILE_HEADER);
+                w.newLine();
+                w.write(String.join("\t", indexedYears));
+                w.newLine();
+                for (Map.Entry<String, Hit> e : docs.entrySet()) {
+                    Hit h = e.getValue();
+                    // anno \t id \t riassunto \t token separati da spazio
+                    w.write(h.year() + "\t" + h.expenseId() + "\t" + h.summary().replace('\t', ' ')
+                            + "\t" + String.join(" ", docTokens.get(e.getKey())));
+                    w.newLine();
+                }
+            }
+            byte[] sealed = cipher.encrypt(plain.toByteArray());
+
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), FILE_NAME, ".part");
+            try {
+                Files.write(tmp, sealed);
+                try {
+                    Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            dirty = false;
+        } catch (IOException | GeneralSecurityException e) {
+            System.err.println("Warning: salvataggio indice di ricerca fallito: " + e.getMessage());
+        }
+    }
+
+    // --- INTERNALS ---
+
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+        try {
+            Files.deleteIfExists(plainFile);
+        } catch (IOException e) {
+            System.err.println("Warning: vecchio indice in chiaro non rimosso: " + e.getMessage());
+        }
+        if (!Files.exists(file)) return;
+
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(cipher.decrypt(Files.readAllBytes(file))), StandardCharsets.UTF_8))) {
+            if (!FILE_HEADER.equals(r.readLine())) return;
+            String years = r.readLine();
+            if (years != null && !years.isBlank()) indexedYears.addAll(List.of(years.split("\t")));
+
+            String line;
+            while ((line = r.readLine()) != null) {
+                String[] f = line.split("\t", 4);
+                if (f.length < 4) continue;
+                Hit hit = new Hit(f[0], f[1], f[2]);
+                Set<String> tokens = new HashSet<>();
+                for (String t : f[3].split(" ")) {
+                    if (!t.isEmpty()) tokens.add(t);
+                }
+                addDoc(f[0] + "/" + f[1], hit, tokens);
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            System.err.println("Warning: indice di ricerca non leggibile, verrà ricostruito: " + e.getMessage());
+            docs.clear();
+            docTokens.clear();
+            postings.clear();
+            indexedYears.clear();
+        }
+    }
+
+    private String put(String year, Expense e) {
+        String id = String.valueOf(e.getId());
+        String key = year + "/" + id;
+        remove(key);
+
+        String person = e.getPerson() != null ? e.getPerson().getName() : "";
+        String summary = nullToEmpty(e.getRawDate()) + " · " + e.getExpenseType() + " · "
+                + nullToEmpty(e.getDescription()) + " · " + nullToEmpty(person);
+
+        StringBuilder text = new StringBuilder()
+                .append(year).append(' ')
+                .append(nullToEmpty(e.getDescription())).append(' ')
+                .append(nullToEmpty(person)).append(' ')
+                .append(nullToEmpty(e.getRawDate())).append(' ')
+                .append(e.getExpenseType());
+        if (e.getPerson() != null) text.append(' ').append(nullToEmpty(e.getPerson().getFiscalCode()));
+        if (e.getDocuments() != null) {
+            for (Document d : e.getDocuments()) text.append(' ').append(new File(d.getRelativePath()).getName());
+        }
+
+        addDoc(key, new Hit(year, id, summary), tokenize(text.toString()));
+        return key;
+    }
+
+    private void addDoc(String key, Hit hit, Set<String> tokens) {
+        docs.put(key, hit);
+        docTokens.put(key, tokens);
+        for (String t : tokens) postings.computeIfAbsent(t, k -> new HashSet<>()).add(key);
+    }
+
+    private void remove(String key) {
+        docs.remove(key);
+        Set<String> tokens = docTokens.remove(key);
+        if (tokens == null) return;
+        for (String t : tokens) {
+            Set<String> keys = postings.get(t);
+            if (keys == null) continue;
+            keys.remove(key);
+            if (keys.isEmpty()) postings.remove(t);
+        }
+    }
+
+    /** Minuscolo, senza accenti, diviso su tutto ciò che non è lettera o cifra. */
+    static Set<String> tokenize(String text) {
+        Set<String> tokens = new HashSet<>();
+        if (text == null) return tokens;
+        String normalized = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        for (String t : SPLIT.split(normalized)) {
+            if (!t.isEmpty()) tokens.add(t);
+        }
+        return tokens;
+    }
+
+    private static String nullToEmpty(String s) {
+        return s != null ? s : "";
+    }
+}
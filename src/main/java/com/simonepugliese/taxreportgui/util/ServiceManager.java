@@ -1,35 +1,80 @@
 package com.simonepugliese.taxreportgui.util;
 
 import com.simonepugliese.taxreportgui.gui.ConfigService;
-import pugliesesimone.taxreport.metadata.MariaDbMetadata;
 import pugliesesimone.taxreport.metadata.MetadataInterface;
+import pugliesesimone.taxreport.model.Attachment;
 import pugliesesimone.taxreport.model.Document;
+import pugliesesimone.taxreport.model.Expense;
+import pugliesesimone.taxreport.model.Person;
 import pugliesesimone.taxreport.service.TaxReportService;
 import pugliesesimone.taxreport.storage.SmbStorage;
 import pugliesesimone.taxreport.storage.StorageInterface;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.InputStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class ServiceManager {
 
     private static ServiceManager instance;
 
-    private TaxReportService taxReportService;
+    // volatile: isReady() è letto dai thread in background senza lock
+    private volatile TaxReportService taxReportService;
     private MetadataInterface metadata;
     private StorageInterface storage; // [NEW] Riferimento diretto allo storage
 
     // Cartella Cache Locale
     private final Path cachePath;
+    private final DocumentCache documentCache;
+
+    // Cartella dati persistenti nel profilo utente (replica locale, indici)
+    private final Path dataPath;
+    private final LocalReplica replica;
+    private final SearchIndex searchIndex;
+    private final SaveJournal saveJournal;
+
+    // Cresce a ogni scrittura verso il backend: le viste lo confrontano per sapere se i loro dati sono vecchi
+    private final AtomicLong dataVersion = new AtomicLong();
+    private final List<ChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+
+    // Lock e non synchronized: chi aspetta l'init è quasi sempre un virtual thread di TaskRunner e l'init
+    // aspetta a sua volta i sotto-task su virtual thread. Con un monitor (JDK 21) restano tutti agganciati
+    // al loro carrier e su 2 core i sotto-task non partono più.
+    private final ReentrantLock initLock = new ReentrantLock();
+
+    /** Notifiche delle scritture riuscite, chiamate sul thread che ha scritto. */
+    public interface ChangeListener {
+        default void personRegistered(Person person) {}
+
+        default void expenseRegistered(Expense expense) {}
+    }
 
     private ServiceManager() {
-        // Definiamo una cartella temporanea per l'app
-        String tempDir = System.getProperty("java.io.tmpdir");
-        this.cachePath = Paths.get(tempDir, "TaxReportCache");
+        this.dataPath = Paths.get(System.getProperty("user.home"), ".taxreport");
+
+        // Cache nel profilo utente e non in java.io.tmpdir: il sistema pulisce la cartella temporanea
+        // e i documenti "Mantieni offline" sparirebbero. Lo spazio lo limita il budget della cache
+        this.cachePath = dataPath.resolve("cache");
+        this.documentCache = new DocumentCache(cachePath, ConfigService.getInstance().getCacheMaxBytes());
+
+        this.replica = new LocalReplica(dataPath, ConfigService.getInstance().getCipher());
+        this.searchIndex = new SearchIndex(dataPath, ConfigService.getInstance().getCipher());
+        this.saveJournal = new SaveJournal(dataPath);
+
+        // Cambi di configurazione: si ricostruisce solo il pezzo toccato, il resto resta connesso
+        ConfigService cfg = ConfigService.getInstance();
+        cfg.addListener(ConfigService.DB_KEYS, changed -> reconfigure(this::reconnectDatabase));
+        cfg.addListener(ConfigService.SMB_KEYS, changed -> reconfigure(this::reconnectStorage));
+        cfg.addListener(ConfigService.CACHE_KEYS, changed -> documentCache.setMaxBytes(cfg.getCacheMaxBytes()));
     }
 
     public static synchronized ServiceManager getInstance() {
@@ -39,35 +84,126 @@ public class ServiceManager {
         return instance;
     }
 
+    /**
+     * (Ri)crea connessioni e servizio con la configurazione corrente.
+     * Database, share e cache locale vengono preparati in parallelo.
+     */
     public void init() throws Exception {
+        initLock.lock();
+        Metrics.Sample sample = Metrics.getInstance().start("service.init");
+        try {
+            doInit();
+        } finally {
+            sample.stop();
+            initLock.unlock();
+        }
+    }
+
+    /** Inizializza solo se non è già stato fatto (più thread possono chiamarlo insieme all'avvio). */
+    public void ensureReady() throws Exception {
+        if (isReady()) return;
+        initLock.lock();
+        try {
+            if (!isReady()) init();
+        } finally {
+            initLock.unlock();
+        }
+    }
+
+    private void doInit() throws Exception {
+        ConfigService cfg = ConfigService.getInstance();
+
+        if (cfg.get(ConfigService.HOST).isEmpty()) throw new IllegalStateException("Configurazione mancante. Vai in Impostazioni.");
+
+        try (ExecutorService parallel = Executors.newVirtualThreadPerTaskExecutor()) {
+            // 1. Metadata (DB) - condiviso per configurazione, dimentica quelli di config precedenti
+            Future<MetadataInterface> db = parallel.submit(() -> openDatabase(cfg));
+
+            // 2. Storage (SMB)
+            Future<StorageInterface> smb = parallel.submit(() -> openStorage(cfg));
+
+            // 3. Init Cache (dir + indice)
+            Future<?> cache = parallel.submit(() -> {
+                documentCache.open();
+                documentCache.setMaxBytes(cfg.getCacheMaxBytes());
+                return null;
+            });
+
+            MetadataInterface newMetadata = await(db);
+            StorageInterface newStorage = await(smb);
+            await(cache);
+
+            // 4. Service: pubblicato per ultimo, isReady() diventa true solo a init completo
+            this.metadata = newMetadata;
+            this.storage = newStorage;
+            this.taxReportService = new TaxReportService(newStorage, newMetadata);
+        }
+    }
+
+    /** Ogni chiamata è misurata (db.<metodo>). */
+    private static MetadataInterface openDatabase(ConfigService cfg) throws Exception {
+        Metrics metrics = Metrics.getInstance();
+        MetadataInterface m = metrics.time("service.init.db", () -> DatabaseConnections.metadata(cfg));
+        DatabaseConnections.retainOnly(cfg);
+        return metrics.instrument(MetadataInterface.class, m, "db.");
+    }
+
+    /** Misurato come smb.<metodo> + byte letti. */
+    private static StorageInterface openStorage(ConfigService cfg) throws Exception {
+        Metrics metrics = Metrics.getInstance();
+        return metrics.instrument(StorageInterface.class,
+                metrics.time("service.init.smb", () -> new SmbStorage(
+                        cfg.get(ConfigService.HOST),
+                        cfg.get(ConfigService.SMB_SHARE),
+                        cfg.get(ConfigService.SMB_USER),
+                        cfg.get(ConfigService.SMB_PASS)
+                )), "smb.");
+    }
+
+    private interface Rebuild {
+        void run() throws Exception;
+    }
+
+    /**
+     * Applica un cambio di configurazione a un servizio già avviato; se non lo è ancora, ci pensa
+     * la prossima {@link #ensureReady()}. In caso di errore il servizio torna non pronto.
+     */
+    private void reconfigure(Rebuild rebuild) {
+        initLock.lock();
+        try {
+            if (!isReady()) return;
+            rebuild.run();
+        } catch (Exception e) {
+            System.err.println("Warning: riconfigurazione fallita: " + e.getMessage());
+            taxReportService = null;
+        } finally {
+            initLock.unlock();
+        }
+    }
+
+    /** Nuovo accesso al DB; lo share SMB resta quello aperto. */
+    private void reconnectDatabase() throws Exception {
         ConfigService cfg = ConfigService.getInstance();
+        if (cfg.get(ConfigService.HOST).isEmpty()) throw new IllegalStateException("Host mancante");
+        MetadataInterface newMetadata = openDatabase(cfg);
+        this.metadata = newMetadata;
+        this.taxReportService = new TaxReportService(storage, newMetadata);
+    }
 
-        String host = cfg.get(ConfigService.KEY_HOST, "");
-        if (host.isEmpty()) throw new IllegalStateException("Configurazione mancante. Vai in Impostazioni.");
-
-        // 1. Metadata (DB)
-        this.metadata = new MariaDbMetadata(
-                host,
-                Integer.parseInt(cfg.get(ConfigService.KEY_DB_PORT, "3306")),
-                cfg.get(ConfigService.KEY_DB_NAME, "taxreport"),
-                cfg.get(ConfigService.KEY_DB_USER, "root"),
-                cfg.get(ConfigService.KEY_DB_PASS, "")
-        );
-
-        // 2. Storage (SMB)
-        this.storage = new SmbStorage(
-                host,
-                cfg.get(ConfigService.KEY_SMB_SHARE, "TaxData"),
-                cfg.get(ConfigService.KEY_SMB_USER, "pi"),
-                cfg.get(ConfigService.KEY_SMB_PASS, "")
-        );
-
-        // 3. Service
-        this.taxReportService = new TaxReportService(storage, metadata);
-
-        // 4. Init Cache Dir
-        if (!Files.exists(cachePath)) {
-            Files.createDirectories(cachePath);
+    /** Nuova connessione SMB; l'accesso al DB resta quello aperto. */
+    private void reconnectStorage() throws Exception {
+        StorageInterface newStorage = openStorage(ConfigService.getInstance());
+        this.storage = newStorage;
+        this.taxReportService = new TaxReportService(newStorage, metadata);
+    }
+
+    private static <T> T await(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // L'errore originale (es. DB non raggiungibile) è più utile del wrapper
+            if (e.getCause() instanceof Exception cause) throw cause;
+            throw e;
         }
     }
 
@@ -85,40 +221,115 @@ public class ServiceManager {
         return taxReportService != null;
     }
 
+    /** Versione dei dati lato backend, incrementata da ogni scrittura fatta da questa applicazione. */
+    public long getDataVersion() {
+        return dataVersion.get();
+    }
+
+    public void markDataChanged() {
+        dataVersion.incrementAndGet();
+    }
+
+    public void addChangeListener(ChangeListener listener) {
+        changeListeners.add(listener);
+    }
+
+    // --- OPERAZIONI DEL BACKEND (misurate) ---
+
+    public List<Person> getAllPersons() throws Exception {
+        return Metrics.getInstance().time("service.getAllPersons", () -> getService().getAllPersons());
+    }
+
+    public void registerPerson(Person person) throws Exception {
+        Metrics.getInstance().time("service.registerPerson", () -> {
+            getService().registerPerson(person);
+            markDataChanged();
+            changeListeners.forEach(l -> l.personRegistered(person));
+            return null;
+        });
+    }
+
+    public void registerExpense(Expense expense, List<Attachment> attachments) throws Exception {
+        Metrics.getInstance().time("service.registerExpense", () -> {
+            getService().registerExpense(expense, attachments);
+            markDataChanged();
+            changeListeners.forEach(l -> l.expenseRegistered(expense));
+            return null;
+        });
+    }
+
+    public String runComplianceCheck(String year) throws Exception {
+        return Metrics.getInstance().time("service.runComplianceCheck", () -> {
+            String report = getService().runComplianceCheck(year);
+            markDataChanged();
+            return report;
+        });
+    }
+
     // --- NUOVE FUNZIONALITÀ CACHE ---
 
     public Path getCachePath() {
         return cachePath;
     }
 
+    /** Cartella delle miniature, accanto alla cache documenti. */
+    public Path getThumbnailPath() {
+        return dataPath.resolve("thumbnails");
+    }
+
+    public Path getDataPath() {
+        return dataPath;
+    }
+
+    /** Copia locale dei metadati, disponibile anche prima di {@link #init()}. */
+    public LocalReplica getReplica() {
+        return replica;
+    }
+
+    /** Indice di ricerca su tutti gli anni, persistito in {@link #getDataPath()}. */
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /** Journal dei salvataggi in corso, per ripeterli senza duplicare le spese. */
+    public SaveJournal getSaveJournal() {
+        return saveJournal;
+    }
+
+    /**
+     * Aggiorna l'indice di ricerca locale con le spese di un anno appena lette dal DB.
+     * Da chiamare fuori dal thread JavaFX.
+     */
+    public void indexYear(String year, List<Expense> expenses) {
+        searchIndex.indexYear(year, expenses);
+        searchIndex.save();
+    }
+
+    public DocumentCache getDocumentCache() {
+        return documentCache;
+    }
+
     /**
      * Scarica un documento in cache (Smart Caching).
-     * Se il file esiste già, ritorna quello senza scaricare.
+     * La chiave è il path relativo completo: se il file è già presente e integro
+     * ritorna quello senza scaricare, altrimenti lo scarica in modo atomico.
      */
     public File downloadDocument(Document doc) throws Exception {
-        if (!isReady()) init();
+        ensureReady();
 
-        // Ricaviamo il nome file dal path relativo
+        // Ricaviamo cartella e nome file dal path relativo
         File remoteFile = new File(doc.getRelativePath());
         String filename = remoteFile.getName();
         String parentPath = remoteFile.getParent() != null ? remoteFile.getParent() : "";
 
-        // File di destinazione
-        File localFile = cachePath.resolve(filename).toFile();
-
-        // SMART CACHE: Se esiste e ha contenuto, usalo
-        if (localFile.exists() && localFile.length() > 0) {
-            System.out.println("Cache Hit: " + filename);
-            return localFile;
-        }
-
-        System.out.println("Downloading: " + filename + " from " + parentPath);
-        // Download
-        try (InputStream is = storage.loadFile(parentPath, filename);
-             FileOutputStream fos = new FileOutputStream(localFile)) {
-            is.transferTo(fos);
-        }
+        return documentCache.get(doc.getRelativePath(), () -> storage.loadFile(parentPath, filename));
+    }
 
-        return localFile;
+    /** Legge un documento direttamente dallo share, senza passare dalla cache (es. verifiche di integrità). */
+    public InputStream openRemote(Document doc) throws Exception {
+        ensureReady();
+        File remoteFile = new File(doc.getRelativePath());
+        String parentPath = remoteFile.getParent() != null ? remoteFile.getParent() : "";
+        return storage.loadFile(parentPath, remoteFile.getName());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,128 @@
+package com.simonepugliese.taxreportgui.util;
+
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Esecutore unico per i task in background della GUI (virtual thread).
+ * <p>
+ * Ogni task appartiene a una {@link Category} con un limite di concorrenza proprio.
+ * Fa eccezione {@link Category#PREFETCH}: gira su pochi thread di piattaforma a priorità minima,
+ * perché i virtual thread non hanno priorità e il prefetch non deve contendere la CPU alla UI.
+ * {@link #supersede} annulla il task precedente con la stessa chiave (es. il caricamento
+ * della Dashboard quando si cambia anno di corsa). I task attivi sono osservabili dalla UI.
+ */
+public class TaskRunner {
+
+    public enum Category {
+        IO(4),
+        DOWNLOAD(3),
+        COMPLIANCE(1),
+        PREFETCH(2),
+        THUMBNAIL(2);
+
+        private final int maxConcurrent;
+
+        Category(int maxConcurrent) {
+            this.maxConcurrent = maxConcurrent;
+        }
+    }
+
+    private static TaskRunner instance;
+
+    private final ExecutorService executor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("taxreport-task-", 0).factory());
+    private final ExecutorService lowPriority = Executors.newFixedThreadPool(Category.PREFETCH.maxConcurrent,
+            Thread.ofPlatform().name("taxreport-prefetch-", 0).daemon(true).priority(Thread.MIN_PRIORITY).factory());
+    private final Map<Category, Semaphore> limits = new EnumMap<>(Category.class);
+    private final Map<String, Task<?>> latestByKey = new ConcurrentHashMap<>();
+
+    // Modificata solo sul thread JavaFX
+    private final ObservableList<Task<?>> activeTasks = FXCollections.observableArrayList();
+
+    private TaskRunner() {
+        for (Category c : Category.values()) limits.put(c, new Semaphore(c.maxConcurrent, true));
+    }
+
+    public static synchronized TaskRunner getInstance() {
+        if (instance == null) instance = new TaskRunner();
+        return instance;
+    }
+
+    /** Task in coda o in esecuzione (da leggere sul thread JavaFX). */
+    public ObservableList<Task<?>> getActiveTasks() {
+        return activeTasks;
+    }
+
+    /** Accoda un task nella categoria indicata. */
+    public <T> Task<T> submit(Category category, Task<T> task) {
+        onFx(() -> activeTasks.add(task));
+        Semaphore limit = limits.get(category);
+
+        ExecutorService target = category == Category.PREFETCH ? lowPriority : executor;
+        target.execute(() -> {
+            try {
+                limit.acquire();
+            } catch (InterruptedException e) {
+                onFx(() -> activeTasks.remove(task));
+                return;
+            }
+            // Tempo di esecuzione e task in corso per categoria (task.io, task.download, ...)
+            Metrics.Sample sample = Metrics.getInstance().start("task." + category.name().toLowerCase());
+            try {
+                // Se annullato mentre era in coda, run() non fa nulla
+                task.run();
+            } finally {
+                sample.stop();
+                limit.release();
+                onFx(() -> activeTasks.remove(task));
+            }
+        });
+        return task;
+    }
+
+    /**
+     * Come {@link #submit}, ma annulla prima l'ultimo task registrato con la stessa chiave.
+     */
+    public <T> Task<T> supersede(String key, Category category, Task<T> task) {
+        Task<?> previous = latestByKey.put(key, task);
+        if (previous != null && !previous.isDone()) previous.cancel(true);
+        return submit(category, task);
+    }
+
+    /** Esegue un'azione senza risultato come task con titolo. */
+    public Task<Void> run(Category category, String title, Runnable action) {
+        Task<Void> task = new Task<>() {
+            {
+                updateTitle(title);
+            }
+
+            @Override
+            protected Void call() {
+                action.run();
+                return null;
+            }
+        };
+        return submit(category, task);
+    }
+
+    /** Annulla tutto e rifiuta nuovi task (chiusura applicazione). */
+    public void shutdown() {
+        latestByKey.values().forEach(t -> t.cancel(true));
+        executor.shutdownNow();
+        lowPriority.shutdownNow();
+    }
+
+    private static void onFx(Runnable r) {
+        if (Platform.isFxApplicationThread()) r.run(); else Platform.runLater(r);
+    }
+}
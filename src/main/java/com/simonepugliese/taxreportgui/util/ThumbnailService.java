@@ -0,0 +1,289 @@
+package com.simonepugliese.taxreportgui.util;
+
+import javafx.concurrent.Task;
+import javafx.scene.image.Image;
+import pugliesesimone.taxreport.model.Document;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+/**
+ * Miniature e anteprime degli allegati immagine (JPEG, PNG, ...), senza aprire visualizzatori esterni.
+ * <p>
+ * I PDF non hanno miniatura: PDFBox non è un modulo esplicito (solo Automatic-Module-Name) e jlink non lo
+ * accetta nell'immagine dell'applicazione. Per i PDF la callback riceve subito {@code null}.
+ * <p>
+ * Le immagini ridotte sono PNG in una cartella accanto alla cache documenti e si generano una volta sola;
+ * in memoria resta solo un LRU di immagini decodificate entro {@link #MEMORY_BUDGET_BYTES}.
+ * Le richieste si fanno dal thread JavaFX e la callback arriva sullo stesso thread
+ * ({@code null} se l'allegato non è visualizzabile).
+ */
+public class ThumbnailService {
+
+    public enum Size {
+        THUMBNAIL(160),
+        PREVIEW(1200);
+
+        // Lato lungo in pixel
+        private final int maxPixels;
+
+        Size(int maxPixels) {
+            this.maxPixels = maxPixels;
+        }
+    }
+
+    private static final long MEMORY_BUDGET_BYTES = 48L * 1024 * 1024;
+    private static final Set<String> IMAGE_SUFFIXES = Set.of(ImageIO.getReaderFileSuffixes());
+
+    private static ThumbnailService instance;
+
+    private final Path dir;
+
+    // Ordine di accesso: il primo è il meno usato di recente
+    private final LinkedHashMap<String, Image> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private long memoryBytes;
+
+    // Richieste in corso per chiave (thread JavaFX): la stessa miniatura non si genera due volte
+    private final Map<String, List<Consumer<Image>>> pending = new HashMap<>();
+
+    private ThumbnailService() {
+        this.dir = ServiceManager.getInstance().getThumbnailPath();
+    }
+
+    public static synchronized ThumbnailService getInstance() {
+        if (instance == null) instance = new ThumbnailService();
+        return instance;
+    }
+
+    public Path getDirectory() {
+        return dir;
+    }
+
+    /**
+     * Allegato sul server chiesto esplicitamente dall'utente (es. apertura dell'anteprima).
+     * Se non è in cache lo scarica come task {@link TaskRunner.Category#DOWNLOAD}, col limite degli altri download.
+     */
+    public void request(Document doc, Size size, Consumer<Image> onReady) {
+        if (!isImage(doc.getRelativePath())) {
+            onReady.accept(null);
+            return;
+        }
+        if (isAvailable(doc, size)) {
+            request(DocumentCache.keyFor(doc.getRelativePath()), size, () -> cachedFile(doc), onReady);
+            return;
+        }
+
+        Task<File> download = new Task<>() {
+            {
+                updateTitle("Download " + new File(doc.getRelativePath()).getName());
+            }
+
+            @Override
+            protected File call() throws Exception {
+                return ServiceManager.getInstance().downloadDocument(doc);
+            }
+        };
+        download.setOnSucceeded(e ->
+                request(DocumentCache.keyFor(doc.getRelativePath()), size, download::getValue, onReady));
+        download.setOnFailed(e -> {
+            System.err.println("Anteprima non disponibile: " + download.getException().getMessage());
+            onReady.accept(null);
+        });
+        TaskRunner.getInstance().submit(TaskRunner.Category.DOWNLOAD, download);
+    }
+
+    /**
+     * Allegato sul server, solo se la miniatura o il file sono già in locale (es. tooltip al passaggio del mouse):
+     * non scarica mai. Altrimenti la callback riceve subito {@code null}.
+     */
+    public void requestCached(Document doc, Size size, Consumer<Image> onReady) {
+        if (!isImage(doc.getRelativePath()) || !isAvailable(doc, size)) {
+            onReady.accept(null);
+            return;
+        }
+        request(DocumentCache.keyFor(doc.getRelativePath()), size, () -> cachedFile(doc), onReady);
+    }
+
+    /** File locale non ancora caricato: la chiave cambia se il file viene modificato. */
+    public void request(File local, Size size, Consumer<Image> onReady) {
+        if (!isImage(local.getName())) {
+            onReady.accept(null);
+            return;
+        }
+        String identity = local.getAbsolutePath() + "|" + local.length() + "|" + local.lastModified();
+        request("local-" + hash(identity), size, () -> local, onReady);
+    }
+
+    private void request(String key, Size size, Callable<File> source, Consumer<Image> onReady) {
+        String fullKey = key + "-" + size.maxPixels;
+        Image cached = fromMemory(fullKey);
+        if (cached != null) {
+            Metrics.getInstance().increment("thumbnail.hit");
+            onReady.accept(cached);
+            return;
+        }
+
+        List<Consumer<Image>> waiting = pending.get(fullKey);
+        if (waiting != null) {
+            waiting.add(onReady);
+            return;
+        }
+        List<Consumer<Image>> callbacks = new ArrayList<>();
+        callbacks.add(onReady);
+        pending.put(fullKey, callbacks);
+
+        Task<Image> task = new Task<>() {
+            {
+                updateTitle("Anteprima");
+            }
+
+            @Override
+            protected Image call() throws Exception {
+                Path png = dir.resolve(fullKey + ".png");
+                if (!Files.exists(png)) {
+                    Metrics.getInstance().time("thumbnail.render", () -> {
+                        render(source.call(), png, size.maxPixels);
+                        return null;
+                    });
+                } else {
+                    // Data di modifica = ultimo uso: la manutenzione toglie solo quelle dimenticate
+                    Files.setLastModifiedTime(png, FileTime.fromMillis(System.currentTimeMillis()));
+                }
+                try (InputStream in = Files.newInputStream(png)) {
+                    return new Image(in);
+                }
+            }
+        };
+
+        task.setOnSucceeded(e -> {
+            Image image = task.getValue();
+            putMemory(fullKey, image);
+            pending.remove(fullKey).forEach(c -> c.accept(image));
+        });
+        task.setOnFailed(e -> {
+            System.err.println("Anteprima non disponibile: " + task.getException().getMessage());
+            pending.remove(fullKey).forEach(c -> c.accept(null));
+        });
+
+        TaskRunner.getInstance().submit(TaskRunner.Category.THUMBNAIL, task);
+    }
+
+    private boolean isAvailable(Document doc, Size size) {
+        String fullKey = DocumentCache.keyFor(doc.getRelativePath()) + "-" + size.maxPixels;
+        return fromMemory(fullKey) != null || Files.exists(dir.resolve(fullKey + ".png"))
+                || ServiceManager.getInstance().getDocumentCache().contains(doc.getRelativePath());
+    }
+
+    /** Copia in cache; se nel frattempo è stata tolta non si riscarica da qui. */
+    private static File cachedFile(Document doc) throws Exception {
+        return ServiceManager.getInstance().getDocumentCache().get(doc.getRelativePath(), () -> {
+            throw new IOException("Allegato non più in cache: " + doc.getRelativePath());
+        });
+    }
+
+    private static boolean isImage(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && IMAGE_SUFFIXES.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    // --- MEMORIA (LRU) ---
+
+    private synchronized Image fromMemory(String key) {
+        return memory.get(key);
+    }
+
+    private synchronized void putMemory(String key, Image image) {
+        Image previous = memory.put(key, image);
+        if (previous != null) memoryBytes -= bytesOf(previous);
+        memoryBytes += bytesOf(image);
+
+        Iterator<Map.Entry<String, Image>> it = memory.entrySet().iterator();
+        while (memoryBytes > MEMORY_BUDGET_BYTES && memory.size() > 1 && it.hasNext()) {
+            Map.Entry<String, Image> eldest = it.next();
+            memoryBytes -= bytesOf(eldest.getValue());
+            it.remove();
+        }
+    }
+
+    /** Svuota l'LRU in memoria (le miniature su disco restano). */
+    public synchronized void clearMemory() {
+        memory.clear();
+        memoryBytes = 0;
+    }
+
+    private static long bytesOf(Image image) {
+        // Immagini decodificate in ARGB: 4 byte per pixel
+        return (long) image.getWidth() * (long) image.getHeight() * 4;
+    }
+
+    // --- GENERAZIONE ---
+
+    private void render(File source, Path png, int maxPixels) throws IOException {
+        BufferedImage image = scale(ImageIO.read(source), maxPixels);
+        if (image == null) throw new IOException("Formato non supportato: " + source.getName());
+
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, "thumb", ".tmp");
+        try {
+            ImageIO.write(image, "png", tmp.toFile());
+            try {
+                Files.move(tmp, png, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, png, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage source, int maxPixels) {
+        if (source == null) return null;
+        double ratio = (double) maxPixels / Math.max(source.getWidth(), source.getHeight());
+        if (ratio >= 1) return source;
+
+        int w = Math.max(1, (int) Math.round(source.getWidth() * ratio));
+        int h = Math.max(1, (int) Math.round(source.getHeight() * ratio));
+        BufferedImage scaled = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(source, 0, 0, w, h, null);
+        } finally {
+            g.dispose();
+        }
+        return scaled;
+    }
+
+    private static String hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 12);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.simonepugliese.taxreportgui.util;
+
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+import javafx.scene.layout.BorderPane;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Viste principali caricate una volta sola e riusate a ogni navigazione.
+ * <p>
+ * Ogni FXML viene letto alla prima richiesta e il suo controller resta vivo: cambiare vista è solo
+ * uno scambio del nodo al centro del {@link BorderPane}. I controller che implementano
+ * {@link Lifecycle} ricevono {@code onShow}/{@code onHide} solo quando la vista cambia davvero, sempre
+ * alternati (mai due {@code onShow} di fila), e decidono da soli se i dati sono da ricaricare.
+ * Da usare solo sul thread JavaFX.
+ */
+public class ViewRegistry {
+
+    private static final String VIEW_DIR = "/com/simonepugliese/taxreportgui/view/";
+
+    public enum View {
+        DASHBOARD("DashboardView.fxml"),
+        ADD_EXPENSE("AddExpenseView.fxml"),
+        IMPORT("ImportView.fxml"),
+        EXPORT("ExportView.fxml"),
+        SETTINGS("SettingsView.fxml");
+
+        private final String fxml;
+
+        View(String fxml) {
+            this.fxml = fxml;
+        }
+    }
+
+    /** Hook opzionali per i controller delle viste. */
+    public interface Lifecycle {
+        /** La vista torna a video (anche la prima volta, dopo {@code initialize}). */
+        default void onShow() {}
+
+        /** La vista viene sostituita da un'altra. */
+        default void onHide() {}
+    }
+
+    private record Loaded(Parent root, Object controller) {}
+
+    private static ViewRegistry instance;
+
+    private final Map<View, Loaded> views = new EnumMap<>(View.class);
+    private BorderPane host;
+    private View current;
+
+    public static synchronized ViewRegistry getInstance() {
+        if (instance == null) instance = new ViewRegistry();
+        return instance;
+    }
+
+    /** Contenitore in cui mostrare le viste (il BorderPane principale). */
+    public void attach(BorderPane host) {
+        this.host = host;
+    }
+
+    public View getCurrent() {
+        return current;
+    }
+
+    /**
+     * Porta a video la vista (caricandola se serve) e ne ritorna il controller.
+     * Se è già quella a video non succede nulla.
+     */
+    @SuppressWarnings("unchecked")
+    public <C> C show(View view) {
+        Loaded target = load(view);
+        if (view != current) {
+            if (current != null && views.get(current).controller() instanceof Lifecycle l) l.onHide();
+            host.setCenter(target.root());
+            current = view;
+            if (target.controller() instanceof Lifecycle l) l.onShow();
+        }
+        return (C) target.controller();
+    }
+
+    /** Controller della vista, senza mostrarla. */
+    @SuppressWarnings("unchecked")
+    public <C> C controller(View view) {
+        return (C) load(view).controller();
+    }
+
+    private Loaded load(View view) {
+        Loaded loaded = views.get(view);
+        if (loaded != null) return loaded;
+
+        Metrics.Sample sample = Metrics.getInstance().start("ui.view.load");
+        try {
+            FXMLLoader loader = new FXMLLoader(ViewRegistry.class.getResource(VIEW_DIR + view.fxml));
+            Parent root = loader.load();
+            loaded = new Loaded(root, loader.getController());
+            views.put(view, loaded);
+            return loaded;
+        } catch (IOException e) {
+            throw new IllegalStateException("Vista non caricabile: " + view.fxml, e);
+        } finally {
+            sample.stop();
+        }
+    }
+}
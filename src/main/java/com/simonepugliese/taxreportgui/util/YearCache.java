@@ -0,0 +1,57 @@
+package com.simonepugliese.taxreportgui.util;
+
+import pugliesesimone.taxreport.metadata.MetadataInterface;
+import pugliesesimone.taxreport.model.Expense;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spese per anno lette dal server durante un lotto di salvataggi (coda, import, singolo salvataggio).
+ * <p>
+ * Ogni anno si legge una volta sola per lotto: le letture servono a ritrovare righe che esistevano già
+ * prima del lotto, per cui una copia letta a inizio lotto basta. Solo i controlli dopo un errore e la
+ * reindicizzazione finale chiedono una lettura fresca con {@link #fresh}.
+ */
+public class YearCache {
+
+    /** Lettura dal server (nei test, da una mappa). */
+    @FunctionalInterface
+    interface Loader<K, T> {
+        T load(K key) throws Exception;
+    }
+
+    private final Loader<String, List<Expense>> findByYear;
+    private final Loader<Void, List<String>> availableYears;
+    private final Map<String, List<Expense>> rows = new HashMap<>();
+    private List<String> years;
+
+    public YearCache(MetadataInterface metadata) {
+        this(metadata::findByYear, none -> metadata.getAvailableYears());
+    }
+
+    YearCache(Loader<String, List<Expense>> findByYear, Loader<Void, List<String>> availableYears) {
+        this.findByYear = findByYear;
+        this.availableYears = availableYears;
+    }
+
+    /** Spese dell'anno, lette al primo uso nel lotto. */
+    public synchronized List<Expense> get(String year) throws Exception {
+        List<Expense> expenses = rows.get(year);
+        return expenses != null ? expenses : fresh(year);
+    }
+
+    /** Rilegge l'anno dal server (e aggiorna la copia del lotto). */
+    public synchronized List<Expense> fresh(String year) throws Exception {
+        List<Expense> expenses = findByYear.load(year);
+        rows.put(year, expenses);
+        return expenses;
+    }
+
+    /** Anni disponibili sul server, letti una volta per lotto. */
+    public synchronized List<String> years() throws Exception {
+        if (years == null) years = availableYears.load(null);
+        return years;
+    }
+}
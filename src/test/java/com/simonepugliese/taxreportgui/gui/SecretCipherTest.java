@@ -0,0 +1,58 @@
+package com.simonepugliese.taxreportgui.gui;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SecretCipherTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void keyIsCreatedOnceAndSharedByInstances() throws Exception {
+        Path keyFile = dir.resolve("secret.key");
+        byte[] sealed = new SecretCipher(keyFile).encrypt("RSSMRA80A01H501U".getBytes(StandardCharsets.UTF_8));
+        String key = Files.readString(keyFile);
+
+        assertEquals("RSSMRA80A01H501U",
+                new String(new SecretCipher(keyFile).decrypt(sealed), StandardCharsets.UTF_8));
+        assertEquals(key, Files.readString(keyFile));
+        assertFalse(key.isBlank());
+
+        // Nessun file temporaneo rimasto accanto alla chiave
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void existingKeyIsNeverReplaced() throws Exception {
+        Path keyFile = dir.resolve("secret.key");
+        SecretCipher first = new SecretCipher(keyFile);
+        byte[] sealed = first.encrypt(new byte[]{1, 2, 3});
+
+        // Un'altra istanza (o un altro processo) trova la chiave già pronta e la usa
+        SecretCipher second = new SecretCipher(keyFile);
+        second.encrypt(new byte[]{4});
+
+        assertEquals(3, first.decrypt(sealed).length);
+    }
+
+    @Test
+    void tamperedDataIsRejected() throws Exception {
+        SecretCipher cipher = new SecretCipher(dir.resolve("secret.key"));
+        byte[] sealed = cipher.encrypt("dato".getBytes(StandardCharsets.UTF_8));
+        sealed[sealed.length - 1]++;
+
+        assertThrows(GeneralSecurityException.class, () -> cipher.decrypt(sealed));
+        assertEquals(4, SecretCipher.plainLength(cipher.encrypt("dato".getBytes(StandardCharsets.UTF_8)).length));
+    }
+}
@@ -0,0 +1,139 @@
+package com.simonepugliese.taxreportgui.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pugliesesimone.taxreport.model.DocumentType;
+import pugliesesimone.taxreport.model.Expense;
+import pugliesesimone.taxreport.model.ExpenseState;
+import pugliesesimone.taxreport.model.ExpenseType;
+import pugliesesimone.taxreport.model.Person;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AttachmentUploaderTest {
+
+    private static final Person MARIO = new Person("Mario Rossi", "RSSMRA80A01H501U");
+
+    @TempDir
+    Path dir;
+
+    private final Map<String, List<Expense>> server = new HashMap<>();
+    private final List<String> reads = new ArrayList<>();
+
+    // --- RICONCILIAZIONE ---
+
+    @Test
+    void createdRowIsTheOnlyNewRowWithTheSameFields() throws Exception {
+        server.put("2025", List.of(
+                expense(1L, "Farmacia"),
+                expense(2L, "Visita"),
+                expense(5L, "Farmacia")));
+        SaveJournal.Record record = new SaveJournal.Record("op", "2025", Set.of(1L, 2L));
+
+        Expense created = AttachmentUploader.findCreated(expense(null, "Farmacia"), record, cache(), false);
+
+        assertEquals(5L, (long) created.getId());
+    }
+
+    @Test
+    void notCreatedYetIsNull() throws Exception {
+        server.put("2025", List.of(expense(1L, "Farmacia")));
+        SaveJournal.Record record = new SaveJournal.Record("op", "2025", Set.of(1L));
+
+        assertNull(AttachmentUploader.findCreated(expense(null, "Farmacia"), record, cache(), false));
+    }
+
+    @Test
+    void twoIdenticalNewRowsAreNotGuessed() {
+        // Un'altra postazione ha salvato la stessa spesa nel frattempo: non si sa quale sia la nostra
+        server.put("2025", List.of(expense(4L, "Farmacia"), expense(5L, "Farmacia")));
+        SaveJournal.Record record = new SaveJournal.Record("op", "2025", Set.of());
+
+        assertThrows(IllegalStateException.class,
+                () -> AttachmentUploader.findCreated(expense(null, "Farmacia"), record, cache(), false));
+    }
+
+    @Test
+    void existingExpenseIsLookedUpInItsOwnYearFirst() throws Exception {
+        server.put("2024", List.of(expense(9L, "Farmacia")));
+        server.put("2025", List.of(expense(1L, "Visita")));
+
+        YearCache years = cache();
+        assertEquals(1L, (long) AttachmentUploader.findById(1L, "2025", years, false).getId());
+        assertEquals(List.of("2025"), reads);
+
+        // Anno cambiato nel frattempo: si cercano gli altri anni, una lettura per anno
+        assertEquals(9L, (long) AttachmentUploader.findById(9L, "2025", years, false).getId());
+        assertEquals(List.of("2025", "years", "2024"), reads);
+    }
+
+    @Test
+    void freshLookupRereadsTheYear() throws Exception {
+        server.put("2025", List.of(expense(1L, "Visita")));
+        YearCache years = cache();
+        assertNull(AttachmentUploader.findById(2L, "2025", years, false));
+
+        server.put("2025", List.of(expense(1L, "Visita"), expense(2L, "Farmacia")));
+        assertNull(AttachmentUploader.findById(2L, "2025", years, false));
+        assertEquals(2L, (long) AttachmentUploader.findById(2L, "2025", years, true).getId());
+    }
+
+    // --- CONFRONTO CONTENUTI ---
+
+    @Test
+    void remoteMatchesTheFileWithTheSameBytes() throws Exception {
+        byte[] content = new byte[200_000];
+        for (int i = 0; i < content.length; i++) content[i] = (byte) i;
+        byte[] other = content.clone();
+        other[150_000]++;
+
+        List<AttachmentUploader.LocalAttachment> files = List.of(file("a", other), file("b", content));
+
+        assertEquals(1, AttachmentUploader.firstEqual(new ByteArrayInputStream(content), files));
+    }
+
+    @Test
+    void prefixOrLongerFileIsNotAMatch() throws Exception {
+        List<AttachmentUploader.LocalAttachment> files =
+                List.of(file("short", new byte[]{1, 2}), file("long", new byte[]{1, 2, 3, 4}));
+
+        assertEquals(-1, AttachmentUploader.firstEqual(new ByteArrayInputStream(new byte[]{1, 2, 3}), files));
+        assertEquals(-1, AttachmentUploader.firstEqual(new ByteArrayInputStream(new byte[]{1, 2}), List.of()));
+    }
+
+    @Test
+    void emptyRemoteMatchesEmptyFile() throws Exception {
+        List<AttachmentUploader.LocalAttachment> files = List.of(file("full", new byte[]{1}), file("empty", new byte[0]));
+
+        assertEquals(1, AttachmentUploader.firstEqual(new ByteArrayInputStream(new byte[0]), files));
+    }
+
+    private YearCache cache() {
+        return new YearCache(year -> {
+            reads.add(year);
+            return server.getOrDefault(year, List.of());
+        }, none -> {
+            reads.add("years");
+            return List.copyOf(new TreeSet<>(server.keySet()));
+        });
+    }
+
+    private AttachmentUploader.LocalAttachment file(String name, byte[] content) throws Exception {
+        return new AttachmentUploader.LocalAttachment(Files.write(dir.resolve(name), content).toFile(),
+                DocumentType.FATTURA, name);
+    }
+
+    private static Expense expense(Long id, String description) {
+        return new Expense(id, "2025", MARIO, ExpenseType.VISITA_MEDICA, description, "10/03/2025", ExpenseState.COMPLETED);
+    }
+}
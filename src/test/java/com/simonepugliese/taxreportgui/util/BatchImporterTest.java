@@ -0,0 +1,87 @@
+package com.simonepugliese.taxreportgui.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pugliesesimone.taxreport.model.ExpenseType;
+import pugliesesimone.taxreport.model.Person;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchImporterTest {
+
+    private static final Person MARIO = new Person("Mario Rossi", "RSSMRA80A01H501U");
+
+    @TempDir
+    Path dir;
+
+    // --- CSV ---
+
+    @Test
+    void splitCsvHandlesQuotes() {
+        assertEquals(List.of("a", "b", "c"), BatchImporter.splitCsv("a;b;c", ';'));
+        assertEquals(List.of("a;b", "c"), BatchImporter.splitCsv("\"a;b\";c", ';'));
+        assertEquals(List.of("detto \"così\"", ""), BatchImporter.splitCsv("\"detto \"\"così\"\"\",", ','));
+        assertEquals(List.of(""), BatchImporter.splitCsv("", ';'));
+    }
+
+    // --- MANIFEST ---
+
+    @Test
+    void manifestRowsBecomeItems() throws Exception {
+        Files.writeString(dir.resolve("a.pdf"), "a");
+        Files.writeString(dir.resolve("b.pdf"), "b");
+        Path manifest = manifest("""
+                file;codice_fiscale;tipo;data;descrizione
+                # commento
+                a.pdf | b.pdf;rssmra80a01h501u;visita medica;05/02/2024;Visita di controllo
+                """);
+
+        List<BatchImporter.Item> items = BatchImporter.readManifest(manifest, List.of(MARIO));
+
+        assertEquals(1, items.size());
+        BatchImporter.Item item = items.get(0);
+        assertEquals(BatchImporter.Status.PENDING, item.getStatus());
+        assertEquals(3, item.getLine());
+        assertEquals(List.of(dir.resolve("a.pdf"), dir.resolve("b.pdf")),
+                item.getFiles().stream().map(Path::toAbsolutePath).toList());
+        assertSame(MARIO, item.getPerson());
+        assertEquals(ExpenseType.VISITA_MEDICA, item.getType());
+        assertEquals("2024", item.getYear());
+        assertEquals("05/02/2024", item.getRawDate());
+        assertEquals("Visita di controllo", item.getDescription());
+    }
+
+    @Test
+    void invalidRowsAreReportedNotDropped() throws Exception {
+        Files.writeString(dir.resolve("a.pdf"), "a");
+        Path manifest = manifest("""
+                manca.pdf,RSSMRA80A01H501U,VISITA_MEDICA,05/02/2024,File assente
+                a.pdf,XXXXXX00X00X000X,VISITA_MEDICA,05/02/2024,Persona sconosciuta
+                a.pdf,RSSMRA80A01H501U,VISITA_MEDICA,2024-02-05,Data sbagliata
+                a.pdf,RSSMRA80A01H501U,NON_ESISTE,05/02/2024,Tipo sbagliato
+                a.pdf,RSSMRA80A01H501U
+                """);
+
+        List<BatchImporter.Item> items = BatchImporter.readManifest(manifest, List.of(MARIO));
+
+        assertEquals(5, items.size());
+        for (BatchImporter.Item item : items) {
+            assertEquals(BatchImporter.Status.FAILED, item.getStatus());
+            assertFalse(item.getMessage().isEmpty());
+        }
+        assertTrue(items.get(0).getMessage().contains("manca.pdf"));
+        assertTrue(items.get(1).getMessage().contains("XXXXXX00X00X000X"));
+        assertEquals(5, items.get(4).getLine());
+    }
+
+    private Path manifest(String content) throws Exception {
+        Path manifest = dir.resolve("manifest.csv");
+        Files.writeString(manifest, content, StandardCharsets.UTF_8);
+        return manifest;
+    }
+}
@@ -0,0 +1,57 @@
+package com.simonepugliese.taxreportgui.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pugliesesimone.taxreport.model.DocumentType;
+import pugliesesimone.taxreport.model.Expense;
+import pugliesesimone.taxreport.model.ExpenseState;
+import pugliesesimone.taxreport.model.ExpenseType;
+import pugliesesimone.taxreport.model.Person;
+
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ComplianceEngineTest {
+
+    @TempDir
+    Path userDir;
+
+    @Test
+    void expenseWithoutDocumentsMissesEveryRequiredType() throws Exception {
+        ComplianceRules rules = ComplianceRules.load("2025", List.of());
+
+        ComplianceEngine.Result result = ComplianceEngine.evaluate(rules, expense(1L, ExpenseType.PAGAMENTO_UNIVERSITARIO));
+
+        assertFalse(result.compliant());
+        assertEquals(EnumSet.of(DocumentType.FATTURA, DocumentType.RICEVUTA_PAGAMENTO), result.missing());
+    }
+
+    @Test
+    void checkReturnsOnlyExpensesChangedSinceTheLastRun() throws Exception {
+        ComplianceEngine engine = new ComplianceEngine(List.of(userDir));
+        List<Expense> expenses = List.of(expense(1L, ExpenseType.VISITA_MEDICA), expense(2L, ExpenseType.VISITA_VETERINARIA));
+
+        assertEquals(2, engine.check("2025", expenses).size());
+        assertTrue(engine.check("2025", expenses).isEmpty());
+        assertFalse(engine.lastResult(1L).compliant());
+    }
+
+    @Test
+    void yearWithoutRulesFailsInsteadOfPassing() throws Exception {
+        ComplianceEngine engine = new ComplianceEngine(List.of(userDir));
+
+        assertNull(engine.rulesFor("2020"));
+        assertThrows(IllegalStateException.class,
+                () -> engine.check("2020", List.of(expense(1L, ExpenseType.VISITA_MEDICA))));
+    }
+
+    private static Expense expense(long id, ExpenseType type) {
+        Expense e = new Expense(id, "2025", new Person("Mario Rossi", "RSSMRA80A01H501U"), type,
+                "Spesa " + id, "10/03/2025", ExpenseState.COMPLETED);
+        e.setDocuments(List.of());
+        return e;
+    }
+}
@@ -0,0 +1,112 @@
+package com.simonepugliese.taxreportgui.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pugliesesimone.taxreport.model.DocumentType;
+import pugliesesimone.taxreport.model.ExpenseType;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ComplianceRulesTest {
+
+    @TempDir
+    Path userDir;
+
+    // --- PARSER ---
+
+    @Test
+    void parseReadsKeysAndArraysInOrder() {
+        Map<String, List<String>> rules = ComplianceRules.parse("""
+                {
+                  "VISITA_MEDICA": ["FATTURA", "RICEVUTA_PAGAMENTO"],
+                  "VISITA_VETERINARIA" : [ ]
+                }
+                """);
+
+        assertEquals(List.of("VISITA_MEDICA", "VISITA_VETERINARIA"), List.copyOf(rules.keySet()));
+        assertEquals(List.of("FATTURA", "RICEVUTA_PAGAMENTO"), rules.get("VISITA_MEDICA"));
+        assertEquals(List.of(), rules.get("VISITA_VETERINARIA"));
+    }
+
+    @Test
+    void parseAcceptsEmptyObjectAndEscapes() {
+        assertTrue(ComplianceRules.parse(" { } ").isEmpty());
+        assertEquals(List.of("A\"B"), ComplianceRules.parse("{\"K\": [\"A\\\"B\"]}").get("K"));
+    }
+
+    @Test
+    void parseRejectsMalformedJson() {
+        assertThrows(IllegalArgumentException.class, () -> ComplianceRules.parse(""));
+        assertThrows(IllegalArgumentException.class, () -> ComplianceRules.parse("{\"K\": [\"A\"]"));
+        assertThrows(IllegalArgumentException.class, () -> ComplianceRules.parse("{\"K\": \"A\"}"));
+        assertThrows(IllegalArgumentException.class, () -> ComplianceRules.parse("{\"K\": [\"A]}"));
+    }
+
+    // --- SCELTA DEL FILE ---
+
+    @Test
+    void bundledRulesCoverTheirYearAndLaterYears() throws Exception {
+        ComplianceRules same = ComplianceRules.load("2025", List.of());
+        ComplianceRules later = ComplianceRules.load("2030", List.of());
+
+        assertEquals("2025", same.getVersion());
+        assertEquals("2025", later.getVersion());
+        assertEquals(EnumSet.of(DocumentType.FATTURA, DocumentType.RICEVUTA_PAGAMENTO),
+                same.requiredFor(ExpenseType.PAGAMENTO_UNIVERSITARIO));
+    }
+
+    @Test
+    void yearBeforeTheFirstRulesFileHasNoRules() throws Exception {
+        assertNull(ComplianceRules.load("2024", List.of()));
+
+        writeUserRules(2023, "{\"VISITA_MEDICA\": [\"FATTURA\"]}");
+        assertNull(ComplianceRules.load("2022", List.of(userDir)));
+    }
+
+    @Test
+    void userFileFillsTheYearsBeforeTheBundledOnes() throws Exception {
+        writeUserRules(2023, "{\"VISITA_MEDICA\": [\"FATTURA\"]}");
+
+        ComplianceRules rules = ComplianceRules.load("2024", List.of(userDir));
+
+        assertEquals("2023", rules.getVersion());
+        assertEquals(EnumSet.of(DocumentType.FATTURA), rules.requiredFor(ExpenseType.VISITA_MEDICA));
+        // Per il 2025 c'è un file incluso più recente di quello dell'utente
+        assertEquals("2025", ComplianceRules.load("2025", List.of(userDir)).getVersion());
+    }
+
+    @Test
+    void userFileOverridesTheBundledOneOfTheSameYear() throws Exception {
+        writeUserRules(2025, "{\"VISITA_MEDICA\": [\"RICEVUTA_PAGAMENTO\"]}");
+
+        ComplianceRules rules = ComplianceRules.load("2025", List.of(userDir));
+
+        assertEquals(EnumSet.of(DocumentType.RICEVUTA_PAGAMENTO), rules.requiredFor(ExpenseType.VISITA_MEDICA));
+        assertTrue(rules.requiredFor(ExpenseType.PAGAMENTO_UNIVERSITARIO).isEmpty());
+    }
+
+    @Test
+    void unknownNamesAreSkipped() throws Exception {
+        writeUserRules(2025, "{\"NON_ESISTE\": [\"FATTURA\"], \"VISITA_MEDICA\": [\"FATTURA\", \"NON_ESISTE\"]}");
+
+        ComplianceRules rules = ComplianceRules.load("2025", List.of(userDir));
+
+        assertEquals(EnumSet.of(DocumentType.FATTURA), rules.requiredFor(ExpenseType.VISITA_MEDICA));
+    }
+
+    @Test
+    void nonNumericYearHasNoRules() throws Exception {
+        assertNull(ComplianceRules.load("tutti", List.of()));
+    }
+
+    private void writeUserRules(int year, String json) throws Exception {
+        Files.writeString(userDir.resolve("rules_" + year + ".json"), json, StandardCharsets.UTF_8);
+    }
+}
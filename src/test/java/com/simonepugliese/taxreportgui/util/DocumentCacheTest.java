@@ -0,0 +1,120 @@
+package com.simonepugliese.taxreportgui.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentCacheTest {
+
+    @TempDir
+    Path root;
+
+    private final AtomicInteger downloads = new AtomicInteger();
+
+    @Test
+    void secondGetIsAHit() throws Exception {
+        DocumentCache cache = new DocumentCache(root, 1_000_000);
+
+        File first = cache.get("2025/Mario/scontrino.pdf", source("contenuto"));
+        File second = cache.get("2025/Mario/scontrino.pdf", source("altro"));
+
+        assertEquals(1, downloads.get());
+        assertEquals(first, second);
+        assertEquals("contenuto", Files.readString(second.toPath()));
+        assertNotNull(cache.sha256Of("2025/Mario/scontrino.pdf"));
+    }
+
+    @Test
+    void sameNameInDifferentFoldersDoesNotCollide() throws Exception {
+        DocumentCache cache = new DocumentCache(root, 1_000_000);
+
+        File a = cache.get("2025/Mario/scontrino.pdf", source("mario"));
+        File b = cache.get("2025/Anna/scontrino.pdf", source("anna"));
+
+        assertNotEquals(a, b);
+        assertEquals("mario", Files.readString(a.toPath()));
+        assertEquals("anna", Files.readString(b.toPath()));
+    }
+
+    @Test
+    void replacedLocalCopyIsDownloadedAgain() throws Exception {
+        DocumentCache cache = new DocumentCache(root, 1_000_000);
+        File file = cache.get("2025/referto.pdf", source("originale"));
+
+        // Stessa dimensione, contenuto diverso, data cambiata
+        Files.writeString(file.toPath(), "alterato!");
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+
+        File again = cache.get("2025/referto.pdf", source("originale"));
+        assertEquals(2, downloads.get());
+        assertEquals("originale", Files.readString(again.toPath()));
+    }
+
+    @Test
+    void indexSurvivesRestart() throws Exception {
+        DocumentCache cache = new DocumentCache(root, 1_000_000);
+        cache.get("2025/referto.pdf", source("contenuto"));
+        cache.flush();
+
+        DocumentCache reopened = new DocumentCache(root, 1_000_000);
+        reopened.open();
+        assertTrue(reopened.contains("2025/referto.pdf"));
+        assertEquals(9, reopened.getTotalBytes());
+        reopened.get("2025/referto.pdf", source("altro"));
+        assertEquals(1, downloads.get());
+    }
+
+    @Test
+    void indexOfAnotherFormatEmptiesTheFolder() throws Exception {
+        Files.writeString(root.resolve("cache.index"), "TAXREPORT-CACHE v1\nabc\t9\tx\t0\tabc_a.pdf\t2025/a.pdf\n");
+        Files.writeString(root.resolve("abc_a.pdf"), "vecchio!!");
+
+        DocumentCache cache = new DocumentCache(root, 1_000_000);
+        cache.open();
+
+        assertEquals(0, cache.size());
+        assertFalse(Files.exists(root.resolve("abc_a.pdf")));
+    }
+
+    @Test
+    void leastRecentlyUsedGoesFirstButPinnedStays() throws Exception {
+        DocumentCache cache = new DocumentCache(root, 25);
+        cache.get("a.pdf", source("aaaaaaaaaa"));
+        cache.setPinned("a.pdf", true);
+        cache.get("b.pdf", source("bbbbbbbbbb"));
+        cache.get("c.pdf", source("cccccccccc"));
+
+        assertTrue(cache.contains("a.pdf"));
+        assertFalse(cache.contains("b.pdf"));
+        assertTrue(cache.contains("c.pdf"));
+        assertEquals(20, cache.getTotalBytes());
+    }
+
+    @Test
+    void verifyDropsACorruptCopy() throws Exception {
+        DocumentCache cache = new DocumentCache(root, 1_000_000);
+        File file = cache.get("2025/referto.pdf", source("contenuto"));
+        assertEquals(DocumentCache.Integrity.VALID, cache.verify("2025/referto.pdf"));
+
+        Files.writeString(file.toPath(), "troncato");
+        assertEquals(DocumentCache.Integrity.CORRUPT, cache.verify("2025/referto.pdf"));
+        assertFalse(cache.contains("2025/referto.pdf"));
+        assertEquals(DocumentCache.Integrity.NOT_CACHED, cache.verify("2025/referto.pdf"));
+    }
+
+    private DocumentCache.Source source(String content) {
+        return () -> {
+            downloads.incrementAndGet();
+            return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+        };
+    }
+}
@@ -0,0 +1,61 @@
+package com.simonepugliese.taxreportgui.util;
+
+import org.junit.jupiter.api.Test;
+import pugliesesimone.taxreport.model.Expense;
+import pugliesesimone.taxreport.model.ExpenseState;
+import pugliesesimone.taxreport.model.ExpenseType;
+import pugliesesimone.taxreport.model.Person;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpensePagerTest {
+
+    private static final Person MARIO = new Person("Mario Rossi", "RSSMRA80A01H501U");
+
+    @Test
+    void sortIsNewestDateFirstThenNumericId() {
+        List<Expense> page = new ArrayList<>(List.of(
+                expense(10L, "05/02/2025"),
+                expense(9L, "05/02/2025"),
+                expense(null, "05/02/2025"),
+                expense(2L, "non-una-data"),
+                expense(1L, "20/12/2025")));
+
+        ExpensePager.sort(page);
+
+        // 9 prima di 10: confronto numerico, non testuale
+        assertEquals(List.of("1", "9", "10", "null", "2"), page.stream().map(e -> String.valueOf(e.getId())).toList());
+    }
+
+    @Test
+    void windowKeepsAtMostMaxPages() throws Exception {
+        Map<String, List<Expense>> data = Map.of(
+                "2023", List.of(expense(1L, "01/01/2023")),
+                "2024", List.of(expense(2L, "01/01/2024"), expense(3L, "02/01/2024")),
+                "2025", List.of(expense(4L, "01/01/2025")));
+        ExpensePager pager = new ExpensePager(List.of("2023", "2025", "2024"), data::get, 2);
+
+        assertEquals("2025", pager.nextYear());
+        assertEquals(0, pager.commitNext(pager.fetch("2025")));
+        assertEquals(0, pager.commitNext(pager.fetch(pager.nextYear())));
+        // La terza pagina fa uscire la più recente (2025, una riga)
+        assertEquals(1, pager.commitNext(pager.fetch(pager.nextYear())));
+        assertEquals(List.of("2024", "2023"), pager.getLoadedYears());
+        assertFalse(pager.hasNext());
+
+        assertEquals("2025", pager.previousYear());
+        // Tornando indietro esce la pagina in fondo (2023, una riga)
+        assertEquals(1, pager.commitPrevious(pager.fetch("2025")));
+        assertEquals(List.of("2025", "2024"), pager.getLoadedYears());
+        assertFalse(pager.hasPrevious());
+    }
+
+    private static Expense expense(Long id, String rawDate) {
+        return new Expense(id, rawDate.length() == 10 ? rawDate.substring(6) : "2025", MARIO,
+                ExpenseType.VISITA_MEDICA, "Visita", rawDate, ExpenseState.COMPLETED);
+    }
+}
@@ -0,0 +1,93 @@
+package com.simonepugliese.taxreportgui.util;
+
+import org.junit.jupiter.api.Test;
+import pugliesesimone.taxreport.model.Expense;
+import pugliesesimone.taxreport.model.ExpenseState;
+import pugliesesimone.taxreport.model.ExpenseType;
+import pugliesesimone.taxreport.model.Person;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpenseSyncTest {
+
+    private static final Person PERSON = new Person("Mario Rossi", "RSSMRA80A01H501U");
+
+    @Test
+    void firstDiffOfAYearIsAFullLoad() {
+        ExpenseSync sync = new ExpenseSync();
+        List<Expense> rows = List.of(expense(1L, "a"), expense(2L, "b"));
+
+        assertFalse(sync.isIncremental("2025"));
+        ExpenseSync.Delta delta = sync.diff("2025", rows);
+
+        assertEquals(rows, delta.added());
+        assertTrue(delta.changed().isEmpty());
+        assertTrue(delta.removedIds().isEmpty());
+        assertTrue(sync.isIncremental("2025"));
+    }
+
+    @Test
+    void secondDiffReportsOnlyTheDifferences() {
+        ExpenseSync sync = new ExpenseSync();
+        sync.diff("2025", List.of(expense(1L, "a"), expense(2L, "b"), expense(3L, "c")));
+
+        Expense changed = expense(2L, "b modificata");
+        Expense added = expense(4L, "d");
+        ExpenseSync.Delta delta = sync.diff("2025", List.of(expense(1L, "a"), changed, added));
+
+        assertEquals(List.of(added), delta.added());
+        assertEquals(List.of(changed), delta.changed());
+        assertEquals(Set.of(3L), delta.removedIds());
+        assertTrue(sync.diff("2025", List.of(expense(1L, "a"), changed, added)).isEmpty());
+    }
+
+    @Test
+    void anotherYearOrResetStartsOver() {
+        ExpenseSync sync = new ExpenseSync();
+        sync.diff("2025", List.of(expense(1L, "a")));
+
+        assertEquals(1, sync.diff("2024", List.of(expense(1L, "a"))).added().size());
+        assertEquals("2024", sync.getYear());
+
+        sync.reset();
+        assertNull(sync.getYear());
+        assertEquals(1, sync.diff("2024", List.of(expense(1L, "a"))).added().size());
+    }
+
+    @Test
+    void applyToKeepsUnchangedRowsInPlace() {
+        ExpenseSync sync = new ExpenseSync();
+        List<Expense> target = new ArrayList<>(List.of(expense(1L, "a"), expense(2L, "b"), expense(3L, "c")));
+        sync.diff("2025", target);
+
+        Expense changed = expense(3L, "c modificata");
+        Expense added = expense(4L, "d");
+        sync.diff("2025", List.of(target.get(0), changed, added)).applyTo(target);
+
+        assertEquals(List.of(1L, 3L, 4L), target.stream().map(Expense::getId).toList());
+        assertSame(changed, target.get(1));
+    }
+
+    @Test
+    void everyFieldCountsAsAChange() {
+        ExpenseSync sync = new ExpenseSync();
+        sync.diff("2025", List.of(expense(1L, "a")));
+
+        Expense otherPerson = new Expense(1L, "2025", new Person("Anna Bianchi", "BNCNNA85B41F205X"),
+                ExpenseType.VISITA_MEDICA, "a", "10/03/2025", ExpenseState.COMPLETED);
+        assertEquals(List.of(otherPerson), sync.diff("2025", List.of(otherPerson)).changed());
+
+        Expense otherDate = new Expense(1L, "2025", otherPerson.getPerson(),
+                ExpenseType.VISITA_MEDICA, "a", "11/03/2025", ExpenseState.COMPLETED);
+        assertEquals(List.of(otherDate), sync.diff("2025", List.of(otherDate)).changed());
+    }
+
+    private static Expense expense(long id, String description) {
+        return new Expense(id, "2025", PERSON, ExpenseType.VISITA_MEDICA, description, "10/03/2025",
+                ExpenseState.COMPLETED);
+    }
+}
@@ -0,0 +1,87 @@
+package com.simonepugliese.taxreportgui.util;
+
+import org.junit.jupiter.api.Test;
+import pugliesesimone.taxreport.model.Expense;
+import pugliesesimone.taxreport.model.ExpenseState;
+import pugliesesimone.taxreport.model.ExpenseType;
+import pugliesesimone.taxreport.model.Person;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FilterIndexTest {
+
+    private static final Person MARIO = new Person("Mario Rossi", "RSSMRA80A01H501U");
+    private static final Person ANNA = new Person("Anna Bianchi", "BNCNNA85B41F205X");
+
+    private static final Map<String, Function<Expense, Object>> DIMENSIONS = Map.of(
+            "person", e -> e.getPerson().getFiscalCode(),
+            "type", Expense::getExpenseType);
+
+    private final List<Expense> rows = List.of(
+            expense(1L, MARIO, ExpenseType.VISITA_MEDICA),
+            expense(2L, ANNA, ExpenseType.VISITA_MEDICA),
+            expense(3L, MARIO, ExpenseType.PAGAMENTO_UNIVERSITARIO),
+            expense(4L, ANNA, ExpenseType.VISITA_VETERINARIA));
+
+    @Test
+    void matchIsAnOrOfTheSelectedValues() {
+        FilterIndex index = FilterIndex.build(rows, DIMENSIONS);
+
+        assertEquals(4, index.size());
+        assertEquals(bits(0, 2), index.match("person", Set.of(MARIO.getFiscalCode())));
+        assertEquals(bits(0, 1, 3), index.match("type", Set.of(ExpenseType.VISITA_MEDICA, ExpenseType.VISITA_VETERINARIA)));
+        assertEquals(bits(), index.match("type", Set.of("sconosciuto")));
+    }
+
+    @Test
+    void positionsFollowTheSourceOrder() {
+        FilterIndex index = FilterIndex.build(rows, DIMENSIONS);
+
+        assertEquals(bits(0, 1, 2, 3), index.all());
+        assertEquals(2, index.positionOf(rows.get(2)));
+        assertSame(rows.get(3), index.rowAt(3));
+        assertEquals(bits(1, 3), index.bitsOf(List.of(rows.get(1), rows.get(3))));
+        // Stessi campi ma altra istanza: non è una riga dell'indice
+        assertEquals(-1, index.positionOf(expense(1L, MARIO, ExpenseType.VISITA_MEDICA)));
+    }
+
+    @Test
+    void unknownDimensionIsRejected() {
+        FilterIndex index = FilterIndex.build(rows, DIMENSIONS);
+
+        assertThrows(IllegalArgumentException.class, () -> index.match("data", Set.of("2025")));
+        assertEquals(0, FilterIndex.empty().all().cardinality());
+    }
+
+    @Test
+    void expenseFilterCombinesDimensionsAndChecksLateRows() {
+        ExpenseFilter filter = new ExpenseFilter(e -> e.getPerson().getFiscalCode());
+        filter.markStale();
+        filter.apply(rows, Set.of(ANNA.getFiscalCode()), Set.of(ExpenseType.VISITA_MEDICA), null);
+
+        assertEquals(List.of(2L), rows.stream().filter(filter).map(Expense::getId).toList());
+
+        // Riga arrivata dopo l'indice: verificata direttamente, anche contro la ricerca
+        Expense late = expense(5L, ANNA, ExpenseType.VISITA_MEDICA);
+        assertTrue(filter.test(late));
+        filter.apply(rows, Set.of(), Set.of(), Set.of("1", "5"));
+        assertTrue(filter.test(late));
+        assertEquals(List.of(1L), rows.stream().filter(filter).map(Expense::getId).toList());
+    }
+
+    private static BitSet bits(int... positions) {
+        BitSet bits = new BitSet();
+        for (int p : positions) bits.set(p);
+        return bits;
+    }
+
+    private static Expense expense(long id, Person person, ExpenseType type) {
+        return new Expense(id, "2025", person, type, "Spesa " + id, "10/03/2025", ExpenseState.COMPLETED);
+    }
+}
@@ -0,0 +1,99 @@
+package com.simonepugliese.taxreportgui.util;
+
+import com.simonepugliese.taxreportgui.gui.SecretCipher;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pugliesesimone.taxreport.model.Expense;
+import pugliesesimone.taxreport.model.ExpenseState;
+import pugliesesimone.taxreport.model.ExpenseType;
+import pugliesesimone.taxreport.model.Person;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class LocalReplicaTest {
+
+    private static final Person MARIO = new Person("Mario Rossi", "RSSMRA80A01H501U");
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void loadedYearIsReadBackAfterRestart() {
+        assumeTrue(serializableModels());
+        LocalReplica replica = newReplica();
+        replica.update(List.of("2024", "2025"), "2025", List.of(expense(1L, "Visita oculistica")), List.of(MARIO));
+
+        LocalReplica reopened = newReplica();
+        assertNull(reopened.getDisabledReason());
+        assertEquals("2025", reopened.getLastYear());
+        assertEquals(List.of("2024", "2025"), reopened.getAvailableYears());
+        assertTrue(reopened.hasYear("2025"));
+        assertFalse(reopened.hasYear("2024"));
+        assertEquals("Mario Rossi", reopened.getAllPersons().get(0).getName());
+        assertEquals("Visita oculistica", reopened.findByYear("2025").get(0).getDescription());
+        assertTrue(reopened.findByYear("2024").isEmpty());
+    }
+
+    @Test
+    void updatingAYearKeepsTheOthers() {
+        assumeTrue(serializableModels());
+        LocalReplica replica = newReplica();
+        replica.update(List.of("2024", "2025"), "2024", List.of(expense(1L, "Farmacia")), List.of(MARIO));
+        replica.update(List.of("2024", "2025"), "2025", List.of(expense(2L, "Veterinario")), List.of(MARIO));
+
+        LocalReplica reopened = newReplica();
+        assertEquals("Farmacia", reopened.findByYear("2024").get(0).getDescription());
+        assertEquals("Veterinario", reopened.findByYear("2025").get(0).getDescription());
+    }
+
+    @Test
+    void filesHoldNoPersonalDataInClear() throws Exception {
+        assumeTrue(serializableModels());
+        newReplica().update(List.of("2025"), "2025", List.of(expense(1L, "Visita oculistica")), List.of(MARIO));
+
+        try (Stream<Path> files = Files.walk(dataDir.resolve("replica"))) {
+            for (Path f : files.filter(Files::isRegularFile).toList()) {
+                String raw = new String(Files.readAllBytes(f), StandardCharsets.ISO_8859_1);
+                assertFalse(raw.contains("oculistica"));
+                assertFalse(raw.contains("RSSMRA80A01H501U"));
+            }
+        }
+
+        // Con un'altra chiave la replica non si legge: si riparte vuoti, senza errori
+        LocalReplica otherKey = new LocalReplica(dataDir, new SecretCipher(dataDir.resolve("other.key")));
+        assertNull(otherKey.getLastYear());
+        assertTrue(otherKey.getAvailableYears().isEmpty());
+    }
+
+    @Test
+    void nonSerializableModelsDisableTheReplicaVisibly() {
+        assumeFalse(serializableModels());
+        LocalReplica replica = newReplica();
+        replica.update(List.of("2025"), "2025", List.of(expense(1L, "Farmacia")), List.of(MARIO));
+
+        assertNotNull(replica.getDisabledReason());
+        assertFalse(replica.hasYear("2025"));
+    }
+
+    private LocalReplica newReplica() {
+        return new LocalReplica(dataDir, new SecretCipher(dataDir.resolve("secret.key")));
+    }
+
+    private static boolean serializableModels() {
+        return Serializable.class.isAssignableFrom(Expense.class) && Serializable.class.isAssignableFrom(Person.class);
+    }
+
+    private static Expense expense(long id, String description) {
+        return new Expense(id, "2025", MARIO, ExpenseType.VISITA_MEDICA, description, "10/03/2025",
+                ExpenseState.COMPLETED);
+    }
+}
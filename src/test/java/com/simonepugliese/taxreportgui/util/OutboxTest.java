@@ -0,0 +1,100 @@
+package com.simonepugliese.taxreportgui.util;
+
+import com.simonepugliese.taxreportgui.gui.SecretCipher;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pugliesesimone.taxreport.model.DocumentType;
+import pugliesesimone.taxreport.model.Expense;
+import pugliesesimone.taxreport.model.ExpenseState;
+import pugliesesimone.taxreport.model.ExpenseType;
+import pugliesesimone.taxreport.model.Person;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboxTest {
+
+    private static final Person MARIO = new Person("Mario Rossi", "RSSMRA80A01H501U");
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void entryIsReadBackAfterRestart() throws Exception {
+        SecretCipher cipher = cipher();
+        Outbox outbox = new Outbox(dataDir.resolve("outbox"), cipher);
+        String id = outbox.enqueue(expense(null, "2025", "Visita oculistica"), null, List.of(), List.of());
+
+        List<Outbox.Entry> entries = new Outbox(dataDir.resolve("outbox"), cipher).entries();
+
+        assertEquals(1, entries.size());
+        Outbox.Entry entry = entries.get(0);
+        assertEquals(id, entry.id());
+        assertEquals("2025", entry.year());
+        assertEquals("Mario Rossi", entry.personName());
+        assertEquals("Visita oculistica", entry.description());
+        assertFalse(entry.edit());
+        assertEquals(Outbox.State.PENDING, entry.state());
+    }
+
+    @Test
+    void editRemembersTheYearOnTheServer() throws Exception {
+        Outbox outbox = new Outbox(dataDir.resolve("outbox"), cipher());
+        String id = outbox.enqueue(expense(7L, "2025", "Farmacia"), "2024", List.of(), List.of());
+
+        assertEquals("2024", outbox.entry(id).getProperty("server.year"));
+        assertEquals("2025", outbox.entry(id).getProperty("year"));
+        assertEquals("7", outbox.entry(id).getProperty("expense.id"));
+    }
+
+    @Test
+    void nothingPersonalIsStoredInClear() throws Exception {
+        Path scan = Files.writeString(dataDir.resolve("referto_oncologico.pdf"), "CONTENUTO-REFERTO");
+        Outbox outbox = new Outbox(dataDir.resolve("outbox"), cipher());
+        String id = outbox.enqueue(expense(null, "2025", "Visita oculistica"), null, List.of(),
+                List.of(new AttachmentUploader.LocalAttachment(scan.toFile(), DocumentType.FATTURA, "referto_oncologico.pdf")));
+
+        try (Stream<Path> files = Files.walk(dataDir.resolve("outbox"))) {
+            for (Path f : files.toList()) {
+                assertFalse(f.getFileName().toString().contains("referto"));
+                if (!Files.isRegularFile(f)) continue;
+                String raw = new String(Files.readAllBytes(f), StandardCharsets.ISO_8859_1);
+                for (String secret : List.of("CONTENUTO-REFERTO", "oculistica", "RSSMRA80A01H501U", "Mario")) {
+                    assertFalse(raw.contains(secret));
+                }
+            }
+        }
+
+        List<AttachmentUploader.LocalAttachment> copies = outbox.attachments(outbox.entry(id));
+        assertEquals(1, copies.size());
+        assertEquals("referto_oncologico.pdf", copies.get(0).name());
+        assertEquals(17, copies.get(0).size());
+        try (InputStream in = copies.get(0).open()) {
+            assertEquals("CONTENUTO-REFERTO", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void entriesNeedTheSameKey() throws Exception {
+        new Outbox(dataDir.resolve("outbox"), cipher()).enqueue(expense(null, "2025", "Farmacia"), null, List.of(), List.of());
+
+        Outbox otherKey = new Outbox(dataDir.resolve("outbox"), new SecretCipher(dataDir.resolve("other.key")));
+
+        assertTrue(otherKey.entries().isEmpty());
+    }
+
+    private SecretCipher cipher() {
+        return new SecretCipher(dataDir.resolve("secret.key"));
+    }
+
+    private static Expense expense(Long id, String year, String description) {
+        return new Expense(id, year, MARIO, ExpenseType.VISITA_MEDICA, description, "10/03/" + year,
+                ExpenseState.COMPLETED);
+    }
+}
@@ -0,0 +1,56 @@
+package com.simonepugliese.taxreportgui.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SaveJournalTest {
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void beganOperationIsReadBackUntilForgotten() throws Exception {
+        SaveJournal journal = new SaveJournal(dataDir);
+        assertNull(journal.get("op-1"));
+
+        journal.begin("op-1", "2025", Set.of(3L, 7L));
+
+        SaveJournal reopened = new SaveJournal(dataDir);
+        SaveJournal.Record record = reopened.get("op-1");
+        assertEquals("2025", record.year());
+        assertEquals(Set.of(3L, 7L), record.knownIds());
+
+        reopened.forget("op-1");
+        assertNull(journal.get("op-1"));
+    }
+
+    @Test
+    void emptyYearHasNoKnownIds() throws Exception {
+        SaveJournal journal = new SaveJournal(dataDir);
+        journal.begin("op-2", "2024", Set.of());
+
+        assertTrue(journal.get("op-2").knownIds().isEmpty());
+    }
+
+    @Test
+    void unreadableRecordStopsTheRetry() throws Exception {
+        SaveJournal journal = new SaveJournal(dataDir);
+        journal.begin("op-3", "2025", Set.of(1L));
+        Files.writeString(dataDir.resolve("operations").resolve("op-3.properties"), "known=1,x\n");
+
+        assertThrows(IllegalStateException.class, () -> journal.get("op-3"));
+    }
+
+    @Test
+    void idsCannotEscapeTheDirectory() {
+        SaveJournal journal = new SaveJournal(dataDir);
+
+        assertThrows(IllegalArgumentException.class, () -> journal.get("../config"));
+    }
+}
@@ -0,0 +1,116 @@
+package com.simonepugliese.taxreportgui.util;
+
+import com.simonepugliese.taxreportgui.gui.SecretCipher;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pugliesesimone.taxreport.model.Expense;
+import pugliesesimone.taxreport.model.ExpenseState;
+import pugliesesimone.taxreport.model.ExpenseType;
+import pugliesesimone.taxreport.model.Person;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchIndexTest {
+
+    private static final Person MARIO = new Person("Mario Rossi", "RSSMRA80A01H501U");
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void tokenizeLowercasesAndDropsAccents() {
+        assertEquals(Set.of("perche", "caffe", "20", "euro"), SearchIndex.tokenize("Perché  CAFFÈ, 20 euro!"));
+        assertTrue(SearchIndex.tokenize(null).isEmpty());
+    }
+
+    @Test
+    void searchMatchesEveryWordAsPrefix() {
+        SearchIndex index = newIndex();
+        index.indexYear("2025", List.of(
+                expense(1L, "2025", "Visita oculistica"),
+                expense(2L, "2025", "Visita dentistica")));
+
+        assertEquals(2, index.search("vis", 10).size());
+        assertEquals(List.of("1"), ids(index.search("vis ocul", 10)));
+        assertEquals(List.of("2"), ids(index.search("rssmra dent", 10)));
+        assertTrue(index.search("vis cardio", 10).isEmpty());
+        assertTrue(index.search("  ", 10).isEmpty());
+    }
+
+    @Test
+    void resultsAreNewestFirstAndLimited() {
+        SearchIndex index = newIndex();
+        index.indexYear("2024", List.of(expense(1L, "2024", "Farmacia")));
+        index.indexYear("2025", List.of(expense(2L, "2025", "Farmacia")));
+
+        List<SearchIndex.Hit> hits = index.search("farmacia", 10);
+        assertEquals(List.of("2025", "2024"), hits.stream().map(SearchIndex.Hit::year).toList());
+        assertEquals(1, index.search("farmacia", 1).size());
+    }
+
+    @Test
+    void reindexingAYearDropsRemovedExpenses() {
+        SearchIndex index = newIndex();
+        index.indexYear("2025", List.of(expense(1L, "2025", "Farmacia"), expense(2L, "2025", "Veterinario")));
+        index.indexYear("2025", List.of(expense(2L, "2025", "Veterinario")));
+
+        assertTrue(index.search("farmacia", 10).isEmpty());
+        assertEquals(List.of("2"), ids(index.search("veterinario", 10)));
+    }
+
+    @Test
+    void savedIndexIsReadBack() {
+        SearchIndex index = newIndex();
+        index.indexYear("2025", List.of(expense(1L, "2025", "Visita oculistica")));
+        index.save();
+
+        SearchIndex reloaded = newIndex();
+        assertEquals(Set.of("2025"), reloaded.getIndexedYears());
+        assertEquals(List.of("1"), ids(reloaded.search("oculist", 10)));
+    }
+
+    @Test
+    void savedIndexHoldsNoPersonalDataInClear() throws Exception {
+        Files.writeString(dataDir.resolve("search.idx"), "vecchio indice in chiaro");
+        SearchIndex index = newIndex();
+        index.indexYear("2025", List.of(expense(1L, "2025", "Visita oculistica")));
+        index.save();
+
+        assertFalse(Files.exists(dataDir.resolve("search.idx")));
+        String raw = new String(Files.readAllBytes(dataDir.resolve("search.bin")), StandardCharsets.ISO_8859_1);
+        for (String secret : List.of("oculistica", "rssmra80a01h501u", "RSSMRA80A01H501U", "mario", "Mario")) {
+            assertFalse(raw.contains(secret));
+        }
+
+        // Con un'altra chiave l'indice non si legge: si ricostruisce da zero
+        SearchIndex otherKey = new SearchIndex(dataDir, new SecretCipher(dataDir.resolve("other.key")));
+        assertTrue(otherKey.getIndexedYears().isEmpty());
+    }
+
+    @Test
+    void missingYearsAreNewestFirst() {
+        SearchIndex index = newIndex();
+        index.indexYear("2024", List.of());
+
+        assertEquals(List.of("2025", "2023"), index.missingYears(List.of("2023", "2024", "2025")));
+    }
+
+    private SearchIndex newIndex() {
+        return new SearchIndex(dataDir, new SecretCipher(dataDir.resolve("secret.key")));
+    }
+
+    private static List<String> ids(List<SearchIndex.Hit> hits) {
+        return hits.stream().map(SearchIndex.Hit::expenseId).toList();
+    }
+
+    private static Expense expense(long id, String year, String description) {
+        return new Expense(id, year, MARIO, ExpenseType.VISITA_MEDICA, description, "10/03/" + year,
+                ExpenseState.COMPLETED);
+    }
+}